@@ -16,106 +16,60 @@
 
 package com.acme.callbacks.advanced;
 
-import com.hivemq.spi.callback.CallbackPriority;
-import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
-import com.hivemq.spi.callback.exception.OnPublishReceivedException;
 import com.hivemq.spi.message.PUBLISH;
 import com.hivemq.spi.security.ClientData;
-import com.hivemq.spi.services.BlockingClientService;
-import com.hivemq.spi.services.ClientService;
-import com.hivemq.spi.services.PluginExecutorService;
-import com.hivemq.spi.services.PublishService;
 import com.google.common.base.Charsets;
-import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
-
 import io.reactivex.annotations.NonNull;
-import io.reactivex.functions.Consumer;
-import rx.hivemq.RxHiveMQ;
+import io.reactivex.functions.BiFunction;
+import rx.hivemq.ConnectedClientIndex;
+import rx.hivemq.PublishDecision;
 
 /**
- * This class implements the {@link com.hivemq.spi.callback.events.OnPublishReceivedCallback}, which is triggered everytime
- * a new message is published to the broker. This callback enables a custom handling of a
- * MQTT message, for acme saving to a database.
+ * This class decides on every message published to the broker, see
+ * {@link rx.hivemq.RxHiveMQ#publishInterceptor}. This enables a custom handling of a
+ * MQTT message, for acme saving to a database, see {@link rx.hivemq.PublishLog} to do so off the broker threads.
  *
- * Addtionally this callback shows how the PublishService can be used to republish messages on other topics.
+ * Addtionally this decision shows how messages can be redirected to other topics.
  *
  * @author Christian Götz
  */
-public class SendListOfAllClientsOnPublish implements Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>> {
+public class SendListOfAllClientsOnPublish implements BiFunction<PUBLISH, ClientData, PublishDecision> {
 
     Logger logger = LoggerFactory.getLogger(SendListOfAllClientsOnPublish.class);
 
-    private final PublishService publishService;
-    private final BlockingClientService clientService;
+    private final ConnectedClientIndex connectedClients;
     private final String allClientsTopic = "broker/all/clients";
 
-    @Inject
-    public SendListOfAllClientsOnPublish(final PublishService publishService, final BlockingClientService clientService) {
-        this.publishService = publishService;
-        this.clientService = clientService;
+    public SendListOfAllClientsOnPublish(final ConnectedClientIndex connectedClients) {
+        this.connectedClients = connectedClients;
     }
 
     /**
      * This method is called from the HiveMQ, when a new MQTT {@link com.hivemq.spi.message.PUBLISH} message arrives
-     * at the broker. In this acme the method is just logging each message to the console.
+     * at the broker. In this acme a message to fetch/all/clients is redirected to broker/all/clients with
+     * the list of all clients, other messages are delivered.
      *
      * @param publish    The publish message send by the client.
      * @param clientData Useful information about the clients authentication state and credentials.
-     * @throws com.hivemq.spi.callback.exception.OnPublishReceivedException When the exception is thrown, the publish is not
-     *                                                                      accepted and will NOT be delivered to the subscribing clients.
+     * @return When the message is redirected, the publish is not delivered to the subscribing clients.
      */
-    public void onPublishReceived(final PUBLISH publish, final ClientData clientData) throws OnPublishReceivedException {
+    @Override
+    public PublishDecision apply(@NonNull final PUBLISH publish, @NonNull final ClientData clientData) {
         if (publish.getTopic().equals("fetch/all/clients")) {
 
-            String clientID = clientData.getClientId();
-            String topic = publish.getTopic();
-            String message = new String(publish.getPayload(), Charsets.UTF_8);
-
-            logger.info("Client " + clientID + " sent a message to topic " + topic + ": " + message);
-
-            // Get all clients
-            String allClients = getAllClients();
-            publish.setPayload(allClients.getBytes(Charsets.UTF_8));
-
-            // This redirects the message with the help of the PublishService
-            redirectPublish(allClientsTopic, publish);
+            if (logger.isInfoEnabled()) {
+                logger.info("Client " + clientData.getClientId() + " sent a message to topic " + publish.getTopic()
+                        + ": " + new String(publish.getPayload(), Charsets.UTF_8));
+            }
 
             logger.info("Ignoring message and sending list of all clients to topic {}", allClientsTopic);
-            throw new OnPublishReceivedException("This message should not be published", false);
-        }
-
-    }
 
-    /**
-     * This methods iterates over all clients and build a string.
-     *
-     * @return a comma-separated string of all clients
-     */
-    private String getAllClients() {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        final Set<String> connectedClients = clientService.getLocalConnectedClients();
-        for (String connectedClient : connectedClients) {
-            stringBuilder.append(connectedClient).append(",");
+            // Redirect with all clients, the payload is only rebuilt after clients connected or disconnected
+            return PublishDecision.redirect(allClientsTopic, connectedClients.toPayload());
         }
-        return stringBuilder.toString();
-    }
-
-    /**
-     * Copy and redirect a PUBLISH message to a new topic
-     */
-    private void redirectPublish(String newTopic, PUBLISH publish) {
-        PUBLISH copy = PUBLISH.copy(publish);
-        copy.setTopic(newTopic);
-        publishService.publish(copy);
-    }
-
-    @Override
-    public void accept(@NonNull RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
-        onPublishReceived(pair.left, pair.right);
+        return PublishDecision.accept();
     }
 }
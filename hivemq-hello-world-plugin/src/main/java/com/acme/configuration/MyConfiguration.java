@@ -17,27 +17,68 @@
 package com.acme.configuration;
 
 import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Properties;
+import javax.annotation.PostConstruct;
+
+import io.reactivex.Observable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import rx.hivemq.ConfigSnapshot;
 
 /**
  * @author Christian Götz
  */
 public class MyConfiguration {
 
+    private static final Logger log = LoggerFactory.getLogger(MyConfiguration.class);
+
+    private static final String MY_PROPERTY = "myProperty";
 
-    private final Properties properties;
+    private final PluginReader pluginReader;
+    private volatile ConfigSnapshot snapshot;
 
     @Inject
     public MyConfiguration(PluginReader pluginReader) {
-        properties = pluginReader.getProperties();
+        this.pluginReader = pluginReader;
+        this.snapshot = ConfigSnapshot.of(pluginReader.getProperties());
+    }
+
+    /**
+     * Keeps {@link #getMyProperty()} up to date with the properties file, until the config folder can't be watched.
+     */
+    @PostConstruct
+    public void postConstruct() {
+        pluginReader.snapshots().subscribe(new Consumer<ConfigSnapshot>() {
+            @Override
+            public void accept(@NonNull final ConfigSnapshot latest) throws Exception {
+                snapshot = latest;
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull final Throwable e) throws Exception {
+                log.error("Stopped reloading the properties file", e);
+            }
+        });
     }
 
     public String getMyProperty() {
-        if (properties == null) {
-            return null;
-        }
+        return snapshot.getString(MY_PROPERTY);
+    }
 
-        return properties.getProperty("myProperty");
+    /**
+     * @return the current value, then every change of it, empty if unset
+     */
+    public Observable<String> myProperties() {
+        return pluginReader.snapshots()
+                .map(new Function<ConfigSnapshot, String>() {
+                    @Override
+                    public String apply(@NonNull final ConfigSnapshot snapshot) throws Exception {
+                        return snapshot.getString(MY_PROPERTY, "");
+                    }
+                })
+                .distinctUntilChanged();
     }
 }
@@ -21,6 +21,10 @@ import com.hivemq.spi.config.SystemInformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.reactivex.Observable;
+import rx.hivemq.ConfigSnapshot;
+import rx.hivemq.RxConfiguration;
+
 import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,12 +40,16 @@ public class PluginReader {
 
     private static final Logger log = LoggerFactory.getLogger(PluginReader.class);
 
+    static final String FILE_NAME = "myPlugin.properties";
+
     final Properties properties = new Properties();
     private final SystemInformation systemInformation;
+    private final Observable<ConfigSnapshot> snapshots;
 
     @Inject
     PluginReader(SystemInformation systemInformation) {
         this.systemInformation = systemInformation;
+        this.snapshots = RxConfiguration.watch(systemInformation, FILE_NAME).replay(1).refCount();
     }
 
     @PostConstruct
@@ -49,7 +57,7 @@ public class PluginReader {
     {
         final File configFolder = systemInformation.getConfigFolder();
 
-        final File configFile = new File(configFolder, "myPlugin.properties");
+        final File configFile = new File(configFolder, FILE_NAME);
 
         if (!configFile.canRead()) {
             log.error("Could not read the properties file {}", configFile.getAbsolutePath());
@@ -72,4 +80,11 @@ public class PluginReader {
         return properties;
     }
 
+    /**
+     * The properties file reloaded on every change, all subscribers share a single watcher.
+     */
+    public Observable<ConfigSnapshot> snapshots() {
+        return snapshots;
+    }
+
 }
\ No newline at end of file
@@ -27,34 +27,50 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.hivemq.spi.PluginEntryPoint;
 import com.hivemq.spi.callback.CallbackPriority;
 import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.config.SystemInformation;
 import com.hivemq.spi.message.CONNECT;
-import com.hivemq.spi.message.PUBLISH;
 import com.hivemq.spi.message.QoS;
 import com.hivemq.spi.message.RetainedMessage;
 import com.hivemq.spi.message.Topic;
 import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.services.AsyncRetainedMessageStore;
 import com.hivemq.spi.services.AsyncSubscriptionStore;
+import com.hivemq.spi.services.BlockingMetricService;
 import com.hivemq.spi.services.BlockingRetainedMessageStore;
+import com.hivemq.spi.services.PublishService;
 import com.hivemq.spi.services.RetainedMessageStore;
 
-import net.javacrumbs.futureconverter.guavarx2.FutureConverter;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
 import io.reactivex.ObservableSource;
-import io.reactivex.Single;
 import io.reactivex.SingleSource;
 import io.reactivex.annotations.NonNull;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import rx.hivemq.ConnectEvent;
+import rx.hivemq.ConnectedClientIndex;
+import rx.hivemq.LastValueCache;
+import rx.hivemq.OverflowPolicy;
+import rx.hivemq.PublishEvent;
+import rx.hivemq.PublishLog;
 import rx.hivemq.RxHiveMQ;
+import rx.hivemq.RxRetainedMessageStore;
+import rx.hivemq.ScheduledTick;
+import rx.hivemq.SubscriptionProvisioner;
 
 /**
  * This is the main class of the plugin, which is instanciated during the HiveMQ start up process.
@@ -66,19 +82,28 @@ public class HelloWorldMainClass extends PluginEntryPoint {
     Logger log = LoggerFactory.getLogger(HelloWorldMainClass.class);
 
     private final BlockingRetainedMessageStore retainedMessageStore;
+    private final AsyncRetainedMessageStore asyncRetainedMessageStore;
     private final MyConfiguration myConfiguration;
     private final AsyncSubscriptionStore subscriptionStore;
-    private final SendListOfAllClientsOnPublish sendListOfAllClientsOnPublish;
+    private final PublishService publishService;
+    private final BlockingMetricService metricService;
+    private final SystemInformation systemInformation;
 
     @Inject
     public HelloWorldMainClass(final BlockingRetainedMessageStore retainedMessageStore,
+                               final AsyncRetainedMessageStore asyncRetainedMessageStore,
                                final MyConfiguration myConfiguration,
                                final AsyncSubscriptionStore subscriptionStore,
-                               final SendListOfAllClientsOnPublish sendListOfAllClientsOnPublish) {
+                               final PublishService publishService,
+                               final BlockingMetricService metricService,
+                               final SystemInformation systemInformation) {
         this.retainedMessageStore = retainedMessageStore;
+        this.asyncRetainedMessageStore = asyncRetainedMessageStore;
         this.myConfiguration = myConfiguration;
         this.subscriptionStore = subscriptionStore;
-        this.sendListOfAllClientsOnPublish = sendListOfAllClientsOnPublish;
+        this.publishService = publishService;
+        this.metricService = metricService;
+        this.systemInformation = systemInformation;
     }
 
     /**
@@ -88,6 +113,7 @@ public class HelloWorldMainClass extends PluginEntryPoint {
     @PostConstruct
     public void postConstruct() {
         final CallbackRegistry callbackRegistry = getCallbackRegistry();
+        RxHiveMQ.enableMetrics(callbackRegistry, metricService.getMetricRegistry());
 
         RxHiveMQ.brokerStarts(callbackRegistry, CallbackPriority.MEDIUM).subscribe(new Action() {
             @Override
@@ -95,50 +121,81 @@ public class HelloWorldMainClass extends PluginEntryPoint {
                 log.info("Property from property file is: " + myConfiguration.getMyProperty());
             }
         });
-        RxHiveMQ.clientConnects(callbackRegistry, CallbackPriority.MEDIUM).subscribe(
-                new Consumer<RxHiveMQ.Pair<CONNECT, ClientData>>() {
+        myConfiguration.myProperties().skip(1).subscribe(new Consumer<String>() {
+            @Override
+            public void accept(@NonNull final String myProperty) throws Exception {
+                log.info("Property from property file changed to: " + myProperty);
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull final Throwable e) throws Exception {
+                log.error("Stopped watching the property file", e);
+            }
+        });
+        RxHiveMQ.connectEvents(callbackRegistry, CallbackPriority.MEDIUM, true).subscribe(
+                new Consumer<ConnectEvent>() {
             @Override
-            public void accept(@NonNull final RxHiveMQ.Pair<CONNECT, ClientData> pair)
+            public void accept(@NonNull final ConnectEvent event)
                     throws Exception {
-                log.info("Client {} is connecting", pair.right.getClientId());
+                log.info("Client {} is connecting", event.getClientId());
             }
         });
-        RxHiveMQ.publishReceiveds(callbackRegistry, CallbackPriority.MEDIUM).subscribe(
-                new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+        RxHiveMQ.publishEvents(callbackRegistry, CallbackPriority.MEDIUM, true).subscribe(
+                new Consumer<PublishEvent>() {
                     @Override
-                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair)
+                    public void accept(@NonNull final PublishEvent event)
                             throws Exception {
-                        log.info("Client " + pair.right.getClientId() + " sent a message to topic "
-                                + pair.left.getTopic() + ": "
-                                + new String(pair.left.getPayload(), Charsets.UTF_8));
+                        if (log.isInfoEnabled()) {
+                            log.info("Client {} sent a message to topic {}: {}", event.getClientId(),
+                                    event.getTopic(), Charsets.UTF_8.decode(event.getPayload()));
+                        }
                     }
                 });
-        RxHiveMQ.scheduleds(callbackRegistry, "0/5 * * * * ?").subscribe(
-                new Consumer<String>() {
+        // Shares the broker callback of the other subscriptions to the same cron expression
+        RxHiveMQ.scheduledTicks(callbackRegistry, "0/5 * * * * ?").subscribe(
+                new Consumer<ScheduledTick>() {
                     @Override
-                    public void accept(@NonNull final String text)
+                    public void accept(@NonNull final ScheduledTick tick)
                             throws Exception {
-                        log.info("Scheduled Callback is doing maintenance!");
+                        log.info("Scheduled Callback is doing maintenance, {} ms late!",
+                                tick.getLateness(TimeUnit.MILLISECONDS));
                     }
                 });
-        RxHiveMQ.scheduleds(callbackRegistry, "0/40 * * * * ?").subscribe(
-                new Consumer<String>() {
-            @Override
-            public void accept(@NonNull final String text)
-                    throws Exception {
-                final Set<RetainedMessage> retainedMessages = retainedMessageStore.getRetainedMessages();
-                for (final RetainedMessage retainedMessage : retainedMessages) {
-                    if (retainedMessage != null) {
-                        retainedMessageStore.remove(retainedMessage.getTopic());
+        // Ticks arriving while a sweep is still running are dropped
+        RxHiveMQ.scheduleds(callbackRegistry, "0/40 * * * * ?")
+                .toFlowable(BackpressureStrategy.DROP)
+                .flatMapSingle(new Function<String, SingleSource<Long>>() {
+                    @Override
+                    public SingleSource<Long> apply(@NonNull final String cron) throws Exception {
+                        final Flowable<String> topics = RxRetainedMessageStore.retainedMessages(asyncRetainedMessageStore)
+                                .map(new Function<RetainedMessage, String>() {
+                                    @Override
+                                    public String apply(@NonNull final RetainedMessage retainedMessage)
+                                            throws Exception {
+                                        return retainedMessage.getTopic();
+                                    }
+                                });
+                        return RxRetainedMessageStore.removeAll(asyncRetainedMessageStore, topics)
+                                .doOnError(new Consumer<Throwable>() {
+                                    @Override
+                                    public void accept(@NonNull final Throwable e) throws Exception {
+                                        log.error("Failed to remove the retained messages", e);
+                                    }
+                                })
+                                .onErrorReturnItem(0L);
                     }
-                }
-                log.info("Scheduled Callback is doing maintenance!");
-            }
-        });
+                }, false, 1)
+                .subscribe(new Consumer<Long>() {
+                    @Override
+                    public void accept(@NonNull final Long removed) throws Exception {
+                        log.info("Scheduled Callback removed {} retained messages", removed);
+                    }
+                });
+        final SubscriptionProvisioner provisioner = SubscriptionProvisioner.create(subscriptionStore, 64);
         RxHiveMQ.clientConnects(callbackRegistry, CallbackPriority.MEDIUM)
-                .flatMapSingle(new Function<RxHiveMQ.Pair<CONNECT, ClientData>, SingleSource<RxHiveMQ.Pair<String, String>>>() {
+                .flatMapMaybe(new Function<RxHiveMQ.Pair<CONNECT, ClientData>, MaybeSource<RxHiveMQ.Pair<String, String>>>() {
                     @Override
-                    public SingleSource<RxHiveMQ.Pair<String, String>> apply(@NonNull RxHiveMQ.Pair<CONNECT, ClientData> pair) throws Exception {
+                    public MaybeSource<RxHiveMQ.Pair<String, String>> apply(@NonNull RxHiveMQ.Pair<CONNECT, ClientData> pair) throws Exception {
                         final String clientId = pair.right.getClientId();
 
                         log.info("Client {} is connecting", clientId);
@@ -148,18 +205,22 @@ public class HelloWorldMainClass extends PluginEntryPoint {
                     }
 
                     /**
-                     * Add a Subscription for a certain client
+                     * Add a Subscription for a certain client, at most 64 store calls are in flight
+                     * and a client reconnecting meanwhile shares the pending one, a failure is logged
+                     * and completes empty
                      */
-                    private Single<RxHiveMQ.Pair<String, String>> addClientToTopic(
+                    private Maybe<RxHiveMQ.Pair<String, String>> addClientToTopic(
                             @NonNull final String clientId,
                             @NonNull final String topic) {
-                        //The AsyncSubscriptionStore returns a ListenableFuture object
-                        return FutureConverter.toSingle(subscriptionStore.addSubscription(clientId,
-                                        new Topic(topic, QoS.valueOf(0))))
-                                .map(new Function<Void, RxHiveMQ.Pair<String, String>>() {
+                        return provisioner.provision(clientId, new Topic(topic, QoS.valueOf(0)))
+                                .toSingleDefault(new RxHiveMQ.Pair<String, String>(topic, clientId))
+                                .toMaybe()
+                                .onErrorResumeNext(new Function<Throwable, MaybeSource<RxHiveMQ.Pair<String, String>>>() {
                                     @Override
-                                    public RxHiveMQ.Pair<String, String> apply(@NonNull Void v) throws Exception {
-                                        return new RxHiveMQ.Pair<String, String>(clientId, topic);
+                                    public MaybeSource<RxHiveMQ.Pair<String, String>> apply(@NonNull Throwable e)
+                                            throws Exception {
+                                        log.error("Failed to add subscription to {} for client {}", topic, clientId, e);
+                                        return Maybe.empty();
                                     }
                                 });
                     }
@@ -170,18 +231,61 @@ public class HelloWorldMainClass extends PluginEntryPoint {
                             throws Exception {
                         log.info("Added subscription to {} for client {}", pair.left, pair.right);
                     }
-                }, new Consumer<Throwable>() {
+                });
+        // Latest reading per sensor, up to 64k sensors of at most 256 bytes, read without the retained store
+        final LastValueCache sensors = LastValueCache.create(callbackRegistry, CallbackPriority.LOW,
+                "devices/+/sensor", 65536, 256);
+        RxHiveMQ.scheduleds(callbackRegistry, "0/5 * * * * ?").subscribe(
+                new Consumer<String>() {
                     @Override
-                    public void accept(@NonNull Throwable e) throws Exception {
-                        log.error("Failed to add subscription because of {}", e.getCause());
+                    public void accept(@NonNull final String text)
+                            throws Exception {
+                        log.info("Provisioning: {} queued, {} in flight, {} ms mean latency",
+                                provisioner.getQueueDepth(), provisioner.getInFlight(),
+                                provisioner.getMeanLatency(TimeUnit.MILLISECONDS));
+                        log.info("Latest readings of {} sensors", sensors.size());
                     }
                 });
-        RxHiveMQ.publishReceiveds(callbackRegistry, CallbackPriority.MEDIUM)
-                .subscribe(sendListOfAllClientsOnPublish);
+        final ConnectedClientIndex connectedClients =
+                ConnectedClientIndex.create(callbackRegistry, CallbackPriority.MEDIUM);
+        RxHiveMQ.publishInterceptor(callbackRegistry, CallbackPriority.HIGH, publishService,
+                new SendListOfAllClientsOnPublish(connectedClients)).subscribe();
+
+        capturePublishes(callbackRegistry);
 
         addRetainedMessage("/default", "Hello World.");
     }
 
+    /**
+     * Capture every message to an append log in the data folder, written behind on a single thread which requests
+     * the messages as fast as it appends them, the broker threads drop the latest messages instead of waiting once
+     * 64k messages are pending. The latest 8 segments of 16 MiB are kept.
+     */
+    private void capturePublishes(final CallbackRegistry callbackRegistry) {
+        final PublishLog publishLog;
+        try {
+            publishLog = PublishLog.open(new File(systemInformation.getDataFolder(), "publishes"),
+                    16 * 1024 * 1024, 1024 * 1024, 1, TimeUnit.SECONDS, 8);
+        } catch (IOException e) {
+            log.error("Failed to open the publish log", e);
+            return;
+        }
+        publishLog.writeBehind(RxHiveMQ.publishReceiveds(callbackRegistry, CallbackPriority.LOW,
+                OverflowPolicy.dropLatest(65536)), Schedulers.single(), 1024)
+                .subscribe(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        publishLog.close();
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(@NonNull final Throwable e) throws Exception {
+                        log.error("Failed to append to the publish log", e);
+                        publishLog.close();
+                    }
+                });
+    }
+
     /**
      * Programmatically add a new Retained Message.
      */
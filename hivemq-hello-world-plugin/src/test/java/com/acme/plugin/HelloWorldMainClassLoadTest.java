@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acme.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import rx.hivemq.PublishLog;
+import rx.hivemq.test.BrokerSimulator;
+import rx.hivemq.test.Scenario;
+import rx.hivemq.test.ScenarioReport;
+
+/**
+ * Plays connect storms, publish floods and cron ticks through the plugin, without a broker.
+ *
+ * The heap growth and the publish log written behind depend on the GC and the machine, they are only checked
+ * with {@code -Dloadtest.strict=true}.
+ */
+public class HelloWorldMainClassLoadTest extends TestCase {
+    private static final int CLIENTS = 1000;
+    private static final Logger log = LoggerFactory.getLogger(HelloWorldMainClassLoadTest.class);
+
+    public void testLoad() throws Exception {
+        final BrokerSimulator broker = BrokerSimulator.create();
+        try {
+            load(broker);
+        } finally {
+            broker.close();
+        }
+    }
+
+    private void load(final BrokerSimulator broker) throws Exception {
+        broker.start(HelloWorldMainClass.class);
+
+        final ScenarioReport report = broker.run(Scenario.builder()
+                .clients(CLIENTS, "device-%d")
+                .threads(4)
+                .connectStorm()
+                .publishFlood(20, "devices/%s/sensor", 64)
+                .publishFlood(1, "fetch/all/clients", 0)
+                .cronTicks("0/5 * * * * ?", 100)
+                .disconnectStorm()
+                .build());
+        log.info("{}", report);
+
+        assertEquals(0, report.getErrors());
+        // every client subscribed to its sensor topic on connect
+        assertEquals(CLIENTS, broker.getSubscriptionStore().size());
+        // every fetch/all/clients message is redirected to broker/all/clients
+        assertEquals(CLIENTS, report.getSteps().get(2).getRejected());
+        assertEquals(CLIENTS, broker.getPublishService().getPublishedCount());
+        assertEquals(CLIENTS, report.getRejected());
+        assertTrue(broker.getClientService().getConnectedClients().isEmpty());
+        assertTrue(broker.getRetainedMessageStore().contains("/default"));
+
+        if (!Boolean.getBoolean("loadtest.strict")) {
+            return;
+        }
+        assertTrue("heap grew by " + report.getHeapGrowth(), report.getHeapGrowth() < 64L * 1024 * 1024);
+        // the accepted messages are written behind to the publish log
+        final File publishes = new File(broker.getSystemInformation().getDataFolder(), "publishes");
+        long captured = 0;
+        for (int i = 0; i < 50 && captured < CLIENTS * 20; i++) {
+            Thread.sleep(100);
+            captured = PublishLog.replay(publishes).count().blockingGet();
+        }
+        assertEquals(CLIENTS * 20, captured);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the bridge benchmarks twice, for ops/s and for ns/event along with the bytes allocated per event
+ * ({@code gc.alloc.rate.norm}), one event being one broker callback dispatch.
+ *
+ * Results are written as JSON to {@code build/reports/jmh}.
+ */
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : Benchmarks.class.getPackage().getName() + ".*Benchmark";
+        final File reports = new File("build/reports/jmh");
+        if (!reports.isDirectory() && !reports.mkdirs()) {
+            throw new IllegalStateException("Could not create " + reports.getAbsolutePath());
+        }
+
+        run(new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS), new File(reports, "throughput.json"));
+        run(new OptionsBuilder()
+                .include(include)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .addProfiler(GCProfiler.class), new File(reports, "latency.json"));
+    }
+
+    private static void run(final ChainedOptionsBuilder options, final File result) throws RunnerException {
+        new Runner(options
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath())
+                .build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.benchmark;
+
+import com.hivemq.spi.callback.CallbackPriority;
+import com.hivemq.spi.callback.events.OnConnectCallback;
+import com.hivemq.spi.callback.exception.RefusedConnectionException;
+import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.security.ClientData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Consumer;
+import rx.hivemq.ConnectEvent;
+import rx.hivemq.RxHiveMQ;
+import rx.hivemq.test.InMemoryCallbackRegistry;
+import rx.hivemq.test.SimpleClientData;
+
+/**
+ * One broker CONNECT dispatched to the subscribers of a bridge, against hand-written callbacks.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClientConnectBenchmark {
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    @Param({"callback", "clientConnects", "connectEvents", "connectEventsReused"})
+    public String bridge;
+
+    private final InMemoryCallbackRegistry callbackRegistry = new InMemoryCallbackRegistry();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final CONNECT connect = new CONNECT();
+    private final ClientData clientData = new SimpleClientData("device-1");
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        connect.setClientIdentifier(clientData.getClientId());
+        for (int i = 0; i < subscribers; i++) {
+            switch (bridge) {
+                case "callback":
+                    callbackRegistry.addCallback(new OnConnectCallback() {
+                        @Override
+                        public void onConnect(final CONNECT connect, final ClientData clientData)
+                                throws RefusedConnectionException {
+                            blackhole.consume(connect);
+                            blackhole.consume(clientData);
+                        }
+
+                        @Override
+                        public int priority() {
+                            return CallbackPriority.MEDIUM;
+                        }
+                    });
+                    break;
+                case "clientConnects":
+                    disposables.add(RxHiveMQ.clientConnects(callbackRegistry, CallbackPriority.MEDIUM)
+                            .subscribe(new Consumer<RxHiveMQ.Pair<CONNECT, ClientData>>() {
+                                @Override
+                                public void accept(@NonNull final RxHiveMQ.Pair<CONNECT, ClientData> pair)
+                                        throws Exception {
+                                    blackhole.consume(pair.left);
+                                    blackhole.consume(pair.right);
+                                }
+                            }));
+                    break;
+                case "connectEvents":
+                case "connectEventsReused":
+                    disposables.add(RxHiveMQ.connectEvents(callbackRegistry, CallbackPriority.MEDIUM,
+                            bridge.equals("connectEventsReused"))
+                            .subscribe(new Consumer<ConnectEvent>() {
+                                @Override
+                                public void accept(@NonNull final ConnectEvent event) throws Exception {
+                                    blackhole.consume(event.getConnect());
+                                    blackhole.consume(event.getClientData());
+                                }
+                            }));
+                    break;
+                default:
+                    throw new IllegalArgumentException(bridge);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        disposables.clear();
+        callbackRegistry.clear();
+    }
+
+    @Benchmark
+    public void connect() throws RefusedConnectionException {
+        callbackRegistry.connect(connect, clientData);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.benchmark;
+
+import com.hivemq.spi.callback.CallbackPriority;
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Consumer;
+import rx.hivemq.PublishEvent;
+import rx.hivemq.RxHiveMQ;
+import rx.hivemq.test.InMemoryCallbackRegistry;
+import rx.hivemq.test.SimpleClientData;
+
+/**
+ * One broker PUBLISH dispatched to the subscribers of a bridge, against hand-written callbacks.
+ *
+ * With {@code publishReceivedsFiltered} only the first subscriber's filter matches the topic.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PublishReceivedBenchmark {
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    @Param({"callback", "publishReceiveds", "publishReceivedsFiltered", "publishEvents", "publishEventsReused"})
+    public String bridge;
+
+    private final InMemoryCallbackRegistry callbackRegistry = new InMemoryCallbackRegistry();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final PUBLISH publish = new PUBLISH(new byte[64], "devices/device-1/sensor", QoS.AT_MOST_ONCE);
+    private final ClientData clientData = new SimpleClientData("device-1");
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        for (int i = 0; i < subscribers; i++) {
+            switch (bridge) {
+                case "callback":
+                    callbackRegistry.addCallback(new OnPublishReceivedCallback() {
+                        @Override
+                        public void onPublishReceived(final PUBLISH publish, final ClientData clientData)
+                                throws OnPublishReceivedException {
+                            blackhole.consume(publish);
+                            blackhole.consume(clientData);
+                        }
+
+                        @Override
+                        public int priority() {
+                            return CallbackPriority.MEDIUM;
+                        }
+                    });
+                    break;
+                case "publishReceiveds":
+                    disposables.add(RxHiveMQ.publishReceiveds(callbackRegistry, CallbackPriority.MEDIUM)
+                            .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                                @Override
+                                public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair)
+                                        throws Exception {
+                                    blackhole.consume(pair.left);
+                                    blackhole.consume(pair.right);
+                                }
+                            }));
+                    break;
+                case "publishReceivedsFiltered":
+                    disposables.add(RxHiveMQ.publishReceiveds(callbackRegistry, CallbackPriority.MEDIUM,
+                            i == 0 ? "devices/+/sensor" : "devices/other-" + i + "/sensor")
+                            .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                                @Override
+                                public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair)
+                                        throws Exception {
+                                    blackhole.consume(pair.left);
+                                    blackhole.consume(pair.right);
+                                }
+                            }));
+                    break;
+                case "publishEvents":
+                case "publishEventsReused":
+                    disposables.add(RxHiveMQ.publishEvents(callbackRegistry, CallbackPriority.MEDIUM,
+                            bridge.equals("publishEventsReused"))
+                            .subscribe(new Consumer<PublishEvent>() {
+                                @Override
+                                public void accept(@NonNull final PublishEvent event) throws Exception {
+                                    blackhole.consume(event.getPublish());
+                                    blackhole.consume(event.getClientData());
+                                }
+                            }));
+                    break;
+                default:
+                    throw new IllegalArgumentException(bridge);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        disposables.clear();
+        callbackRegistry.clear();
+    }
+
+    @Benchmark
+    public void publishReceived() throws OnPublishReceivedException {
+        callbackRegistry.publishReceived(publish, clientData);
+    }
+}
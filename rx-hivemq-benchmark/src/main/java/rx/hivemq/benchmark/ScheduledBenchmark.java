@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.benchmark;
+
+import com.hivemq.spi.callback.schedule.ScheduledCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Consumer;
+import rx.hivemq.RxHiveMQ;
+import rx.hivemq.test.InMemoryCallbackRegistry;
+
+/**
+ * One broker cron execution dispatched to the subscribers of a bridge, against hand-written callbacks.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScheduledBenchmark {
+    private static final String CRON = "0/5 * * * * ?";
+
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    @Param({"callback", "scheduleds"})
+    public String bridge;
+
+    private final InMemoryCallbackRegistry callbackRegistry = new InMemoryCallbackRegistry();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        for (int i = 0; i < subscribers; i++) {
+            switch (bridge) {
+                case "callback":
+                    callbackRegistry.addCallback(new ScheduledCallback() {
+                        @Override
+                        public void execute() {
+                            blackhole.consume(CRON);
+                        }
+
+                        @Override
+                        public String cronExpression() {
+                            return CRON;
+                        }
+                    });
+                    break;
+                case "scheduleds":
+                    disposables.add(RxHiveMQ.scheduleds(callbackRegistry, CRON)
+                            .subscribe(new Consumer<String>() {
+                                @Override
+                                public void accept(@NonNull final String cron) throws Exception {
+                                    blackhole.consume(cron);
+                                }
+                            }));
+                    break;
+                default:
+                    throw new IllegalArgumentException(bridge);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        disposables.clear();
+        callbackRegistry.clear();
+    }
+
+    @Benchmark
+    public void execute() {
+        callbackRegistry.scheduled(CRON);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Module;
+import com.google.inject.ProvisionException;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.ProvisionListener;
+import com.hivemq.spi.PluginEntryPoint;
+import com.hivemq.spi.callback.exception.BrokerUnableToStartException;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.AsyncRetainedMessageStore;
+import com.hivemq.spi.services.AsyncSubscriptionStore;
+import com.hivemq.spi.services.BlockingClientService;
+import com.hivemq.spi.services.BlockingMetricService;
+import com.hivemq.spi.services.BlockingRetainedMessageStore;
+import com.hivemq.spi.services.BlockingSubscriptionStore;
+import com.hivemq.spi.services.PublishService;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * An in-process broker of local stand-ins, to load test a plugin without HiveMQ and MQTT clients.
+ *
+ * <pre>{@code
+ * BrokerSimulator broker = BrokerSimulator.create();
+ * try {
+ *     broker.start(MyPluginMainClass.class);
+ *     ScenarioReport report = broker.run(Scenario.builder()
+ *             .clients(1000)
+ *             .connectStorm()
+ *             .publishFlood(100, "devices/%s/sensor", 64)
+ *             .disconnectStorm()
+ *             .build());
+ * } finally {
+ *     broker.close();
+ * }
+ * }</pre>
+ */
+public class BrokerSimulator implements Closeable {
+    private final InMemoryCallbackRegistry callbackRegistry = new InMemoryCallbackRegistry();
+    private final InMemoryPublishService publishService = new InMemoryPublishService();
+    private final InMemoryClientService clientService = new InMemoryClientService();
+    private final InMemorySubscriptionStore subscriptionStore = new InMemorySubscriptionStore();
+    private final InMemoryRetainedMessageStore retainedMessageStore = new InMemoryRetainedMessageStore();
+    private final InMemoryMetricService metricService = new InMemoryMetricService();
+    private final SystemInformation systemInformation;
+    /**
+     * Deleted on {@link #close()}, null if the home folder was given.
+     */
+    private final File temporaryHome;
+
+    public BrokerSimulator(final SystemInformation systemInformation) {
+        this(systemInformation, null);
+    }
+
+    private BrokerSimulator(final SystemInformation systemInformation, final File temporaryHome) {
+        this.systemInformation = systemInformation;
+        this.temporaryHome = temporaryHome;
+    }
+
+    /**
+     * @return a broker with its folders below a new temporary home folder, deleted on {@link #close()}
+     * @throws IOException
+     */
+    public static BrokerSimulator create() throws IOException {
+        final InMemorySystemInformation systemInformation = InMemorySystemInformation.temporary();
+        return new BrokerSimulator(systemInformation, systemInformation.getHiveMQHomeFolder());
+    }
+
+    /**
+     * Binds the stand-ins to the HiveMQ service interfaces. Like HiveMQ, the callback registry is set on
+     * a {@link PluginEntryPoint} and the {@link PostConstruct} methods are called once an instance is injected.
+     *
+     * @return
+     */
+    public Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CallbackRegistry.class).toInstance(callbackRegistry);
+                bind(PublishService.class).toInstance(publishService);
+                bind(BlockingClientService.class).toInstance(clientService);
+                bind(BlockingSubscriptionStore.class).toInstance(subscriptionStore);
+                bind(AsyncSubscriptionStore.class).toInstance(subscriptionStore.async());
+                bind(BlockingRetainedMessageStore.class).toInstance(retainedMessageStore);
+                bind(AsyncRetainedMessageStore.class).toInstance(retainedMessageStore.async());
+                bind(BlockingMetricService.class).toInstance(metricService);
+                bind(SystemInformation.class).toInstance(systemInformation);
+                bindListener(Matchers.any(), new Lifecycle(callbackRegistry));
+            }
+        };
+    }
+
+    /**
+     * Injects the plugin's entry point and starts the broker.
+     *
+     * @param entryPointClass
+     * @param modules of the plugin, without a {@link com.hivemq.spi.HiveMQPluginModule}'s own bindings
+     * @return
+     * @throws BrokerUnableToStartException if a broker start callback refused to start
+     */
+    public <T extends PluginEntryPoint> T start(final Class<T> entryPointClass, final Module... modules)
+            throws BrokerUnableToStartException {
+        final List<Module> all = new ArrayList<Module>(Arrays.asList(modules));
+        all.add(module());
+        final T plugin = Guice.createInjector(all).getInstance(entryPointClass);
+        callbackRegistry.brokerStart();
+        return plugin;
+    }
+
+    /**
+     * Plays the scenario through the registered callbacks, step by step.
+     *
+     * @param scenario
+     * @return
+     * @throws InterruptedException
+     */
+    public ScenarioReport run(final Scenario scenario) throws InterruptedException {
+        return ScenarioDriver.run(this, scenario);
+    }
+
+    public InMemoryCallbackRegistry getCallbackRegistry() {
+        return callbackRegistry;
+    }
+
+    public InMemoryPublishService getPublishService() {
+        return publishService;
+    }
+
+    public InMemoryClientService getClientService() {
+        return clientService;
+    }
+
+    public InMemorySubscriptionStore getSubscriptionStore() {
+        return subscriptionStore;
+    }
+
+    public InMemoryRetainedMessageStore getRetainedMessageStore() {
+        return retainedMessageStore;
+    }
+
+    public InMemoryMetricService getMetricService() {
+        return metricService;
+    }
+
+    public SystemInformation getSystemInformation() {
+        return systemInformation;
+    }
+
+    /**
+     * Deletes the temporary home folder of a broker from {@link #create()}, a given home folder is kept.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (temporaryHome == null || !temporaryHome.exists()) {
+            return;
+        }
+        Files.walkFileTree(temporaryHome.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Sets the callback registry and calls the {@link PostConstruct} methods, superclass first.
+     */
+    static final class Lifecycle implements ProvisionListener {
+        private final CallbackRegistry callbackRegistry;
+
+        Lifecycle(final CallbackRegistry callbackRegistry) {
+            this.callbackRegistry = callbackRegistry;
+        }
+
+        @Override
+        public <T> void onProvision(final ProvisionInvocation<T> provision) {
+            final T instance = provision.provision();
+            if (instance == null) {
+                return;
+            }
+            try {
+                if (instance instanceof PluginEntryPoint) {
+                    final Method setter = PluginEntryPoint.class
+                            .getDeclaredMethod("setCallbackRegistry", CallbackRegistry.class);
+                    setter.setAccessible(true);
+                    setter.invoke(instance, callbackRegistry);
+                }
+                final Deque<Class<?>> hierarchy = new ArrayDeque<Class<?>>();
+                for (Class<?> type = instance.getClass(); type != null; type = type.getSuperclass()) {
+                    hierarchy.push(type);
+                }
+                for (final Class<?> type : hierarchy) {
+                    for (final Method method : type.getDeclaredMethods()) {
+                        if (method.isAnnotationPresent(PostConstruct.class) && method.getParameterTypes().length == 0) {
+                            method.setAccessible(true);
+                            method.invoke(instance);
+                        }
+                    }
+                }
+            } catch (InvocationTargetException e) {
+                throw new ProvisionException("Failed to construct " + instance.getClass().getName(), e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new ProvisionException("Failed to construct " + instance.getClass().getName(), e);
+            }
+        }
+    }
+}
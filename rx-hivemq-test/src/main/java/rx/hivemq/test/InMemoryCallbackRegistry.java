@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.callback.Callback;
+import com.hivemq.spi.callback.SynchronousCallback;
+import com.hivemq.spi.callback.events.OnConnectCallback;
+import com.hivemq.spi.callback.events.OnDisconnectCallback;
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.callback.events.broker.OnBrokerStart;
+import com.hivemq.spi.callback.exception.BrokerUnableToStartException;
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+import com.hivemq.spi.callback.exception.RefusedConnectionException;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.callback.schedule.ScheduledCallback;
+import com.hivemq.spi.callback.security.AfterLoginCallback;
+import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link CallbackRegistry} stand-in that dispatches like the broker, synchronous callbacks in order of
+ * priority, the lowest priority value first, without a broker.
+ *
+ * The callbacks per type are cached as an array, dispatching doesn't allocate.
+ */
+public class InMemoryCallbackRegistry implements CallbackRegistry {
+    private static final Comparator<Callback> PRIORITY = new Comparator<Callback>() {
+        @Override
+        public int compare(final Callback left, final Callback right) {
+            return Integer.compare(priority(left), priority(right));
+        }
+
+        private int priority(final Callback callback) {
+            return callback instanceof SynchronousCallback ? ((SynchronousCallback) callback).priority() : 0;
+        }
+    };
+
+    private final CopyOnWriteArrayList<Callback> callbacks = new CopyOnWriteArrayList<Callback>();
+    private final ConcurrentMap<Class<?>, Object[]> dispatch = new ConcurrentHashMap<Class<?>, Object[]>();
+
+    @Override
+    public void addCallback(final Callback callback) {
+        callbacks.addIfAbsent(callback);
+        dispatch.clear();
+    }
+
+    @Override
+    public void addCallbacks(final Callback... callbacks) {
+        for (final Callback callback : callbacks) {
+            addCallback(callback);
+        }
+    }
+
+    @Override
+    public <T extends Callback> boolean isCallbackAvailable(final Class<T> type) {
+        return callbacks(type).length > 0;
+    }
+
+    @Override
+    public <T extends Callback> List<T> getCallbacks(final Class<T> type) {
+        return Collections.unmodifiableList(Arrays.asList(callbacks(type)));
+    }
+
+    @Override
+    public Set<Class<? extends Callback>> getAllRegisteredCallbackClasses() {
+        final Set<Class<? extends Callback>> classes = new HashSet<Class<? extends Callback>>();
+        for (final Callback callback : callbacks) {
+            classes.add(callback.getClass());
+        }
+        return classes;
+    }
+
+    @Override
+    public void removeCallback(final Callback callback) {
+        callbacks.remove(callback);
+        dispatch.clear();
+    }
+
+    @Override
+    public void removeAllCallbacks(final Class<? extends Callback> type) {
+        for (final Callback callback : callbacks) {
+            if (type.isInstance(callback)) {
+                callbacks.remove(callback);
+            }
+        }
+        dispatch.clear();
+    }
+
+    @Override
+    public void clear() {
+        callbacks.clear();
+        dispatch.clear();
+    }
+
+    @Override
+    public Set<Callback> getAllCallbacks() {
+        return new LinkedHashSet<Callback>(callbacks);
+    }
+
+    @Override
+    public void reloadScheduledCallbackExpression(final ScheduledCallback scheduledCallback) {
+    }
+
+    /**
+     * @return registered callbacks of the type, in dispatch order
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Callback> T[] callbacks(final Class<T> type) {
+        Object[] array = dispatch.get(type);
+        if (array == null) {
+            final List<Callback> matches = new ArrayList<Callback>();
+            for (final Callback callback : callbacks) {
+                if (type.isInstance(callback)) {
+                    matches.add(callback);
+                }
+            }
+            Collections.sort(matches, PRIORITY);
+            array = matches.toArray((Object[]) Array.newInstance(type, matches.size()));
+            dispatch.put(type, array);
+        }
+        return (T[]) array;
+    }
+
+    public void publishReceived(final PUBLISH publish, final ClientData clientData)
+            throws OnPublishReceivedException {
+        for (final OnPublishReceivedCallback callback : callbacks(OnPublishReceivedCallback.class)) {
+            callback.onPublishReceived(publish, clientData);
+        }
+    }
+
+    public void connect(final CONNECT connect, final ClientData clientData) throws RefusedConnectionException {
+        for (final OnConnectCallback callback : callbacks(OnConnectCallback.class)) {
+            callback.onConnect(connect, clientData);
+        }
+    }
+
+    public void disconnect(final ClientData clientData, final boolean abruptAbort) {
+        for (final OnDisconnectCallback callback : callbacks(OnDisconnectCallback.class)) {
+            callback.onDisconnect(clientData, abruptAbort);
+        }
+    }
+
+    public void afterSuccessfulLogin(final ClientData clientData) {
+        for (final AfterLoginCallback callback : callbacks(AfterLoginCallback.class)) {
+            callback.afterSuccessfulLogin(clientData);
+        }
+    }
+
+    public void brokerStart() throws BrokerUnableToStartException {
+        for (final OnBrokerStart callback : callbacks(OnBrokerStart.class)) {
+            callback.onBrokerStart();
+        }
+    }
+
+    public void scheduled(final String cronExpression) {
+        for (final ScheduledCallback callback : callbacks(ScheduledCallback.class)) {
+            if (cronExpression.equals(callback.cronExpression())) {
+                callback.execute();
+            }
+        }
+    }
+}
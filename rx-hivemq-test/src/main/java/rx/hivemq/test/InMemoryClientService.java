@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.services.BlockingClientService;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link BlockingClientService} stand-in of a single node, local and cluster wide views are the same.
+ *
+ * The {@link BrokerSimulator} keeps it in sync with the clients it connects and disconnects.
+ */
+public class InMemoryClientService implements BlockingClientService {
+    private final ConcurrentMap<String, ClientData> connected = new ConcurrentHashMap<String, ClientData>();
+    private final Set<String> disconnected =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public void connected(final ClientData clientData) {
+        disconnected.remove(clientData.getClientId());
+        connected.put(clientData.getClientId(), clientData);
+    }
+
+    public void disconnected(final String clientId) {
+        if (connected.remove(clientId) != null) {
+            disconnected.add(clientId);
+        }
+    }
+
+    @Override
+    public Set<String> getLocalConnectedClients() {
+        return new HashSet<String>(connected.keySet());
+    }
+
+    @Override
+    public Set<String> getLocalDisconnectedClients() {
+        return new HashSet<String>(disconnected);
+    }
+
+    @Override
+    public boolean isClientConnectedLocal(final String clientId) {
+        return connected.containsKey(clientId);
+    }
+
+    @Override
+    public ClientData getLocalClientData(final String clientId) {
+        return connected.get(clientId);
+    }
+
+    @Override
+    public Set<String> getConnectedClients() {
+        return getLocalConnectedClients();
+    }
+
+    @Override
+    public Set<String> getDisconnectedClients() {
+        return getLocalDisconnectedClients();
+    }
+
+    @Override
+    public boolean isClientConnected(final String clientId) {
+        return isClientConnectedLocal(clientId);
+    }
+
+    @Override
+    public ClientData getClientData(final String clientId) {
+        return getLocalClientData(clientId);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.spi.metrics.HiveMQMetric;
+import com.hivemq.spi.services.BlockingMetricService;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A {@link BlockingMetricService} stand-in over a plain {@link MetricRegistry}, without the broker's own metrics,
+ * of a single node cluster.
+ */
+public class InMemoryMetricService implements BlockingMetricService {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Metric> T getHiveMQMetric(final HiveMQMetric<T> metric) {
+        final Metric value = metricRegistry.getMetrics().get(metric.name());
+        return metric.getClazz().isInstance(value) ? (T) value : null;
+    }
+
+    @Override
+    public <T extends Metric> Map<String, T> getClusterMetric(final HiveMQMetric<T> metric) {
+        final T value = getHiveMQMetric(metric);
+        return value != null ? Collections.singletonMap("local", value) : Collections.<String, T>emptyMap();
+    }
+
+    @Override
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.services.PublishService;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link PublishService} stand-in that counts the messages a plugin publishes instead of delivering them.
+ */
+public class InMemoryPublishService implements PublishService {
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishedToClient = new AtomicLong();
+    private final AtomicReference<PUBLISH> last = new AtomicReference<PUBLISH>();
+
+    @Override
+    public void publish(final PUBLISH publish) {
+        published.incrementAndGet();
+        last.set(publish);
+    }
+
+    @Override
+    public void publishtoClient(final PUBLISH publish, final String clientId) {
+        publishedToClient.incrementAndGet();
+        last.set(publish);
+    }
+
+    /**
+     * @return messages published to all subscribers so far
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return messages published to a single client so far
+     */
+    public long getPublishedToClientCount() {
+        return publishedToClient.get();
+    }
+
+    /**
+     * @return the last published message, null if none
+     */
+    public PUBLISH getLastPublish() {
+        return last.get();
+    }
+
+    public void reset() {
+        published.set(0L);
+        publishedToClient.set(0L);
+        last.set(null);
+    }
+}
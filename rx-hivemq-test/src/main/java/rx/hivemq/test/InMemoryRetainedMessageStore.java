@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.spi.message.RetainedMessage;
+import com.hivemq.spi.services.AsyncRetainedMessageStore;
+import com.hivemq.spi.services.BlockingRetainedMessageStore;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link BlockingRetainedMessageStore} stand-in of a single node, see {@link #async()} for the
+ * {@link AsyncRetainedMessageStore} view of the same messages.
+ */
+public class InMemoryRetainedMessageStore implements BlockingRetainedMessageStore {
+    private final ConcurrentMap<String, RetainedMessage> messages = new ConcurrentHashMap<String, RetainedMessage>();
+    private final AsyncRetainedMessageStore async = new Async();
+
+    /**
+     * @return the messages as {@link AsyncRetainedMessageStore}, its futures are completed already
+     */
+    public AsyncRetainedMessageStore async() {
+        return async;
+    }
+
+    @Override
+    public Set<RetainedMessage> getLocalRetainedMessages() {
+        return new HashSet<RetainedMessage>(messages.values());
+    }
+
+    @Override
+    public Long localSize() {
+        return (long) messages.size();
+    }
+
+    @Override
+    public boolean containsLocally(final String topic) {
+        return messages.containsKey(topic);
+    }
+
+    @Override
+    public Set<RetainedMessage> getRetainedMessages() {
+        return getLocalRetainedMessages();
+    }
+
+    @Override
+    public RetainedMessage getRetainedMessage(final String topic) {
+        return messages.get(topic);
+    }
+
+    @Override
+    public void remove(final String topic) {
+        messages.remove(topic);
+    }
+
+    @Override
+    public void clear() {
+        messages.clear();
+    }
+
+    @Override
+    public void addOrReplace(final RetainedMessage retainedMessage) {
+        messages.put(retainedMessage.getTopic(), retainedMessage);
+    }
+
+    @Override
+    public boolean contains(final String topic) {
+        return messages.containsKey(topic);
+    }
+
+    @Override
+    public long size() {
+        return messages.size();
+    }
+
+    private final class Async implements AsyncRetainedMessageStore {
+        @Override
+        public ListenableFuture<Set<RetainedMessage>> getLocalRetainedMessages() {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.getLocalRetainedMessages());
+        }
+
+        @Override
+        public ListenableFuture<Long> localSize() {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.localSize());
+        }
+
+        @Override
+        public ListenableFuture<Boolean> containsLocally(final String topic) {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.containsLocally(topic));
+        }
+
+        @Override
+        public ListenableFuture<Set<RetainedMessage>> getRetainedMessages() {
+            return getLocalRetainedMessages();
+        }
+
+        @Override
+        public ListenableFuture<RetainedMessage> getRetainedMessage(final String topic) {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.getRetainedMessage(topic));
+        }
+
+        @Override
+        public ListenableFuture<Void> remove(final String topic) {
+            InMemoryRetainedMessageStore.this.remove(topic);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Void> clear() {
+            InMemoryRetainedMessageStore.this.clear();
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Void> addOrReplace(final RetainedMessage retainedMessage) {
+            InMemoryRetainedMessageStore.this.addOrReplace(retainedMessage);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Boolean> contains(final String topic) {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.contains(topic));
+        }
+
+        @Override
+        public ListenableFuture<Long> size() {
+            return Futures.immediateFuture(InMemoryRetainedMessageStore.this.size());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.spi.message.Topic;
+import com.hivemq.spi.services.AsyncSubscriptionStore;
+import com.hivemq.spi.services.BlockingSubscriptionStore;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link BlockingSubscriptionStore} stand-in of a single node, see {@link #async()} for the
+ * {@link AsyncSubscriptionStore} view of the same subscriptions.
+ *
+ * Subscribers of a topic are looked up by the exact topic filter, wildcards are not matched.
+ */
+public class InMemorySubscriptionStore implements BlockingSubscriptionStore {
+    private final SetMultimap<String, Topic> subscriptions = HashMultimap.create();
+    private final AsyncSubscriptionStore async = new Async();
+
+    /**
+     * @return the subscriptions as {@link AsyncSubscriptionStore}, its futures are completed already
+     */
+    public AsyncSubscriptionStore async() {
+        return async;
+    }
+
+    @Override
+    public synchronized Multimap<String, Topic> getLocalSubscriptions() {
+        return ImmutableSetMultimap.copyOf(subscriptions);
+    }
+
+    @Override
+    public synchronized Set<String> getLocalSubscribers(final String topic) {
+        final Set<String> subscribers = new HashSet<String>();
+        for (final Map.Entry<String, Topic> entry : subscriptions.entries()) {
+            if (entry.getValue().getTopic().equals(topic)) {
+                subscribers.add(entry.getKey());
+            }
+        }
+        return subscribers;
+    }
+
+    @Override
+    public synchronized Set<Topic> getLocalTopics(final String clientId) {
+        return new HashSet<Topic>(subscriptions.get(clientId));
+    }
+
+    @Override
+    public synchronized void addSubscription(final String clientId, final Topic topic) {
+        removeSubscription(clientId, topic.getTopic());
+        subscriptions.put(clientId, topic);
+    }
+
+    @Override
+    public synchronized void removeSubscription(final String clientId, final String topic) {
+        final Iterator<Topic> it = subscriptions.get(clientId).iterator();
+        while (it.hasNext()) {
+            if (it.next().getTopic().equals(topic)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Multimap<String, Topic> getSubscriptions() {
+        return getLocalSubscriptions();
+    }
+
+    @Override
+    public Set<String> getSubscribers(final String topic) {
+        return getLocalSubscribers(topic);
+    }
+
+    @Override
+    public Set<Topic> getTopics(final String clientId) {
+        return getLocalTopics(clientId);
+    }
+
+    /**
+     * @return number of subscriptions of all clients
+     */
+    public synchronized int size() {
+        return subscriptions.size();
+    }
+
+    private final class Async implements AsyncSubscriptionStore {
+        @Override
+        public ListenableFuture<Multimap<String, Topic>> getLocalSubscriptions() {
+            return Futures.immediateFuture(InMemorySubscriptionStore.this.getLocalSubscriptions());
+        }
+
+        @Override
+        public ListenableFuture<Set<String>> getLocalSubscribers(final String topic) {
+            return Futures.immediateFuture(InMemorySubscriptionStore.this.getLocalSubscribers(topic));
+        }
+
+        @Override
+        public ListenableFuture<Set<Topic>> getLocalTopics(final String clientId) {
+            return Futures.immediateFuture(InMemorySubscriptionStore.this.getLocalTopics(clientId));
+        }
+
+        @Override
+        public ListenableFuture<Void> addSubscription(final String clientId, final Topic topic) {
+            InMemorySubscriptionStore.this.addSubscription(clientId, topic);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Void> removeSubscription(final String clientId, final String topic) {
+            InMemorySubscriptionStore.this.removeSubscription(clientId, topic);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Multimap<String, Topic>> getSubscriptions() {
+            return getLocalSubscriptions();
+        }
+
+        @Override
+        public ListenableFuture<Set<String>> getSubscribers(final String topic) {
+            return getLocalSubscribers(topic);
+        }
+
+        @Override
+        public ListenableFuture<Set<Topic>> getTopics(final String clientId) {
+            return getLocalTopics(clientId);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.config.SystemInformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A {@link SystemInformation} stand-in with the usual HiveMQ folders below a home folder.
+ */
+public class InMemorySystemInformation implements SystemInformation {
+    private final File home;
+
+    public InMemorySystemInformation(final File home) {
+        this.home = home;
+    }
+
+    /**
+     * @return folders below a new temporary home folder, left to the caller to delete
+     * @throws IOException
+     */
+    public static InMemorySystemInformation temporary() throws IOException {
+        return new InMemorySystemInformation(Files.createTempDirectory("hivemq").toFile());
+    }
+
+    @Override
+    public String getHiveMQVersion() {
+        return "3.1.0";
+    }
+
+    @Override
+    public File getHiveMQHomeFolder() {
+        return home;
+    }
+
+    @Override
+    public File getPluginFolder() {
+        return folder("plugins");
+    }
+
+    @Override
+    public File getConfigFolder() {
+        return folder("conf");
+    }
+
+    @Override
+    public File getLogFolder() {
+        return folder("log");
+    }
+
+    @Override
+    public File getLicenseFolder() {
+        return folder("license");
+    }
+
+    @Override
+    public File getDataFolder() {
+        return folder("data");
+    }
+
+    private File folder(final String name) {
+        final File folder = new File(home, name);
+        folder.mkdirs();
+        return folder;
+    }
+}
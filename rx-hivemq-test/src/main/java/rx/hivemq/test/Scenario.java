@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+import com.hivemq.spi.callback.exception.RefusedConnectionException;
+import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scripted sequence of broker events played by {@link BrokerSimulator#run(Scenario)}.
+ *
+ * The events of a step are spread over the threads by client, events of a client keep their order
+ * like on the broker. The next step starts once all the events of the previous one are dispatched.
+ */
+public final class Scenario {
+    final List<ClientData> clients;
+    final List<Step> steps;
+    final int threads;
+
+    private Scenario(final List<ClientData> clients, final List<Step> steps, final int threads) {
+        this.clients = clients;
+        this.steps = steps;
+        this.threads = threads;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<ClientData> getClients() {
+        return clients;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public static final class Builder {
+        private final List<ClientData> clients = new ArrayList<ClientData>();
+        private final List<Step> steps = new ArrayList<Step>();
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        Builder() {
+        }
+
+        /**
+         * @param count anonymous clients named {@code client-0}, {@code client-1}, ...
+         * @return
+         */
+        public Builder clients(final int count) {
+            return clients(count, "client-%d");
+        }
+
+        /**
+         * @param count
+         * @param clientIdFormat formatted with the index of the client
+         * @return
+         */
+        public Builder clients(final int count, final String clientIdFormat) {
+            for (int i = 0; i < count; i++) {
+                clients.add(new SimpleClientData(String.format(clientIdFormat, i)));
+            }
+            return this;
+        }
+
+        /**
+         * @param threads dispatching concurrently, defaults to the available processors
+         * @return
+         */
+        public Builder threads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads > 0 required but it was " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Connects all the clients at once.
+         *
+         * @return
+         */
+        public Builder connectStorm() {
+            steps.add(new ConnectStep());
+            return this;
+        }
+
+        /**
+         * Every client publishes its messages as fast as the callbacks let it.
+         *
+         * @param messagesPerClient
+         * @param topicFormat formatted with the client id, e.g. {@code devices/%s/sensor}
+         * @param payloadSize
+         * @return
+         */
+        public Builder publishFlood(final int messagesPerClient, final String topicFormat, final int payloadSize) {
+            steps.add(new PublishStep(messagesPerClient, topicFormat, payloadSize));
+            return this;
+        }
+
+        /**
+         * Fires the scheduled callbacks of the cron expression back to back, on a single thread like the broker.
+         *
+         * @param cronExpression
+         * @param ticks
+         * @return
+         */
+        public Builder cronTicks(final String cronExpression, final int ticks) {
+            steps.add(new CronStep(cronExpression, ticks));
+            return this;
+        }
+
+        /**
+         * Disconnects all the clients at once.
+         *
+         * @return
+         */
+        public Builder disconnectStorm() {
+            steps.add(new DisconnectStep());
+            return this;
+        }
+
+        public Scenario build() {
+            return new Scenario(Collections.unmodifiableList(new ArrayList<ClientData>(clients)),
+                    Collections.unmodifiableList(new ArrayList<Step>(steps)), threads);
+        }
+    }
+
+    abstract static class Step {
+        final String name;
+
+        Step(final String name) {
+            this.name = name;
+        }
+
+        void prepare(final List<ClientData> clients) {
+        }
+
+        abstract int events(int clients);
+
+        boolean concurrent() {
+            return true;
+        }
+
+        /**
+         * @return false if the broker callbacks rejected the event
+         */
+        abstract boolean dispatch(BrokerSimulator broker, List<ClientData> clients, int event) throws Exception;
+    }
+
+    static final class ConnectStep extends Step {
+        ConnectStep() {
+            super("connectStorm");
+        }
+
+        @Override
+        int events(final int clients) {
+            return clients;
+        }
+
+        @Override
+        boolean dispatch(final BrokerSimulator broker, final List<ClientData> clients, final int event) {
+            final ClientData clientData = clients.get(event);
+            try {
+                broker.getCallbackRegistry().connect(new CONNECT(), clientData);
+            } catch (RefusedConnectionException e) {
+                return false;
+            }
+            broker.getClientService().connected(clientData);
+            return true;
+        }
+    }
+
+    static final class PublishStep extends Step {
+        private final int messagesPerClient;
+        private final String topicFormat;
+        private final byte[] payload;
+        private String[] topics;
+
+        PublishStep(final int messagesPerClient, final String topicFormat, final int payloadSize) {
+            super("publishFlood " + topicFormat);
+            this.messagesPerClient = messagesPerClient;
+            this.topicFormat = topicFormat;
+            this.payload = new byte[payloadSize];
+        }
+
+        @Override
+        void prepare(final List<ClientData> clients) {
+            topics = new String[clients.size()];
+            for (int i = 0; i < topics.length; i++) {
+                topics[i] = String.format(topicFormat, clients.get(i).getClientId());
+            }
+        }
+
+        @Override
+        int events(final int clients) {
+            return clients * messagesPerClient;
+        }
+
+        @Override
+        boolean dispatch(final BrokerSimulator broker, final List<ClientData> clients, final int event) {
+            final int client = event % clients.size();
+            try {
+                broker.getCallbackRegistry().publishReceived(
+                        new PUBLISH(payload, topics[client], QoS.AT_MOST_ONCE), clients.get(client));
+            } catch (OnPublishReceivedException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static final class CronStep extends Step {
+        private final String cronExpression;
+        private final int ticks;
+
+        CronStep(final String cronExpression, final int ticks) {
+            super("cronTicks " + cronExpression);
+            this.cronExpression = cronExpression;
+            this.ticks = ticks;
+        }
+
+        @Override
+        int events(final int clients) {
+            return ticks;
+        }
+
+        @Override
+        boolean concurrent() {
+            return false;
+        }
+
+        @Override
+        boolean dispatch(final BrokerSimulator broker, final List<ClientData> clients, final int event) {
+            broker.getCallbackRegistry().scheduled(cronExpression);
+            return true;
+        }
+    }
+
+    static final class DisconnectStep extends Step {
+        DisconnectStep() {
+            super("disconnectStorm");
+        }
+
+        @Override
+        int events(final int clients) {
+            return clients;
+        }
+
+        @Override
+        boolean dispatch(final BrokerSimulator broker, final List<ClientData> clients, final int event) {
+            final ClientData clientData = clients.get(event);
+            broker.getClientService().disconnected(clientData.getClientId());
+            broker.getCallbackRegistry().disconnect(clientData, false);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.hivemq.spi.security.ClientData;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays the steps of a {@link Scenario}, recording the dispatch latency of every event.
+ */
+final class ScenarioDriver {
+    private ScenarioDriver() {
+    }
+
+    static ScenarioReport run(final BrokerSimulator broker, final Scenario scenario) throws InterruptedException {
+        final long before = usedHeap();
+        final List<ScenarioReport.Step> steps = new ArrayList<ScenarioReport.Step>();
+        for (final Scenario.Step step : scenario.steps) {
+            steps.add(run(broker, scenario, step));
+        }
+        return new ScenarioReport(Collections.unmodifiableList(steps), usedHeap() - before);
+    }
+
+    private static ScenarioReport.Step run(final BrokerSimulator broker,
+                                           final Scenario scenario,
+                                           final Scenario.Step step) throws InterruptedException {
+        final List<ClientData> clients = scenario.clients;
+        step.prepare(clients);
+        final int events = step.events(clients.size());
+        final long[] latencies = new long[events];
+        final int threads = step.concurrent() && !clients.isEmpty()
+                ? Math.max(1, Math.min(scenario.threads, clients.size())) : 1;
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int lane = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    final int size = clients.size();
+                    for (int i = 0; i < events; i++) {
+                        if (threads > 1 && (i % size) % threads != lane) {
+                            continue;
+                        }
+                        final long begin = System.nanoTime();
+                        try {
+                            if (!step.dispatch(broker, clients, i)) {
+                                rejected.incrementAndGet();
+                            }
+                        } catch (Throwable e) {
+                            errors.incrementAndGet();
+                            firstError.compareAndSet(null, e);
+                        }
+                        latencies[i] = System.nanoTime() - begin;
+                    }
+                }
+            }, "rx-hivemq-scenario-" + t);
+            workers[t].start();
+        }
+
+        final long heapBefore = usedHeap();
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsed = System.nanoTime() - begin;
+        final long heapGrowth = usedHeap() - heapBefore;
+
+        Arrays.sort(latencies);
+        return new ScenarioReport.Step(step.name, events, rejected.get(), errors.get(), firstError.get(),
+                elapsed, latencies, heapGrowth);
+    }
+
+    /**
+     * @return bytes of heap in use after a full collection, as far as the JVM honours the request
+     */
+    static long usedHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
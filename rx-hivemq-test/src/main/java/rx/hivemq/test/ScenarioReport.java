@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput, dispatch latency and heap growth of a {@link Scenario} run, per step.
+ *
+ * The latency of an event is the time the broker thread spent in the registered callbacks, the
+ * synchronous part of the plugin's pipelines, from the broker handing the event over to it being released.
+ */
+public final class ScenarioReport {
+    private final List<Step> steps;
+    private final long heapGrowth;
+
+    ScenarioReport(final List<Step> steps, final long heapGrowth) {
+        this.steps = steps;
+        this.heapGrowth = heapGrowth;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return bytes of live heap after the run compared to before it, after a full collection each
+     */
+    public long getHeapGrowth() {
+        return heapGrowth;
+    }
+
+    /**
+     * @return events rejected by the callbacks in all the steps
+     */
+    public long getRejected() {
+        long rejected = 0L;
+        for (final Step step : steps) {
+            rejected += step.rejected;
+        }
+        return rejected;
+    }
+
+    /**
+     * @return events the callbacks failed on in all the steps
+     */
+    public long getErrors() {
+        long errors = 0L;
+        for (final Step step : steps) {
+            errors += step.errors;
+        }
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                "%-24s %10s %12s %10s %10s %10s %10s %8s %8s %12s%n",
+                "step", "events", "events/s", "p50 us", "p99 us", "p99.9 us", "max us",
+                "rejected", "errors", "heap KiB"));
+        for (final Step step : steps) {
+            sb.append(step).append(String.format("%n"));
+        }
+        sb.append(String.format(Locale.ROOT, "heap growth %d KiB", heapGrowth / 1024));
+        return sb.toString();
+    }
+
+    public static final class Step {
+        private final String name;
+        private final int events;
+        private final long rejected;
+        private final long errors;
+        private final Throwable firstError;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final long heapGrowth;
+
+        Step(final String name, final int events, final long rejected, final long errors,
+             final Throwable firstError, final long elapsedNanos, final long[] sortedLatencies,
+             final long heapGrowth) {
+            this.name = name;
+            this.events = events;
+            this.rejected = rejected;
+            this.errors = errors;
+            this.firstError = firstError;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.heapGrowth = heapGrowth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the first exception thrown by a callback other than a rejection, null if none
+         */
+        public Throwable getFirstError() {
+            return firstError;
+        }
+
+        public long getElapsed(final TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return events per second
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0L ? 0.0 : events * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param quantile in {@code [0, 1]}, e.g. {@code 0.99}
+         * @param unit
+         * @return
+         */
+        public long getLatency(final double quantile, final TimeUnit unit) {
+            if (quantile < 0.0 || quantile > 1.0) {
+                throw new IllegalArgumentException("quantile in [0, 1] required but it was " + quantile);
+            }
+            if (sortedLatencies.length == 0) {
+                return 0L;
+            }
+            final int index = Math.max(0, (int) Math.ceil(quantile * sortedLatencies.length) - 1);
+            return unit.convert(sortedLatencies[index], TimeUnit.NANOSECONDS);
+        }
+
+        public long getMaxLatency(final TimeUnit unit) {
+            return getLatency(1.0, unit);
+        }
+
+        /**
+         * @return bytes of live heap after the step compared to before it
+         */
+        public long getHeapGrowth() {
+            return heapGrowth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-24s %10d %12.0f %10d %10d %10d %10d %8d %8d %12d",
+                    name, events, getThroughput(),
+                    getLatency(0.5, TimeUnit.MICROSECONDS),
+                    getLatency(0.99, TimeUnit.MICROSECONDS),
+                    getLatency(0.999, TimeUnit.MICROSECONDS),
+                    getMaxLatency(TimeUnit.MICROSECONDS),
+                    rejected, errors, heapGrowth / 1024);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq.test;
+
+import com.google.common.base.Optional;
+import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.security.SslClientCertificate;
+
+import java.net.InetAddress;
+
+/**
+ * An anonymous, unauthenticated client.
+ */
+public class SimpleClientData implements ClientData {
+    private final String clientId;
+
+    public SimpleClientData(final String clientId) {
+        this.clientId = clientId;
+    }
+
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public Optional<String> getUsername() {
+        return Optional.absent();
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return false;
+    }
+
+    @Override
+    public Optional<SslClientCertificate> getCertificate() {
+        return Optional.absent();
+    }
+
+    @Override
+    public boolean isAnonymous() {
+        return true;
+    }
+
+    @Override
+    public boolean isBridge() {
+        return false;
+    }
+
+    @Override
+    public Optional<InetAddress> getInetAddress() {
+        return Optional.absent();
+    }
+
+    @Override
+    public String toString() {
+        return clientId;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.hivemq.spi.security.ClientCredentialsData;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Bounded cache of recent successful authentications of the {@code RxHiveMQ.authentications} bridge, keyed by
+ * client id, username and a salted SHA-256 of the password, the password itself is never kept.
+ *
+ * Entries expire a fixed time after the verification, the least recently used entries give way once the
+ * cache is full. Failed authentications are never cached.
+ */
+public final class AuthenticationCache {
+    private final Cache<Key, Boolean> cache;
+    private final byte[] salt = new byte[16];
+
+    private AuthenticationCache(final long maximumSize, final long ttl, @NonNull final TimeUnit unit) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, unit)
+                .recordStats()
+                .build();
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @param maximumSize
+     * @param ttl time an authentication is trusted after its verification
+     * @param unit
+     * @return
+     */
+    @NonNull
+    public static AuthenticationCache create(final long maximumSize, final long ttl, @NonNull final TimeUnit unit) {
+        return new AuthenticationCache(maximumSize, ttl, unit);
+    }
+
+    boolean contains(@NonNull final ClientCredentialsData clientData) {
+        return cache.getIfPresent(key(clientData)) != null;
+    }
+
+    void put(@NonNull final ClientCredentialsData clientData) {
+        cache.put(key(clientData), Boolean.TRUE);
+    }
+
+    /**
+     * Forgets the authentications of the client, e.g. after changing its credentials.
+     *
+     * @param clientId
+     */
+    public void invalidate(@NonNull final String clientId) {
+        final Iterator<Key> it = cache.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().clientId.equals(clientId)) {
+                it.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return authentications answered from the cache so far
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return authentications verified so far
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    private Key key(final ClientCredentialsData clientData) {
+        final Optional<byte[]> password = clientData.getPasswordBytes();
+        final HashCode hash;
+        if (password.isPresent()) {
+            final Hasher hasher = Hashing.sha256().newHasher();
+            hash = hasher.putBytes(salt).putBytes(password.get()).hash();
+        } else {
+            hash = null;
+        }
+        return new Key(clientData.getClientId(), clientData.getUsername().orNull(), hash);
+    }
+
+    private static final class Key {
+        final String clientId;
+        final String username;
+        final HashCode password;
+
+        Key(final String clientId, final String username, final HashCode password) {
+            this.clientId = clientId;
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return clientId.equals(key.clientId)
+                    && (username != null ? username.equals(key.username) : key.username == null)
+                    && (password != null ? password.equals(key.password) : key.password == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = clientId.hashCode();
+            result = 31 * result + (username != null ? username.hashCode() : 0);
+            result = 31 * result + (password != null ? password.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,890 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.Callback;
+import com.hivemq.spi.callback.events.OnConnectCallback;
+import com.hivemq.spi.callback.events.OnDisconnectCallback;
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.callback.events.OnPublishSend;
+import com.hivemq.spi.callback.events.broker.OnBrokerStart;
+import com.hivemq.spi.callback.exception.AuthenticationException;
+import com.hivemq.spi.callback.exception.BrokerUnableToStartException;
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+import com.hivemq.spi.callback.exception.RefusedConnectionException;
+import com.hivemq.spi.callback.lowlevel.OnPubackReceived;
+import com.hivemq.spi.callback.lowlevel.OnPubackSend;
+import com.hivemq.spi.callback.lowlevel.OnPubrecReceived;
+import com.hivemq.spi.callback.lowlevel.OnPubrecSend;
+import com.hivemq.spi.callback.lowlevel.OnPubrelReceived;
+import com.hivemq.spi.callback.lowlevel.OnPubrelSend;
+import com.hivemq.spi.callback.lowlevel.OnPubcompReceived;
+import com.hivemq.spi.callback.lowlevel.OnPubcompSend;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.callback.schedule.ScheduledCallback;
+import com.hivemq.spi.callback.security.AfterLoginCallback;
+import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.message.PUBACK;
+import com.hivemq.spi.message.PUBCOMP;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.PUBREC;
+import com.hivemq.spi.message.PUBREL;
+import com.hivemq.spi.security.ClientData;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Registers a single broker callback per (callback type, priority) and fans the broker events out to
+ * the callbacks of the Rx subscribers.
+ *
+ * The subscriber callbacks are kept in a copy-on-write array, the broker thread only reads a volatile
+ * snapshot of it. The hub is added to the {@link CallbackRegistry} with the first subscriber and removed
+ * with the last one, subscribers in between never touch the registry.
+ *
+ * With metrics enabled for its registry the hub records its dispatches in {@link StreamMetrics}, otherwise
+ * a dispatch costs a single volatile read more.
+ *
+ * Every subscriber callback is called, as if it were a broker callback of its own: an error of one is reported
+ * to {@link RxJavaPlugins#onError(Throwable)} and doesn't skip the others. Only the rejections the broker acts on,
+ * e.g. {@link OnPublishReceivedException}, are rethrown, the first of them once all the callbacks ran.
+ *
+ * A hub is forgotten with its last subscriber, so neither the hub nor its {@link CallbackRegistry} outlive
+ * their subscriptions. A subscriber racing with the removal still gets a working hub, registered on its own.
+ */
+abstract class CallbackHub<C extends Callback> implements Callback {
+    private static final ConcurrentMap<Key, CallbackHub<?>> HUBS = new ConcurrentHashMap<Key, CallbackHub<?>>();
+    /**
+     * Guards the metrics of every hub.
+     */
+    private static final Map<CallbackRegistry, MetricRegistry> METRIC_REGISTRIES =
+            new IdentityHashMap<CallbackRegistry, MetricRegistry>();
+
+    private final CallbackRegistry callbackRegistry;
+    private Key key;
+    private final C[] empty;
+    private final String streamName;
+    private volatile C[] callbacks;
+    private volatile StreamMetrics metrics;
+    private boolean registered;
+
+    CallbackHub(@NonNull final CallbackRegistry callbackRegistry,
+                @NonNull final C[] empty,
+                @NonNull final String streamName) {
+        this.callbackRegistry = callbackRegistry;
+        this.empty = empty;
+        this.streamName = streamName;
+        this.callbacks = empty;
+    }
+
+    /**
+     * @return the metrics to record the dispatch in, null if disabled
+     */
+    final StreamMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the snapshot of subscriber callbacks to dispatch to, never modify it
+     */
+    final C[] callbacks() {
+        return callbacks;
+    }
+
+    final int size() {
+        return callbacks.length;
+    }
+
+    final synchronized void add(@NonNull final C callback) {
+        final C[] a = callbacks;
+        final C[] b = Arrays.copyOf(a, a.length + 1);
+        b[a.length] = callback;
+        callbacks = b;
+        if (!registered) {
+            registered = true;
+            if (HUBS.get(key) != this && HUBS.putIfAbsent(key, this) == null) {
+                synchronized (METRIC_REGISTRIES) {
+                    final MetricRegistry metricRegistry = METRIC_REGISTRIES.get(callbackRegistry);
+                    if (metricRegistry != null) {
+                        registerMetrics(metricRegistry, key);
+                    }
+                }
+            }
+            callbackRegistry.addCallback(this);
+        }
+    }
+
+    final synchronized void remove(@NonNull final C callback) {
+        final C[] a = callbacks;
+        int index = -1;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == callback) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        if (a.length == 1) {
+            callbacks = empty;
+            registered = false;
+            callbackRegistry.removeCallback(this);
+            if (HUBS.remove(key, this)) {
+                synchronized (METRIC_REGISTRIES) {
+                    final MetricRegistry metricRegistry = METRIC_REGISTRIES.get(callbackRegistry);
+                    if (metricRegistry != null) {
+                        unregisterMetrics(metricRegistry);
+                    }
+                }
+            }
+            return;
+        }
+        final C[] b = Arrays.copyOf(empty, a.length - 1);
+        System.arraycopy(a, 0, b, 0, index);
+        System.arraycopy(a, index + 1, b, index, a.length - index - 1);
+        callbacks = b;
+    }
+
+    /**
+     * Reports the error of a subscriber callback without interrupting the dispatch.
+     */
+    static void onCallbackError(@NonNull final Throwable e) {
+        Exceptions.throwIfFatal(e);
+        RxJavaPlugins.onError(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <H extends CallbackHub<?>> H hub(@NonNull final Key key, @NonNull final H created) {
+        ((CallbackHub<?>) created).key = key;
+        final CallbackHub<?> current = HUBS.putIfAbsent(key, created);
+        if (current != null) {
+            return (H) current;
+        }
+        synchronized (METRIC_REGISTRIES) {
+            final MetricRegistry metricRegistry = METRIC_REGISTRIES.get(key.callbackRegistry);
+            if (metricRegistry != null) {
+                created.registerMetrics(metricRegistry, key);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Registers the metrics of the current and future hubs of the {@link CallbackRegistry}.
+     */
+    static void enableMetrics(@NonNull final CallbackRegistry callbackRegistry,
+                              @NonNull final MetricRegistry metricRegistry) {
+        synchronized (METRIC_REGISTRIES) {
+            disableMetrics(callbackRegistry);
+            METRIC_REGISTRIES.put(callbackRegistry, metricRegistry);
+            for (final Map.Entry<Key, CallbackHub<?>> entry : HUBS.entrySet()) {
+                if (entry.getKey().callbackRegistry == callbackRegistry) {
+                    entry.getValue().registerMetrics(metricRegistry, entry.getKey());
+                }
+            }
+        }
+    }
+
+    static void disableMetrics(@NonNull final CallbackRegistry callbackRegistry) {
+        synchronized (METRIC_REGISTRIES) {
+            final MetricRegistry metricRegistry = METRIC_REGISTRIES.remove(callbackRegistry);
+            if (metricRegistry == null) {
+                return;
+            }
+            for (final Map.Entry<Key, CallbackHub<?>> entry : HUBS.entrySet()) {
+                if (entry.getKey().callbackRegistry == callbackRegistry) {
+                    entry.getValue().unregisterMetrics(metricRegistry);
+                }
+            }
+        }
+    }
+
+    final void registerMetrics(final MetricRegistry metricRegistry, final Key key) {
+        if (metrics == null) {
+            metrics = StreamMetrics.register(metricRegistry, key.metricName(streamName), this);
+        }
+    }
+
+    final void unregisterMetrics(final MetricRegistry metricRegistry) {
+        final StreamMetrics current = metrics;
+        metrics = null;
+        if (current != null) {
+            current.unregister(metricRegistry);
+        }
+    }
+
+    @NonNull
+    static PublishReceivedHub publishReceived(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+        final Key key = new Key(callbackRegistry, OnPublishReceivedCallback.class, priority);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PublishReceivedHub) current
+                : hub(key, new PublishReceivedHub(callbackRegistry, priority));
+    }
+
+    @NonNull
+    static PublishSendHub publishSend(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPublishSend.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PublishSendHub) current
+                : hub(key, new PublishSendHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubackReceivedHub pubackReceived(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubackReceived.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubackReceivedHub) current
+                : hub(key, new PubackReceivedHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubackSendHub pubackSend(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubackSend.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubackSendHub) current
+                : hub(key, new PubackSendHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubrecReceivedHub pubrecReceived(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubrecReceived.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubrecReceivedHub) current
+                : hub(key, new PubrecReceivedHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubrecSendHub pubrecSend(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubrecSend.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubrecSendHub) current
+                : hub(key, new PubrecSendHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubrelReceivedHub pubrelReceived(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubrelReceived.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubrelReceivedHub) current
+                : hub(key, new PubrelReceivedHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubrelSendHub pubrelSend(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubrelSend.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubrelSendHub) current
+                : hub(key, new PubrelSendHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubcompReceivedHub pubcompReceived(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubcompReceived.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubcompReceivedHub) current
+                : hub(key, new PubcompReceivedHub(callbackRegistry));
+    }
+
+    @NonNull
+    static PubcompSendHub pubcompSend(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnPubcompSend.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (PubcompSendHub) current
+                : hub(key, new PubcompSendHub(callbackRegistry));
+    }
+
+    @NonNull
+    static ConnectHub connect(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+        final Key key = new Key(callbackRegistry, OnConnectCallback.class, priority);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (ConnectHub) current
+                : hub(key, new ConnectHub(callbackRegistry, priority));
+    }
+
+    @NonNull
+    static DisconnectHub disconnect(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, OnDisconnectCallback.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (DisconnectHub) current
+                : hub(key, new DisconnectHub(callbackRegistry));
+    }
+
+    @NonNull
+    static AfterLoginHub afterLogin(@NonNull final CallbackRegistry callbackRegistry) {
+        final Key key = new Key(callbackRegistry, AfterLoginCallback.class, null);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (AfterLoginHub) current
+                : hub(key, new AfterLoginHub(callbackRegistry));
+    }
+
+    @NonNull
+    static BrokerStartHub brokerStart(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+        final Key key = new Key(callbackRegistry, OnBrokerStart.class, priority);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (BrokerStartHub) current
+                : hub(key, new BrokerStartHub(callbackRegistry, priority));
+    }
+
+    @NonNull
+    static ScheduledHub scheduled(@NonNull final CallbackRegistry callbackRegistry,
+                                  @NonNull final String cronExpression) {
+        final Key key = new Key(callbackRegistry, ScheduledCallback.class, cronExpression);
+        final CallbackHub<?> current = HUBS.get(key);
+        return current != null ? (ScheduledHub) current
+                : hub(key, new ScheduledHub(callbackRegistry, cronExpression));
+    }
+
+    static final class PublishReceivedHub extends CallbackHub<OnPublishReceivedCallback>
+            implements OnPublishReceivedCallback {
+        private final int priority;
+        private TopicFilterIndex topicFilters;
+
+        PublishReceivedHub(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+            super(callbackRegistry, new OnPublishReceivedCallback[0], "publishReceiveds");
+            this.priority = priority;
+        }
+
+        /**
+         * @return the index shared by the topic filtered subscribers of this hub
+         */
+        @NonNull
+        synchronized TopicFilterIndex topicFilters() {
+            if (topicFilters == null) {
+                topicFilters = new TopicFilterIndex(this);
+            }
+            return topicFilters;
+        }
+
+        @Override
+        public void onPublishReceived(@NonNull final PUBLISH publish, @NonNull final ClientData clientData)
+                throws OnPublishReceivedException {
+            final OnPublishReceivedCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                OnPublishReceivedException rejection = null;
+                for (final OnPublishReceivedCallback callback : callbacks) {
+                    try {
+                        callback.onPublishReceived(publish, clientData);
+                    } catch (OnPublishReceivedException e) {
+                        if (rejection == null) {
+                            rejection = e;
+                        }
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+                if (rejection != null) {
+                    throw rejection;
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+    }
+
+    static final class PublishSendHub extends CallbackHub<OnPublishSend> implements OnPublishSend {
+        PublishSendHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPublishSend[0], "publishSends");
+        }
+
+        @Override
+        public void onPublishSend(@NonNull final PUBLISH publish, @NonNull final ClientData clientData) {
+            final OnPublishSend[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPublishSend callback : callbacks) {
+                    try {
+                        callback.onPublishSend(publish, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubackReceivedHub extends CallbackHub<OnPubackReceived> implements OnPubackReceived {
+        PubackReceivedHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubackReceived[0], "pubackReceiveds");
+        }
+
+        @Override
+        public void onPubackReceived(@NonNull final PUBACK puback, @NonNull final ClientData clientData) {
+            final OnPubackReceived[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubackReceived callback : callbacks) {
+                    try {
+                        callback.onPubackReceived(puback, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubackSendHub extends CallbackHub<OnPubackSend> implements OnPubackSend {
+        PubackSendHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubackSend[0], "pubackSends");
+        }
+
+        @Override
+        public void onPubackSend(@NonNull final PUBACK puback, @NonNull final ClientData clientData) {
+            final OnPubackSend[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubackSend callback : callbacks) {
+                    try {
+                        callback.onPubackSend(puback, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubrecReceivedHub extends CallbackHub<OnPubrecReceived> implements OnPubrecReceived {
+        PubrecReceivedHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubrecReceived[0], "pubrecReceiveds");
+        }
+
+        @Override
+        public void onPubrecReceived(@NonNull final PUBREC pubrec, @NonNull final ClientData clientData) {
+            final OnPubrecReceived[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubrecReceived callback : callbacks) {
+                    try {
+                        callback.onPubrecReceived(pubrec, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubrecSendHub extends CallbackHub<OnPubrecSend> implements OnPubrecSend {
+        PubrecSendHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubrecSend[0], "pubrecSends");
+        }
+
+        @Override
+        public void onPubrecSend(@NonNull final PUBREC pubrec, @NonNull final ClientData clientData) {
+            final OnPubrecSend[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubrecSend callback : callbacks) {
+                    try {
+                        callback.onPubrecSend(pubrec, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubrelReceivedHub extends CallbackHub<OnPubrelReceived> implements OnPubrelReceived {
+        PubrelReceivedHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubrelReceived[0], "pubrelReceiveds");
+        }
+
+        @Override
+        public void onPubrelReceived(@NonNull final PUBREL pubrel, @NonNull final ClientData clientData) {
+            final OnPubrelReceived[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubrelReceived callback : callbacks) {
+                    try {
+                        callback.onPubrelReceived(pubrel, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubrelSendHub extends CallbackHub<OnPubrelSend> implements OnPubrelSend {
+        PubrelSendHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubrelSend[0], "pubrelSends");
+        }
+
+        @Override
+        public void onPubrelSend(@NonNull final PUBREL pubrel, @NonNull final ClientData clientData) {
+            final OnPubrelSend[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubrelSend callback : callbacks) {
+                    try {
+                        callback.onPubrelSend(pubrel, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubcompReceivedHub extends CallbackHub<OnPubcompReceived> implements OnPubcompReceived {
+        PubcompReceivedHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubcompReceived[0], "pubcompReceiveds");
+        }
+
+        @Override
+        public void onPubcompReceived(@NonNull final PUBCOMP pubcomp, @NonNull final ClientData clientData) {
+            final OnPubcompReceived[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubcompReceived callback : callbacks) {
+                    try {
+                        callback.onPubcompReceived(pubcomp, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class PubcompSendHub extends CallbackHub<OnPubcompSend> implements OnPubcompSend {
+        PubcompSendHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnPubcompSend[0], "pubcompSends");
+        }
+
+        @Override
+        public void onPubcompSend(@NonNull final PUBCOMP pubcomp, @NonNull final ClientData clientData) {
+            final OnPubcompSend[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnPubcompSend callback : callbacks) {
+                    try {
+                        callback.onPubcompSend(pubcomp, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class ConnectHub extends CallbackHub<OnConnectCallback> implements OnConnectCallback {
+        private final int priority;
+
+        ConnectHub(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+            super(callbackRegistry, new OnConnectCallback[0], "clientConnects");
+            this.priority = priority;
+        }
+
+        @Override
+        public void onConnect(@NonNull final CONNECT connect, @NonNull final ClientData clientData)
+                throws RefusedConnectionException {
+            final OnConnectCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                RefusedConnectionException rejection = null;
+                for (final OnConnectCallback callback : callbacks) {
+                    try {
+                        callback.onConnect(connect, clientData);
+                    } catch (RefusedConnectionException e) {
+                        if (rejection == null) {
+                            rejection = e;
+                        }
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+                if (rejection != null) {
+                    throw rejection;
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+    }
+
+    static final class DisconnectHub extends CallbackHub<OnDisconnectCallback> implements OnDisconnectCallback {
+        DisconnectHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new OnDisconnectCallback[0], "clientDisconnects");
+        }
+
+        @Override
+        public void onDisconnect(@NonNull final ClientData clientData, final boolean abruptAbort) {
+            final OnDisconnectCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final OnDisconnectCallback callback : callbacks) {
+                    try {
+                        callback.onDisconnect(clientData, abruptAbort);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class AfterLoginHub extends CallbackHub<AfterLoginCallback> implements AfterLoginCallback {
+        AfterLoginHub(@NonNull final CallbackRegistry callbackRegistry) {
+            super(callbackRegistry, new AfterLoginCallback[0], "afterLogins");
+        }
+
+        @Override
+        public void afterSuccessfulLogin(@NonNull final ClientData clientData) {
+            final AfterLoginCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final AfterLoginCallback callback : callbacks) {
+                    try {
+                        callback.afterSuccessfulLogin(clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+
+        @Override
+        public void afterFailedLogin(@NonNull final AuthenticationException exception,
+                                     @NonNull final ClientData clientData) {
+            final AfterLoginCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final AfterLoginCallback callback : callbacks) {
+                    try {
+                        callback.afterFailedLogin(exception, clientData);
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+    }
+
+    static final class BrokerStartHub extends CallbackHub<OnBrokerStart> implements OnBrokerStart {
+        private final int priority;
+
+        BrokerStartHub(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+            super(callbackRegistry, new OnBrokerStart[0], "brokerStarts");
+            this.priority = priority;
+        }
+
+        @Override
+        public void onBrokerStart() throws BrokerUnableToStartException {
+            final OnBrokerStart[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                BrokerUnableToStartException rejection = null;
+                for (final OnBrokerStart callback : callbacks) {
+                    try {
+                        callback.onBrokerStart();
+                    } catch (BrokerUnableToStartException e) {
+                        if (rejection == null) {
+                            rejection = e;
+                        }
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+                if (rejection != null) {
+                    throw rejection;
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+    }
+
+    static final class ScheduledHub extends CallbackHub<ScheduledCallback> implements ScheduledCallback {
+        private final String cronExpression;
+
+        ScheduledHub(@NonNull final CallbackRegistry callbackRegistry, @NonNull final String cronExpression) {
+            super(callbackRegistry, new ScheduledCallback[0], "scheduleds");
+            this.cronExpression = cronExpression;
+        }
+
+        @Override
+        public void execute() {
+            final ScheduledCallback[] callbacks = callbacks();
+            final StreamMetrics metrics = metrics();
+            final long start = metrics != null ? metrics.start(callbacks.length) : 0L;
+            try {
+                for (final ScheduledCallback callback : callbacks) {
+                    try {
+                        callback.execute();
+                    } catch (Throwable e) {
+                        onCallbackError(e);
+                    }
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.end(start);
+                }
+            }
+        }
+
+        @Override
+        public String cronExpression() {
+            return cronExpression;
+        }
+    }
+
+    private static final class Key {
+        private final CallbackRegistry callbackRegistry;
+        private final Class<? extends Callback> type;
+        private final Object qualifier;
+
+        /**
+         * @param qualifier priority or cron expression, null for asynchronous callbacks
+         */
+        Key(final CallbackRegistry callbackRegistry, final Class<? extends Callback> type, final Object qualifier) {
+            this.callbackRegistry = callbackRegistry;
+            this.type = type;
+            this.qualifier = qualifier;
+        }
+
+        /**
+         * @return {@code rx-hivemq.<stream>[.<qualifier>]}, e.g. {@code rx-hivemq.publishReceiveds.100}
+         */
+        String metricName(final String streamName) {
+            if (qualifier == null) {
+                return MetricRegistry.name("rx-hivemq", streamName);
+            }
+            return MetricRegistry.name("rx-hivemq", streamName,
+                    qualifier.toString().replaceAll("[^A-Za-z0-9_-]", "_"));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return callbackRegistry == key.callbackRegistry
+                    && type == key.type
+                    && (qualifier != null ? qualifier.equals(key.qualifier) : key.qualifier == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(callbackRegistry);
+            result = 31 * result + type.hashCode();
+            result = 31 * result + (qualifier != null ? qualifier.hashCode() : 0);
+            return result;
+        }
+    }
+}
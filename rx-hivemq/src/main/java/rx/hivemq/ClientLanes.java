@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.observables.GroupedObservable;
+
+/**
+ * Splits a stream into lanes by the hash of the client id, each lane is observed on its own worker of the
+ * {@link Scheduler} so the events of a client are delivered in order and one at a time while the lanes run
+ * in parallel.
+ */
+final class ClientLanes<T> implements ObservableTransformer<T, Observable<T>> {
+    final Scheduler scheduler;
+    final int lanes;
+    final Function<? super T, String> clientIdSelector;
+
+    ClientLanes(@NonNull final Scheduler scheduler,
+                final int lanes,
+                @NonNull final Function<? super T, String> clientIdSelector) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("lanes > 0 required but it was " + lanes);
+        }
+        this.scheduler = scheduler;
+        this.lanes = lanes;
+        this.clientIdSelector = clientIdSelector;
+    }
+
+    @Override
+    public ObservableSource<Observable<T>> apply(@NonNull final Observable<T> upstream) {
+        return upstream
+                .groupBy(new Function<T, Integer>() {
+                    @Override
+                    public Integer apply(@NonNull final T t) throws Exception {
+                        return lane(clientIdSelector.apply(t), lanes);
+                    }
+                })
+                .map(new Function<GroupedObservable<Integer, T>, Observable<T>>() {
+                    @Override
+                    public Observable<T> apply(@NonNull final GroupedObservable<Integer, T> lane) throws Exception {
+                        return lane.observeOn(scheduler);
+                    }
+                });
+    }
+
+    static int lane(@NonNull final String clientId, final int lanes) {
+        final int h = clientId.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.services.PublishService;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Publishes the messages of a {@link Publisher} in {@link PublishWindow}s, one window after the other on a single
+ * {@link Scheduler.Worker}.
+ *
+ * At most two windows of messages are requested ahead, the next ones only once a window is published, so a fast
+ * source waits for the {@link PublishService} instead of piling up windows.
+ */
+final class CompletablePublishWindows extends Completable {
+    final Publisher<PUBLISH> source;
+    final PublishService publishService;
+    final PublishWindow window;
+    final Scheduler scheduler;
+
+    CompletablePublishWindows(@NonNull final Publisher<PUBLISH> source,
+                              @NonNull final PublishService publishService,
+                              @NonNull final PublishWindow window,
+                              @NonNull final Scheduler scheduler) {
+        this.source = source;
+        this.publishService = publishService;
+        this.window = window;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    protected void subscribeActual(final CompletableObserver s) {
+        source.subscribe(new PublishWindowsSubscriber(s, publishService, window, scheduler.createWorker()));
+    }
+
+    static final class PublishWindowsSubscriber extends AtomicBoolean implements Subscriber<PUBLISH>, Disposable {
+        private static final long serialVersionUID = 4470916581470453713L;
+
+        final CompletableObserver actual;
+        final PublishService publishService;
+        final PublishWindow window;
+        final Scheduler.Worker worker;
+        final int maxSize;
+
+        Subscription upstream;
+        volatile boolean disposed;
+
+        /**
+         * Guarded by this, the generation tells a timeout whether its window was flushed meanwhile.
+         */
+        List<PUBLISH> current;
+        long generation;
+        boolean done;
+
+        PublishWindowsSubscriber(final CompletableObserver actual,
+                                 final PublishService publishService,
+                                 final PublishWindow window,
+                                 final Scheduler.Worker worker) {
+            this.actual = actual;
+            this.publishService = publishService;
+            this.window = window;
+            this.worker = worker;
+            this.maxSize = window.getMaxSize();
+            this.current = new ArrayList<PUBLISH>(maxSize);
+        }
+
+        @Override
+        public void onSubscribe(@NonNull final Subscription s) {
+            upstream = s;
+            actual.onSubscribe(this);
+            s.request(2L * maxSize);
+        }
+
+        @Override
+        public void onNext(@NonNull final PUBLISH publish) {
+            final List<PUBLISH> full;
+            final long opened;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                current.add(publish);
+                if (current.size() >= maxSize) {
+                    full = current;
+                    current = new ArrayList<PUBLISH>(maxSize);
+                    generation++;
+                    opened = -1L;
+                } else {
+                    full = null;
+                    opened = current.size() == 1 ? generation : -1L;
+                }
+            }
+            if (full != null) {
+                worker.schedule(new Flush(full, false));
+            } else if (opened != -1L) {
+                worker.schedule(new Timeout(opened), window.timespanNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull final Throwable e) {
+            synchronized (this) {
+                done = true;
+            }
+            fail(e);
+        }
+
+        @Override
+        public void onComplete() {
+            final List<PUBLISH> last;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                last = current;
+                current = new ArrayList<PUBLISH>(0);
+                generation++;
+            }
+            worker.schedule(new Flush(last, true));
+        }
+
+        /**
+         * Runs on the worker.
+         */
+        void publish(final List<PUBLISH> batch, final boolean last) {
+            if (disposed) {
+                return;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    final Collection<PUBLISH> messages = window.isCoalescing()
+                            ? RxPublishService.coalesce(batch) : batch;
+                    for (final PUBLISH publish : messages) {
+                        publishService.publish(publish);
+                    }
+                    window.onFlushed(messages.size(), batch.size() - messages.size());
+                } catch (Throwable e) {
+                    Exceptions.throwIfFatal(e);
+                    fail(e);
+                    return;
+                }
+            }
+            if (last) {
+                if (compareAndSet(false, true)) {
+                    worker.dispose();
+                    actual.onComplete();
+                }
+            } else {
+                upstream.request(batch.size());
+            }
+        }
+
+        void fail(final Throwable e) {
+            if (compareAndSet(false, true)) {
+                disposed = true;
+                upstream.cancel();
+                worker.dispose();
+                actual.onError(e);
+            } else {
+                RxJavaPlugins.onError(e);
+            }
+        }
+
+        @Override
+        public void dispose() {
+            lazySet(true);
+            disposed = true;
+            upstream.cancel();
+            worker.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+
+        final class Flush implements Runnable {
+            final List<PUBLISH> batch;
+            final boolean last;
+
+            Flush(final List<PUBLISH> batch, final boolean last) {
+                this.batch = batch;
+                this.last = last;
+            }
+
+            @Override
+            public void run() {
+                publish(batch, last);
+            }
+        }
+
+        final class Timeout implements Runnable {
+            final long opened;
+
+            Timeout(final long opened) {
+                this.opened = opened;
+            }
+
+            @Override
+            public void run() {
+                final List<PUBLISH> batch;
+                synchronized (PublishWindowsSubscriber.this) {
+                    if (generation != opened || current.isEmpty()) {
+                        return;
+                    }
+                    batch = current;
+                    current = new ArrayList<PUBLISH>(maxSize);
+                    generation++;
+                }
+                publish(batch, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+
+/**
+ * Immutable snapshot of a properties file emitted by {@link RxConfiguration#watch}.
+ *
+ * The typed getters fall back to the given default when a key is missing or its value can't be parsed,
+ * a typo in a reloaded file never breaks the stages reading it.
+ */
+public final class ConfigSnapshot {
+    private static final ConfigSnapshot EMPTY = new ConfigSnapshot(Collections.<String, String>emptyMap());
+
+    private final Map<String, String> values;
+
+    private ConfigSnapshot(@NonNull final Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * @return a snapshot without any key
+     */
+    @NonNull
+    public static ConfigSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param properties copied, later changes to it are not seen by the snapshot
+     * @return
+     */
+    @NonNull
+    public static ConfigSnapshot of(@NonNull final Properties properties) {
+        final Map<String, String> values = new TreeMap<String, String>();
+        for (final String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key).trim());
+        }
+        return values.isEmpty() ? EMPTY : new ConfigSnapshot(Collections.unmodifiableMap(values));
+    }
+
+    @NonNull
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public boolean containsKey(@NonNull final String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    @Nullable
+    public String getString(@NonNull final String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public String getString(@NonNull final String key, final String defaultValue) {
+        final String value = values.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public int getInt(@NonNull final String key, final int defaultValue) {
+        final String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public long getLong(@NonNull final String key, final long defaultValue) {
+        final String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public double getDouble(@NonNull final String key, final double defaultValue) {
+        final String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the default unless the value is {@code true} or {@code false}, ignoring case
+     */
+    public boolean getBoolean(@NonNull final String key, final boolean defaultValue) {
+        final String value = values.get(key);
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || (o instanceof ConfigSnapshot && values.equals(((ConfigSnapshot) o).values));
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot" + values;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.security.ClientData;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+
+/**
+ * A CONNECT received by the broker together with the connecting client.
+ *
+ * Events of {@link RxHiveMQ#connectEvents(com.hivemq.spi.callback.registry.CallbackRegistry, int, boolean)}
+ * with {@code reuseEvents} are recycled once {@code onNext} returns, don't keep a reference to them beyond that.
+ */
+public final class ConnectEvent {
+    private CONNECT connect;
+    private ClientData clientData;
+
+    ConnectEvent() {
+    }
+
+    ConnectEvent(@NonNull final CONNECT connect, @NonNull final ClientData clientData) {
+        this.connect = connect;
+        this.clientData = clientData;
+    }
+
+    ConnectEvent set(final CONNECT connect, final ClientData clientData) {
+        this.connect = connect;
+        this.clientData = clientData;
+        return this;
+    }
+
+    @NonNull
+    public CONNECT getConnect() {
+        return connect;
+    }
+
+    @NonNull
+    public ClientData getClientData() {
+        return clientData;
+    }
+
+    @NonNull
+    public String getClientId() {
+        return clientData.getClientId();
+    }
+
+    @Nullable
+    public String getUsername() {
+        return connect.getUsername();
+    }
+
+    public boolean isCleanSession() {
+        return connect.isCleanSession();
+    }
+
+    public int getKeepAliveTimer() {
+        return connect.getKeepAliveTimer();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectEvent{clientId=" + clientData.getClientId()
+                + ", cleanSession=" + connect.isCleanSession() + "}";
+    }
+}
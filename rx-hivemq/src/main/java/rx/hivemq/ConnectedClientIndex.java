@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.security.ClientData;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Client ids of the locally connected clients, kept up to date by {@link RxHiveMQ#connectEvents} and
+ * {@link RxHiveMQ#clientDisconnects} instead of scanning the {@code BlockingClientService} on request.
+ *
+ * Connections are counted per client id, so the disconnect of a connection taken over by a new one
+ * with the same client id doesn't remove the client.
+ *
+ * The comma-separated payload of the client ids is cached and only rebuilt, on the next request,
+ * after a client connected or disconnected.
+ */
+public final class ConnectedClientIndex implements Disposable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentHashMap<String, AtomicInteger> connections = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Set<String> view = Collections.unmodifiableSet(connections.keySet());
+    private final AtomicLong version = new AtomicLong();
+    private volatile Payload payload = new Payload(0L, new byte[0]);
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private ConnectedClientIndex() {
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority of the connect callback
+     * @return an index of the clients connecting from now on, dispose it to stop tracking
+     */
+    @NonNull
+    public static ConnectedClientIndex create(@NonNull final CallbackRegistry callbackRegistry, final int priority) {
+        final ConnectedClientIndex index = new ConnectedClientIndex();
+        index.disposables.add(RxHiveMQ.connectEvents(callbackRegistry, priority, true)
+                .subscribe(new Consumer<ConnectEvent>() {
+                    @Override
+                    public void accept(@NonNull final ConnectEvent event) throws Exception {
+                        index.add(event.getClientId());
+                    }
+                }));
+        index.disposables.add(RxHiveMQ.clientDisconnects(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<ClientData, Boolean>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<ClientData, Boolean> pair) throws Exception {
+                        index.remove(pair.left.getClientId());
+                    }
+                }));
+        return index;
+    }
+
+    void add(@NonNull final String clientId) {
+        for (;;) {
+            final AtomicInteger count = connections.get(clientId);
+            if (count == null) {
+                if (connections.putIfAbsent(clientId, new AtomicInteger(1)) == null) {
+                    version.incrementAndGet();
+                    return;
+                }
+                continue;
+            }
+            final int n = count.get();
+            if (n == 0) {
+                // the last connection is leaving, help remove the count and start a new one
+                connections.remove(clientId, count);
+            } else if (count.compareAndSet(n, n + 1)) {
+                return;
+            }
+        }
+    }
+
+    void remove(@NonNull final String clientId) {
+        for (;;) {
+            final AtomicInteger count = connections.get(clientId);
+            if (count == null) {
+                return;
+            }
+            final int n = count.get();
+            if (n == 0) {
+                connections.remove(clientId, count);
+            } else if (count.compareAndSet(n, n - 1)) {
+                if (n == 1 && connections.remove(clientId, count)) {
+                    version.incrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return live read-only view of the connected client ids
+     */
+    @NonNull
+    public Set<String> getClientIds() {
+        return view;
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public boolean contains(@NonNull final String clientId) {
+        return connections.containsKey(clientId);
+    }
+
+    /**
+     * @return the UTF-8 client ids, each followed by a comma, shared between callers so don't modify it
+     */
+    @NonNull
+    public byte[] toPayload() {
+        final Payload current = payload;
+        final long v = version.get();
+        if (current.version == v) {
+            return current.bytes;
+        }
+        final StringBuilder builder = new StringBuilder(connections.size() * 16);
+        for (final String clientId : connections.keySet()) {
+            builder.append(clientId).append(',');
+        }
+        final byte[] bytes = builder.toString().getBytes(UTF_8);
+        payload = new Payload(v, bytes);
+        return bytes;
+    }
+
+    @Override
+    public void dispose() {
+        disposables.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposables.isDisposed();
+    }
+
+    private static final class Payload {
+        final long version;
+        final byte[] bytes;
+
+        Payload(final long version, final byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+}
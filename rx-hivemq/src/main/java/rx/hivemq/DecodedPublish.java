@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import java.nio.ByteBuffer;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+
+/**
+ * Publish of {@link RxHiveMQ#decoded(PayloadCodec)} decoding its payload lazily, on the first
+ * {@link #getPayload()}, and once.
+ *
+ * Subscribers receiving the same publish on the same thread, as the subscribers of a broker callback do,
+ * share the decoded payload as long as they use the same codec instance.
+ *
+ * @param <T> the decoded payload
+ */
+public final class DecodedPublish<T> {
+    /**
+     * The last payload decoded by the thread.
+     */
+    private static final ThreadLocal<Memo> MEMO = new ThreadLocal<Memo>() {
+        @Override
+        protected Memo initialValue() {
+            return new Memo();
+        }
+    };
+
+    private final PUBLISH publish;
+    private final ClientData clientData;
+    private final PayloadCodec<T> codec;
+    private boolean decoded;
+    private T payload;
+
+    DecodedPublish(@NonNull final PUBLISH publish,
+                   @NonNull final ClientData clientData,
+                   @NonNull final PayloadCodec<T> codec) {
+        this.publish = publish;
+        this.clientData = clientData;
+        this.codec = codec;
+    }
+
+    @NonNull
+    public PUBLISH getPublish() {
+        return publish;
+    }
+
+    @NonNull
+    public ClientData getClientData() {
+        return clientData;
+    }
+
+    @NonNull
+    public String getTopic() {
+        return publish.getTopic();
+    }
+
+    /**
+     * @return the decoded payload, null only if the codec decodes to null
+     * @throws IllegalArgumentException if the codec fails on the payload
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T getPayload() {
+        if (decoded) {
+            return payload;
+        }
+        final Memo memo = MEMO.get();
+        if (memo.publish == publish && memo.codec == codec) {
+            payload = (T) memo.payload;
+        } else {
+            try {
+                payload = codec.decode(ByteBuffer.wrap(publish.getPayload()).asReadOnlyBuffer());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Unable to decode the payload of " + publish.getTopic(), e);
+            }
+            memo.publish = publish;
+            memo.codec = codec;
+            memo.payload = payload;
+        }
+        decoded = true;
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedPublish{topic=" + publish.getTopic() + ", clientId=" + clientData.getClientId() + "}";
+    }
+
+    private static final class Memo {
+        PUBLISH publish;
+        PayloadCodec<?> codec;
+        Object payload;
+    }
+}
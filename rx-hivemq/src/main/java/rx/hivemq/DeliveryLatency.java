@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.codahale.metrics.Snapshot;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * Time PUBLISHes spend in the broker, from {@link RxHiveMQ#publishReceiveds} to each delivery of
+ * {@link RxHiveMQ#publishSends}, as a latency histogram per topic.
+ *
+ * A received PUBLISH is stamped into a fixed-size table keyed by its topic and payload, as the broker
+ * delivers a copy with its own message id per subscriber. Identical messages on a topic are matched to the latest
+ * receipt. Receipts expire, and once their table slots are taken the oldest receipt gives way, see
+ * {@link #getEvictedCount()}. Up to {@code maxTopics} topics get a histogram of their own, the others
+ * share the one of {@value #OTHER_TOPICS}.
+ */
+public final class DeliveryLatency implements Disposable {
+    /**
+     * Histogram of the topics beyond {@code maxTopics}.
+     */
+    public static final String OTHER_TOPICS = "#";
+
+    private static final int SEGMENTS = 64;
+    private static final int PROBES = 8;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long expiryNanos;
+    private final int maxTopics;
+    private final ConcurrentMap<String, LatencyReservoir> histograms = new ConcurrentHashMap<String, LatencyReservoir>();
+    private final AtomicInteger topics = new AtomicInteger();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private DeliveryLatency(final int capacity, final long expiryNanos, final int maxTopics) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity > 0 required but it was " + capacity);
+        }
+        if (expiryNanos <= 0) {
+            throw new IllegalArgumentException("expiry > 0 required but it was " + expiryNanos);
+        }
+        if (maxTopics <= 0) {
+            throw new IllegalArgumentException("maxTopics > 0 required but it was " + maxTopics);
+        }
+        final int perSegment = Math.max(PROBES, Integer.highestOneBit(Math.max(1, capacity / SEGMENTS - 1) << 1));
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.segmentMask = SEGMENTS - 1;
+        this.expiryNanos = expiryNanos;
+        this.maxTopics = maxTopics;
+    }
+
+    /**
+     * @param capacity receipts tracked at once, rounded up to a power of two per segment
+     * @param expiry
+     * @param unit
+     * @param maxTopics topics with a histogram of their own
+     * @return a tracker fed by {@link #received(PUBLISH)} and {@link #sent(PUBLISH)}
+     */
+    @NonNull
+    public static DeliveryLatency create(final int capacity,
+                                         final long expiry,
+                                         @NonNull final TimeUnit unit,
+                                         final int maxTopics) {
+        return new DeliveryLatency(capacity, unit.toNanos(expiry), maxTopics);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority of the receive callback, stamp before slow callbacks with a high priority
+     * @param capacity receipts tracked at once, e.g. the message rate times the expiry
+     * @param expiry
+     * @param unit
+     * @param maxTopics topics with a histogram of their own
+     * @return a tracker of the PUBLISHes received from now on, dispose it to stop tracking
+     */
+    @NonNull
+    public static DeliveryLatency create(@NonNull final CallbackRegistry callbackRegistry,
+                                         final int priority,
+                                         final int capacity,
+                                         final long expiry,
+                                         @NonNull final TimeUnit unit,
+                                         final int maxTopics) {
+        final DeliveryLatency latency = new DeliveryLatency(capacity, unit.toNanos(expiry), maxTopics);
+        latency.disposables.add(RxHiveMQ.publishReceiveds(callbackRegistry, priority)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
+                        latency.received(pair.left);
+                    }
+                }));
+        latency.disposables.add(RxHiveMQ.publishSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
+                        latency.sent(pair.left);
+                    }
+                }));
+        return latency;
+    }
+
+    public void received(@NonNull final PUBLISH publish) {
+        received(publish, System.nanoTime());
+    }
+
+    public void sent(@NonNull final PUBLISH publish) {
+        sent(publish, System.nanoTime());
+    }
+
+    void received(@NonNull final PUBLISH publish, final long now) {
+        final long key = key(publish);
+        if (segments[segment(key)].put(key, now, expiryNanos)) {
+            evicted.incrementAndGet();
+        }
+        received.incrementAndGet();
+    }
+
+    void sent(@NonNull final PUBLISH publish, final long now) {
+        final long key = key(publish);
+        final long stamp = segments[segment(key)].get(key, now, expiryNanos);
+        if (stamp == Segment.ABSENT) {
+            unmatched.incrementAndGet();
+            return;
+        }
+        matched.incrementAndGet();
+        histogram(publish.getTopic()).update(now - stamp);
+    }
+
+    /**
+     * @param topic
+     * @return nanoseconds from receipt to delivery of the topic's PUBLISHes so far, null if none was delivered
+     */
+    @Nullable
+    public Snapshot getSnapshot(@NonNull final String topic) {
+        final LatencyReservoir histogram = histograms.get(topic);
+        return histogram != null ? histogram.getSnapshot() : null;
+    }
+
+    /**
+     * @return nanoseconds from receipt to delivery per topic so far
+     */
+    @NonNull
+    public Map<String, Snapshot> getSnapshots() {
+        final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>(histograms.size() * 2);
+        for (final Map.Entry<String, LatencyReservoir> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Emits the histograms of the deliveries within each period, topics without deliveries are left out.
+     * The histograms are reset every period, don't combine it with {@link #getSnapshots()}.
+     *
+     * @param period
+     * @param unit
+     * @param scheduler
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public Observable<Map<String, Snapshot>> snapshots(final long period,
+                                                       @NonNull final TimeUnit unit,
+                                                       @NonNull final Scheduler scheduler) {
+        return Observable.interval(period, period, unit, scheduler)
+                .map(new Function<Long, Map<String, Snapshot>>() {
+                    @Override
+                    public Map<String, Snapshot> apply(@NonNull final Long tick) throws Exception {
+                        final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+                        for (final Map.Entry<String, LatencyReservoir> entry : histograms.entrySet()) {
+                            final Snapshot snapshot = entry.getValue().getSnapshotAndReset();
+                            if (snapshot.size() > 0) {
+                                snapshots.put(entry.getKey(), snapshot);
+                            }
+                        }
+                        return Collections.unmodifiableMap(snapshots);
+                    }
+                });
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * @return deliveries matched to a receipt so far
+     */
+    public long getMatchedCount() {
+        return matched.get();
+    }
+
+    /**
+     * @return deliveries without a receipt so far, as published by plugins, expired or evicted
+     */
+    public long getUnmatchedCount() {
+        return unmatched.get();
+    }
+
+    /**
+     * @return receipts that gave way before expiring so far, a sign the capacity is too low
+     */
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    @Override
+    public void dispose() {
+        disposables.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposables.isDisposed();
+    }
+
+    private LatencyReservoir histogram(final String topic) {
+        LatencyReservoir histogram = histograms.get(topic);
+        if (histogram != null) {
+            return histogram;
+        }
+        final String key = topics.get() < maxTopics ? topic : OTHER_TOPICS;
+        histogram = histograms.get(key);
+        if (histogram == null) {
+            final LatencyReservoir created = new LatencyReservoir();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+                if (!OTHER_TOPICS.equals(key)) {
+                    topics.incrementAndGet();
+                }
+            }
+        }
+        return histogram;
+    }
+
+    private int segment(final long key) {
+        return (int) (key >>> 32) & segmentMask;
+    }
+
+    /**
+     * @return a non-zero hash of the topic and the payload
+     */
+    static long key(@NonNull final PUBLISH publish) {
+        long key = ((long) publish.getTopic().hashCode() << 32) ^ (Arrays.hashCode(publish.getPayload()) & 0xFFFFFFFFL);
+        key ^= key >>> 29;
+        key *= 0xBF58476D1CE4E5B9L;
+        key ^= key >>> 32;
+        return key != 0L ? key : 1L;
+    }
+
+    /**
+     * An open addressing table of receipts, probing up to {@value #PROBES} slots.
+     */
+    static final class Segment {
+        static final long ABSENT = Long.MIN_VALUE;
+
+        private final long[] keys;
+        private final long[] stamps;
+        private final int mask;
+
+        Segment(final int capacity) {
+            this.keys = new long[capacity];
+            this.stamps = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * @return true if a live receipt was evicted
+         */
+        synchronized boolean put(final long key, final long now, final long expiryNanos) {
+            final int start = (int) key & mask;
+            int free = -1;
+            int oldest = start;
+            for (int i = 0; i < PROBES; i++) {
+                final int slot = (start + i) & mask;
+                if (keys[slot] == key) {
+                    stamps[slot] = now;
+                    return false;
+                }
+                if (free < 0 && (keys[slot] == 0L || now - stamps[slot] > expiryNanos)) {
+                    free = slot;
+                }
+                if (stamps[slot] - stamps[oldest] < 0) {
+                    oldest = slot;
+                }
+            }
+            final int slot = free >= 0 ? free : oldest;
+            keys[slot] = key;
+            stamps[slot] = now;
+            return free < 0;
+        }
+
+        /**
+         * @return the stamp of the live receipt, {@link #ABSENT} if none
+         */
+        synchronized long get(final long key, final long now, final long expiryNanos) {
+            final int start = (int) key & mask;
+            for (int i = 0; i < PROBES; i++) {
+                final int slot = (start + i) & mask;
+                if (keys[slot] == key) {
+                    return now - stamps[slot] > expiryNanos ? ABSENT : stamps[slot];
+                }
+            }
+            return ABSENT;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.reactivex.Flowable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Bridges a callback driven {@link ObservableSource} to a {@link Flowable} through a buffer bounded by
+ * an {@link OverflowPolicy}.
+ *
+ * The broker thread offers into the buffer and drains it as far as the subscriber requested,
+ * whatever is left is drained by the thread that requests more.
+ */
+final class FlowableOverflow<T> extends Flowable<T> {
+    final ObservableSource<T> source;
+    final OverflowPolicy policy;
+    final Function<? super T, ?> keySelector;
+
+    FlowableOverflow(@NonNull final ObservableSource<T> source,
+                     @NonNull final OverflowPolicy policy,
+                     @NonNull final Function<? super T, ?> keySelector) {
+        this.source = source;
+        this.policy = policy;
+        this.keySelector = keySelector;
+    }
+
+    @Override
+    protected void subscribeActual(final Subscriber<? super T> s) {
+        source.subscribe(new OverflowObserver<T>(s, policy, keySelector));
+    }
+
+    static final class OverflowObserver<T> extends AtomicInteger implements Observer<T>, Subscription {
+        private static final long serialVersionUID = -2502365497372374473L;
+
+        final Subscriber<? super T> actual;
+        final OverflowPolicy policy;
+        final Function<? super T, ?> keySelector;
+        final int capacity;
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notFull = lock.newCondition();
+        final ArrayDeque<T> queue;
+        final LinkedHashMap<Object, T> latest;
+
+        final AtomicLong requested = new AtomicLong();
+
+        Disposable upstream;
+        volatile boolean cancelled;
+        volatile boolean done;
+        Throwable error;
+
+        OverflowObserver(final Subscriber<? super T> actual,
+                         final OverflowPolicy policy,
+                         final Function<? super T, ?> keySelector) {
+            this.actual = actual;
+            this.policy = policy;
+            this.keySelector = keySelector;
+            this.capacity = policy.getCapacity();
+            if (policy.getStrategy() == OverflowPolicy.Strategy.LATEST_PER_KEY) {
+                this.queue = null;
+                this.latest = new LinkedHashMap<Object, T>();
+            } else {
+                this.queue = new ArrayDeque<T>();
+                this.latest = null;
+            }
+        }
+
+        @Override
+        public void onSubscribe(@NonNull final Disposable d) {
+            upstream = d;
+            actual.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(@NonNull final T t) {
+            if (cancelled || done) {
+                return;
+            }
+            final boolean accepted;
+            try {
+                accepted = offer(t);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                upstream.dispose();
+                onError(e);
+                return;
+            }
+            if (!accepted) {
+                policy.onDropped();
+            }
+            drain();
+        }
+
+        /**
+         * @return false if an event was discarded or superseded
+         */
+        private boolean offer(final T t) throws Exception {
+            lock.lock();
+            try {
+                switch (policy.getStrategy()) {
+                    case LATEST_PER_KEY: {
+                        final Object key = keySelector.apply(t);
+                        if (latest.containsKey(key)) {
+                            latest.put(key, t);
+                            return false;
+                        }
+                        boolean evicted = false;
+                        if (latest.size() >= capacity) {
+                            final Iterator<Map.Entry<Object, T>> it = latest.entrySet().iterator();
+                            it.next();
+                            it.remove();
+                            evicted = true;
+                        }
+                        latest.put(key, t);
+                        return !evicted;
+                    }
+                    case DROP_OLDEST: {
+                        boolean evicted = false;
+                        if (queue.size() >= capacity) {
+                            queue.poll();
+                            evicted = true;
+                        }
+                        queue.offer(t);
+                        return !evicted;
+                    }
+                    case DROP_LATEST: {
+                        if (queue.size() >= capacity) {
+                            return false;
+                        }
+                        queue.offer(t);
+                        return true;
+                    }
+                    case BLOCK:
+                    default: {
+                        long nanos = policy.timeoutNanos();
+                        while (queue.size() >= capacity) {
+                            if (nanos <= 0L || cancelled) {
+                                return false;
+                            }
+                            try {
+                                nanos = notFull.awaitNanos(nanos);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return false;
+                            }
+                        }
+                        queue.offer(t);
+                        return true;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private T poll() {
+            lock.lock();
+            try {
+                if (latest != null) {
+                    final Iterator<T> it = latest.values().iterator();
+                    if (!it.hasNext()) {
+                        return null;
+                    }
+                    final T v = it.next();
+                    it.remove();
+                    return v;
+                }
+                final T v = queue.poll();
+                if (v != null) {
+                    notFull.signal();
+                }
+                return v;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isEmpty() {
+            lock.lock();
+            try {
+                return latest != null ? latest.isEmpty() : queue.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void clear() {
+            lock.lock();
+            try {
+                if (latest != null) {
+                    latest.clear();
+                } else {
+                    queue.clear();
+                    notFull.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull final Throwable e) {
+            if (done) {
+                RxJavaPlugins.onError(e);
+                return;
+            }
+            error = e;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0L) {
+                RxJavaPlugins.onError(new IllegalArgumentException("n > 0 required but it was " + n));
+                return;
+            }
+            for (;;) {
+                final long r = requested.get();
+                if (r == Long.MAX_VALUE) {
+                    break;
+                }
+                long u = r + n;
+                if (u < 0L) {
+                    u = Long.MAX_VALUE;
+                }
+                if (requested.compareAndSet(r, u)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                upstream.dispose();
+                if (getAndIncrement() == 0) {
+                    clear();
+                }
+            }
+        }
+
+        void drain() {
+            if (getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                final long r = requested.get();
+                long e = 0L;
+
+                while (e != r) {
+                    if (cancelled) {
+                        clear();
+                        return;
+                    }
+                    final boolean d = done;
+                    final T v = poll();
+                    final boolean empty = v == null;
+                    if (d && empty) {
+                        terminate();
+                        return;
+                    }
+                    if (empty) {
+                        break;
+                    }
+                    actual.onNext(v);
+                    e++;
+                }
+
+                if (e == r) {
+                    if (cancelled) {
+                        clear();
+                        return;
+                    }
+                    if (done && isEmpty()) {
+                        terminate();
+                        return;
+                    }
+                }
+
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+
+                missed = addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void terminate() {
+            final Throwable ex = error;
+            if (ex != null) {
+                actual.onError(ex);
+            } else {
+                actual.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.reactivex.Flowable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Bridges a callback driven {@link ObservableSource} to a {@link Flowable} through a memory buffer bounded by
+ * a {@link SpillPolicy}, spilling the events beyond to a {@link SpillQueue}.
+ *
+ * Once spilling, events keep going to disk until the subscriber drained it, so the buffered events are always older
+ * than the spilled ones. The broker thread offers and drains as far as the subscriber requested, whatever is left
+ * is drained by the thread that requests more.
+ */
+final class FlowableSpill<T> extends Flowable<T> {
+    final ObservableSource<T> source;
+    final SpillPolicy policy;
+    final SpillPolicy.Serializer<T> serializer;
+
+    FlowableSpill(@NonNull final ObservableSource<T> source,
+                  @NonNull final SpillPolicy policy,
+                  @NonNull final SpillPolicy.Serializer<T> serializer) {
+        this.source = source;
+        this.policy = policy;
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected void subscribeActual(final Subscriber<? super T> s) {
+        source.subscribe(new SpillObserver<T>(s, policy, serializer));
+    }
+
+    static final class SpillObserver<T> extends AtomicInteger implements Observer<T>, Subscription {
+        private static final long serialVersionUID = 6127495126377440511L;
+
+        final Subscriber<? super T> actual;
+        final SpillPolicy policy;
+        final SpillPolicy.Serializer<T> serializer;
+        final int capacity;
+
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<T> queue = new ArrayDeque<T>();
+        /**
+         * Opened on the first spill.
+         */
+        SpillQueue disk;
+
+        final AtomicLong requested = new AtomicLong();
+
+        Disposable upstream;
+        volatile boolean cancelled;
+        volatile boolean done;
+        Throwable error;
+
+        SpillObserver(final Subscriber<? super T> actual,
+                      final SpillPolicy policy,
+                      final SpillPolicy.Serializer<T> serializer) {
+            this.actual = actual;
+            this.policy = policy;
+            this.serializer = serializer;
+            this.capacity = policy.getCapacity();
+        }
+
+        @Override
+        public void onSubscribe(@NonNull final Disposable d) {
+            upstream = d;
+            actual.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(@NonNull final T t) {
+            if (cancelled || done) {
+                return;
+            }
+            try {
+                offer(t);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                upstream.dispose();
+                onError(e);
+                return;
+            }
+            drain();
+        }
+
+        private void offer(final T t) throws Exception {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if ((disk == null || disk.isEmpty()) && queue.size() < capacity) {
+                    queue.offer(t);
+                    return;
+                }
+                final byte[] bytes = serializer.serialize(t);
+                if (disk == null) {
+                    disk = SpillQueue.open(policy.getDirectory(), policy.getSegmentSize());
+                }
+                disk.offer(bytes);
+                policy.onSpilled(bytes.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private T poll() throws Exception {
+            final byte[] bytes;
+            lock.lock();
+            try {
+                final T v = queue.poll();
+                if (v != null || disk == null) {
+                    return v;
+                }
+                bytes = disk.poll();
+            } finally {
+                lock.unlock();
+            }
+            if (bytes == null) {
+                return null;
+            }
+            policy.onRestored();
+            return serializer.deserialize(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+        }
+
+        private boolean isEmpty() {
+            lock.lock();
+            try {
+                return queue.isEmpty() && (disk == null || disk.isEmpty());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops the buffered events and deletes the spilled ones.
+         */
+        private void clear() {
+            lock.lock();
+            try {
+                queue.clear();
+                if (disk != null) {
+                    disk.close();
+                    disk = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull final Throwable e) {
+            if (done) {
+                RxJavaPlugins.onError(e);
+                return;
+            }
+            error = e;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0L) {
+                RxJavaPlugins.onError(new IllegalArgumentException("n > 0 required but it was " + n));
+                return;
+            }
+            for (;;) {
+                final long r = requested.get();
+                if (r == Long.MAX_VALUE) {
+                    break;
+                }
+                long u = r + n;
+                if (u < 0L) {
+                    u = Long.MAX_VALUE;
+                }
+                if (requested.compareAndSet(r, u)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                upstream.dispose();
+                if (getAndIncrement() == 0) {
+                    clear();
+                }
+            }
+        }
+
+        void drain() {
+            if (getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                final long r = requested.get();
+                long e = 0L;
+
+                while (e != r) {
+                    if (cancelled) {
+                        clear();
+                        return;
+                    }
+                    final boolean d = done;
+                    final T v;
+                    try {
+                        v = poll();
+                    } catch (Throwable ex) {
+                        Exceptions.throwIfFatal(ex);
+                        cancelled = true;
+                        upstream.dispose();
+                        clear();
+                        actual.onError(ex);
+                        return;
+                    }
+                    final boolean empty = v == null;
+                    if (d && empty) {
+                        terminate();
+                        return;
+                    }
+                    if (empty) {
+                        break;
+                    }
+                    actual.onNext(v);
+                    e++;
+                }
+
+                if (e == r) {
+                    if (cancelled) {
+                        clear();
+                        return;
+                    }
+                    if (done && isEmpty()) {
+                        terminate();
+                        return;
+                    }
+                }
+
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+
+                missed = addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void terminate() {
+            clear();
+            final Throwable ex = error;
+            if (ex != null) {
+                actual.onError(ex);
+            } else {
+                actual.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.codahale.metrics.Snapshot;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.message.PUBACK;
+import com.hivemq.spi.message.PUBCOMP;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.PUBREC;
+import com.hivemq.spi.message.PUBREL;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * QoS 1 and 2 flows in flight between the broker and its clients, from the PUBLISH to its last acknowledgement.
+ *
+ * Flows are kept by (client id, packet id, direction) in striped open addressing tables of primitive arrays,
+ * tracking a flow allocates nothing once the tables have grown to the peak number of flows in flight.
+ * Completed flows are recorded in a round trip histogram per {@link Direction}, flows without progress
+ * for longer than the timeout are dropped and emitted by {@link #timeouts(long, TimeUnit, Scheduler)}.
+ */
+public final class InFlightTracker implements Disposable {
+
+    public enum Direction {
+        /**
+         * PUBLISHes received from the clients, acknowledged by the broker.
+         */
+        INBOUND,
+        /**
+         * PUBLISHes sent to the clients, acknowledged by the clients.
+         */
+        OUTBOUND
+    }
+
+    /**
+     * The packet a flow waits for.
+     */
+    public enum Awaiting {
+        PUBACK,
+        PUBREC,
+        PUBREL,
+        PUBCOMP
+    }
+
+    /**
+     * A flow without progress for longer than the timeout.
+     */
+    public static final class Flow {
+        private final String clientId;
+        private final int packetId;
+        private final Direction direction;
+        private final Awaiting awaiting;
+        private final long ageNanos;
+
+        Flow(@NonNull final String clientId,
+             final int packetId,
+             @NonNull final Direction direction,
+             @NonNull final Awaiting awaiting,
+             final long ageNanos) {
+            this.clientId = clientId;
+            this.packetId = packetId;
+            this.direction = direction;
+            this.awaiting = awaiting;
+            this.ageNanos = ageNanos;
+        }
+
+        @NonNull
+        public String getClientId() {
+            return clientId;
+        }
+
+        public int getPacketId() {
+            return packetId;
+        }
+
+        @NonNull
+        public Direction getDirection() {
+            return direction;
+        }
+
+        @NonNull
+        public Awaiting getAwaiting() {
+            return awaiting;
+        }
+
+        /**
+         * @param unit
+         * @return time since the PUBLISH
+         */
+        public long getAge(@NonNull final TimeUnit unit) {
+            return unit.convert(ageNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Flow{" + direction + " " + clientId + "#" + packetId + " awaiting " + awaiting
+                    + " for " + TimeUnit.NANOSECONDS.toMillis(ageNanos) + " ms}";
+        }
+    }
+
+    private static final int SEGMENTS = 64;
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final Awaiting[] AWAITING = Awaiting.values();
+
+    private final Segment[] segments;
+    private final long timeoutNanos;
+    private final LatencyReservoir inbound = new LatencyReservoir();
+    private final LatencyReservoir outbound = new LatencyReservoir();
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private InFlightTracker(final int expectedFlows, final long timeoutNanos) {
+        if (expectedFlows <= 0) {
+            throw new IllegalArgumentException("expectedFlows > 0 required but it was " + expectedFlows);
+        }
+        if (timeoutNanos <= 0) {
+            throw new IllegalArgumentException("timeout > 0 required but it was " + timeoutNanos);
+        }
+        final int perSegment = Integer.highestOneBit(Math.max(8, expectedFlows / SEGMENTS * 4 / 3) - 1) << 1;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param expectedFlows flows in flight the tables are sized for up front, they grow beyond
+     * @param timeout
+     * @param unit
+     * @return a tracker fed by {@link #published} and {@link #acknowledged}
+     */
+    @NonNull
+    public static InFlightTracker create(final int expectedFlows, final long timeout, @NonNull final TimeUnit unit) {
+        return new InFlightTracker(expectedFlows, unit.toNanos(timeout));
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority of the receive callback, track before slow callbacks with a high priority
+     * @param expectedFlows flows in flight the tables are sized for up front, they grow beyond
+     * @param timeout
+     * @param unit
+     * @return a tracker of the flows started from now on, dispose it to stop tracking
+     */
+    @NonNull
+    public static InFlightTracker create(@NonNull final CallbackRegistry callbackRegistry,
+                                         final int priority,
+                                         final int expectedFlows,
+                                         final long timeout,
+                                         @NonNull final TimeUnit unit) {
+        final InFlightTracker tracker = new InFlightTracker(expectedFlows, unit.toNanos(timeout));
+        final CompositeDisposable disposables = tracker.disposables;
+        disposables.add(RxHiveMQ.publishReceiveds(callbackRegistry, priority)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
+                        tracker.published(Direction.INBOUND, pair.right.getClientId(), pair.left);
+                    }
+                }));
+        disposables.add(RxHiveMQ.publishSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
+                        tracker.published(Direction.OUTBOUND, pair.right.getClientId(), pair.left);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubackSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBACK, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBACK, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.INBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBACK);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubackReceiveds(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBACK, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBACK, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.OUTBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBACK);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubrecSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBREC, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBREC, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.INBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBREC);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubrecReceiveds(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBREC, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBREC, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.OUTBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBREC);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubrelReceiveds(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBREL, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBREL, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.INBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBREL);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubrelSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBREL, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBREL, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.OUTBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBREL);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubcompSends(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBCOMP, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBCOMP, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.INBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBCOMP);
+                    }
+                }));
+        disposables.add(RxHiveMQ.pubcompReceiveds(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBCOMP, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBCOMP, ClientData> pair) throws Exception {
+                        tracker.acknowledged(Direction.OUTBOUND, pair.right.getClientId(),
+                                pair.left.getMessageId(), Awaiting.PUBCOMP);
+                    }
+                }));
+        return tracker;
+    }
+
+    /**
+     * Starts a flow for a QoS 1 or 2 PUBLISH, QoS 0 ones are ignored.
+     *
+     * @param direction
+     * @param clientId the publishing client for {@link Direction#INBOUND}, the receiving one otherwise
+     * @param publish
+     */
+    public void published(@NonNull final Direction direction,
+                          @NonNull final String clientId,
+                          @NonNull final PUBLISH publish) {
+        published(direction, clientId, publish, System.nanoTime());
+    }
+
+    /**
+     * Advances the flow of the packet id, a flow awaiting another packet is left as is.
+     *
+     * @param direction
+     * @param clientId
+     * @param packetId
+     * @param packet the acknowledgement
+     */
+    public void acknowledged(@NonNull final Direction direction,
+                             @NonNull final String clientId,
+                             final int packetId,
+                             @NonNull final Awaiting packet) {
+        acknowledged(direction, clientId, packetId, packet, System.nanoTime());
+    }
+
+    void published(final Direction direction, final String clientId, final PUBLISH publish, final long now) {
+        final QoS qos = publish.getQoS();
+        if (qos == QoS.AT_MOST_ONCE) {
+            return;
+        }
+        final Awaiting awaiting = qos == QoS.AT_LEAST_ONCE ? Awaiting.PUBACK : Awaiting.PUBREC;
+        final long key = key(direction, clientId, publish.getMessageId());
+        segment(key).put(key, clientId, id(direction, publish.getMessageId()), awaiting.ordinal(), now);
+    }
+
+    void acknowledged(final Direction direction,
+                      final String clientId,
+                      final int packetId,
+                      final Awaiting packet,
+                      final long now) {
+        final long key = key(direction, clientId, packetId);
+        final Awaiting next = packet == Awaiting.PUBREC ? Awaiting.PUBREL
+                : packet == Awaiting.PUBREL ? Awaiting.PUBCOMP
+                : null;
+        final long started = segment(key).advance(key, clientId, packet.ordinal(),
+                next != null ? next.ordinal() : -1, now);
+        if (started == Segment.ABSENT) {
+            unmatched.incrementAndGet();
+        } else if (next == null) {
+            completed.incrementAndGet();
+            (direction == Direction.INBOUND ? inbound : outbound).update(now - started);
+        }
+    }
+
+    /**
+     * Drops the flows without progress for longer than the timeout.
+     *
+     * @param now
+     * @return the dropped flows
+     */
+    @NonNull
+    List<Flow> expire(final long now) {
+        List<Flow> expired = Collections.emptyList();
+        for (final Segment segment : segments) {
+            expired = segment.expire(now, timeoutNanos, expired);
+        }
+        timedOut.addAndGet(expired.size());
+        return expired;
+    }
+
+    /**
+     * Checks the flows every period and emits the ones that timed out, a flow is emitted once to one subscriber.
+     *
+     * @param period
+     * @param unit
+     * @param scheduler
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public Observable<Flow> timeouts(final long period,
+                                     @NonNull final TimeUnit unit,
+                                     @NonNull final Scheduler scheduler) {
+        return Observable.interval(period, period, unit, scheduler)
+                .concatMapIterable(new Function<Long, Iterable<Flow>>() {
+                    @Override
+                    public Iterable<Flow> apply(@NonNull final Long tick) throws Exception {
+                        return expire(System.nanoTime());
+                    }
+                });
+    }
+
+    /**
+     * @param direction
+     * @return nanoseconds from the PUBLISH to its last acknowledgement so far
+     */
+    @NonNull
+    public Snapshot getRoundTripSnapshot(@NonNull final Direction direction) {
+        return (direction == Direction.INBOUND ? inbound : outbound).getSnapshot();
+    }
+
+    /**
+     * @return flows in flight
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return acknowledgements without a flow awaiting them so far, as retried or started before tracking
+     */
+    public long getUnmatchedCount() {
+        return unmatched.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    @Override
+    public void dispose() {
+        disposables.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposables.isDisposed();
+    }
+
+    private Segment segment(final long key) {
+        return segments[(int) (key >>> 58)];
+    }
+
+    private static int id(final Direction direction, final int packetId) {
+        return direction.ordinal() << 16 | packetId & 0xFFFF;
+    }
+
+    /**
+     * @return a mixed, non-zero key of the flow, the client id itself is compared on a match
+     */
+    static long key(final Direction direction, final String clientId, final int packetId) {
+        long key = ((long) clientId.hashCode() << 32) | id(direction, packetId);
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key != 0L ? key : 1L;
+    }
+
+    /**
+     * A linear probing table of flows in parallel arrays, removed slots are backfilled instead of tombstoned.
+     */
+    static final class Segment {
+        static final long ABSENT = Long.MIN_VALUE;
+
+        private long[] keys;
+        private String[] clientIds;
+        private int[] ids;
+        private long[] started;
+        private long[] progressed;
+        private byte[] awaiting;
+        private int mask;
+        private int size;
+
+        Segment(final int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            keys = new long[capacity];
+            clientIds = new String[capacity];
+            ids = new int[capacity];
+            started = new long[capacity];
+            progressed = new long[capacity];
+            awaiting = new byte[capacity];
+            mask = capacity - 1;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void put(final long key, final String clientId, final int id, final int await, final long now) {
+            int slot = find(key, clientId);
+            if (slot < 0) {
+                if (size + 1 > (mask + 1) * 3 / 4) {
+                    grow();
+                }
+                slot = (int) key & mask;
+                while (keys[slot] != 0L) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                clientIds[slot] = clientId;
+                ids[slot] = id;
+                size++;
+            }
+            started[slot] = now;
+            progressed[slot] = now;
+            awaiting[slot] = (byte) await;
+        }
+
+        /**
+         * @param next the packet awaited next, negative to complete the flow
+         * @return when the flow started, {@link #ABSENT} if no flow awaits the packet
+         */
+        synchronized long advance(final long key, final String clientId, final int await, final int next,
+                                  final long now) {
+            final int slot = find(key, clientId);
+            if (slot < 0 || awaiting[slot] != await) {
+                return ABSENT;
+            }
+            final long start = started[slot];
+            if (next < 0) {
+                removeAt(slot);
+            } else {
+                awaiting[slot] = (byte) next;
+                progressed[slot] = now;
+            }
+            return start;
+        }
+
+        synchronized List<Flow> expire(final long now, final long timeoutNanos, List<Flow> expired) {
+            int slot = 0;
+            while (slot <= mask) {
+                if (keys[slot] != 0L && now - progressed[slot] > timeoutNanos) {
+                    if (expired.isEmpty()) {
+                        expired = new ArrayList<Flow>();
+                    }
+                    expired.add(new Flow(clientIds[slot], ids[slot] & 0xFFFF, DIRECTIONS[ids[slot] >>> 16],
+                            AWAITING[awaiting[slot]], now - started[slot]));
+                    removeAt(slot);
+                } else {
+                    slot++;
+                }
+            }
+            return expired;
+        }
+
+        private int find(final long key, final String clientId) {
+            int slot = (int) key & mask;
+            while (keys[slot] != 0L) {
+                if (keys[slot] == key && clientIds[slot].equals(clientId)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void removeAt(int slot) {
+            int next = slot;
+            for (;;) {
+                next = (next + 1) & mask;
+                if (keys[next] == 0L) {
+                    break;
+                }
+                final int home = (int) keys[next] & mask;
+                final boolean between = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+                if (!between) {
+                    keys[slot] = keys[next];
+                    clientIds[slot] = clientIds[next];
+                    ids[slot] = ids[next];
+                    started[slot] = started[next];
+                    progressed[slot] = progressed[next];
+                    awaiting[slot] = awaiting[next];
+                    slot = next;
+                }
+            }
+            keys[slot] = 0L;
+            clientIds[slot] = null;
+            size--;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final String[] oldClientIds = clientIds;
+            final int[] oldIds = ids;
+            final long[] oldStarted = started;
+            final long[] oldProgressed = progressed;
+            final byte[] oldAwaiting = awaiting;
+            allocate(oldKeys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0L) {
+                    int slot = (int) oldKeys[i] & mask;
+                    while (keys[slot] != 0L) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    clientIds[slot] = oldClientIds[i];
+                    ids[slot] = oldIds[i];
+                    started[slot] = oldStarted[i];
+                    progressed[slot] = oldProgressed[i];
+                    awaiting[slot] = oldAwaiting[i];
+                }
+            }
+        }
+    }
+}
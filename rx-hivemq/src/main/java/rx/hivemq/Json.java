@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Minimal strict JSON (RFC 7159) parser of {@link PayloadCodecs#json()}, reading straight from the pooled chars.
+ *
+ * Objects and arrays nest at most {@link #MAX_DEPTH} deep, a deeper payload is rejected instead of overflowing
+ * the stack.
+ */
+final class Json {
+    static final int MAX_DEPTH = 512;
+
+    private final CharSequence s;
+    private int pos;
+    private int depth;
+
+    private Json(final CharSequence s) {
+        this.s = s;
+    }
+
+    static Object parse(@NonNull final CharSequence s) {
+        final Json json = new Json(s);
+        json.skipWhitespace();
+        final Object value = json.value();
+        json.skipWhitespace();
+        if (json.pos != s.length()) {
+            throw json.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private Object value() {
+        if (pos >= s.length()) {
+            throw error("Unexpected end");
+        }
+        final char c = s.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        enter();
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            depth--;
+            return map;
+        }
+        for (;;) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            final String name = string();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            map.put(name, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            depth--;
+            return map;
+        }
+    }
+
+    private List<Object> array() {
+        enter();
+        final List<Object> list = new ArrayList<Object>();
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            depth--;
+            return list;
+        }
+        for (;;) {
+            skipWhitespace();
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            depth--;
+            return list;
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("Nesting deeper than " + MAX_DEPTH);
+        }
+        pos++;
+    }
+
+    private String string() {
+        pos++;
+        StringBuilder builder = null;
+        int start = pos;
+        for (;;) {
+            if (pos >= s.length()) {
+                throw error("Unterminated string");
+            }
+            final char c = s.charAt(pos);
+            if (c == '"') {
+                final String tail = s.subSequence(start, pos).toString();
+                pos++;
+                return builder == null ? tail : builder.append(tail).toString();
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character");
+            }
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(s, start, pos);
+            pos++;
+            if (pos >= s.length()) {
+                throw error("Unterminated escape");
+            }
+            final char e = s.charAt(pos++);
+            switch (e) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(e);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > s.length()) {
+                        throw error("Truncated unicode escape");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(s.charAt(pos++), 16);
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    builder.append((char) code);
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + e + "'");
+            }
+            start = pos;
+        }
+    }
+
+    private Object number() {
+        final int start = pos;
+        boolean integral = true;
+        if (peek() == '-') {
+            pos++;
+        }
+        if (peek() == '0') {
+            pos++;
+        } else if (!digits()) {
+            throw error("Expected a digit");
+        }
+        if (peek() == '.') {
+            integral = false;
+            pos++;
+            if (!digits()) {
+                throw error("Expected a digit");
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            integral = false;
+            pos++;
+            if (peek() == '+' || peek() == '-') {
+                pos++;
+            }
+            if (!digits()) {
+                throw error("Expected a digit");
+            }
+        }
+        final String number = s.subSequence(start, pos).toString();
+        if (integral) {
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                // Beyond long, fall back to double
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+    private boolean digits() {
+        final int start = pos;
+        while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos > start;
+    }
+
+    private void literal(final String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (pos >= s.length() || s.charAt(pos) != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+            pos++;
+        }
+    }
+
+    private void expect(final char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private char peek() {
+        return pos < s.length() ? s.charAt(pos) : '\0';
+    }
+
+    private void skipWhitespace() {
+        while (pos < s.length()) {
+            final char c = s.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at " + pos);
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Consumer;
+
+/**
+ * The latest payload per topic, off-heap, to read the current state of telemetry topics without
+ * a round-trip to the retained message store.
+ *
+ * Payloads are stored in fixed-size slots of direct {@link ByteBuffer} slabs, allocated as the cache fills up,
+ * the on-heap index maps a topic to its slot. Once {@code maxTopics} topics are cached, the least recently
+ * updated topic is evicted for a new one. A payload larger than a slot is not cached and drops the
+ * previous value of its topic, see {@link #getOversizedCount()}.
+ *
+ * Updates are serialized, lookups run concurrently. A lookup by a topic filter with wildcards scans the cached topics
+ * with the matching of {@link TopicFilterIndex}.
+ */
+public final class LastValueCache implements Disposable {
+    private static final int SLAB_BYTES = 1024 * 1024;
+
+    private final int maxTopics;
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final ByteBuffer[] slabs;
+    private final int[] freeSlots;
+    private int freeCount;
+    private int nextSlot;
+
+    /**
+     * Insertion ordered, an updated topic is moved to the end.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+    private final ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private LastValueCache(final int maxTopics, final int slotSize) {
+        if (maxTopics <= 0) {
+            throw new IllegalArgumentException("maxTopics > 0 required but it was " + maxTopics);
+        }
+        if (slotSize <= 0) {
+            throw new IllegalArgumentException("slotSize > 0 required but it was " + slotSize);
+        }
+        this.maxTopics = maxTopics;
+        this.slotSize = slotSize;
+        this.slotsPerSlab = Math.max(1, Math.min(maxTopics, SLAB_BYTES / slotSize));
+        this.slabs = new ByteBuffer[(maxTopics + slotsPerSlab - 1) / slotsPerSlab];
+        this.freeSlots = new int[maxTopics];
+    }
+
+    /**
+     * @param maxTopics
+     * @param slotSize maximum payload size cached, in bytes
+     * @return a cache fed by {@link #update(String, byte[])}
+     */
+    @NonNull
+    public static LastValueCache create(final int maxTopics, final int slotSize) {
+        return new LastValueCache(maxTopics, slotSize);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param topicFilter of the topics to cache, e.g. {@code devices/+/sensor}
+     * @param maxTopics
+     * @param slotSize maximum payload size cached, in bytes
+     * @return a cache of the PUBLISHes received from now on, dispose it to stop caching
+     */
+    @NonNull
+    public static LastValueCache create(@NonNull final CallbackRegistry callbackRegistry,
+                                        final int priority,
+                                        @NonNull final String topicFilter,
+                                        final int maxTopics,
+                                        final int slotSize) {
+        final LastValueCache cache = new LastValueCache(maxTopics, slotSize);
+        cache.disposables.add(RxHiveMQ.publishReceiveds(callbackRegistry, priority, topicFilter)
+                .subscribe(new Consumer<RxHiveMQ.Pair<PUBLISH, ClientData>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) throws Exception {
+                        cache.update(pair.left.getTopic(), pair.left.getPayload());
+                    }
+                }));
+        return cache;
+    }
+
+    /**
+     * @param topic
+     * @param payload copied into the topic's slot
+     * @return false if the payload is larger than a slot and was not cached
+     */
+    public boolean update(@NonNull final String topic, @NonNull final byte[] payload) {
+        writeLock.lock();
+        try {
+            Entry entry = entries.remove(topic);
+            if (payload.length > slotSize) {
+                if (entry != null) {
+                    release(entry);
+                }
+                oversized.incrementAndGet();
+                return false;
+            }
+            if (entry == null) {
+                if (entries.size() >= maxTopics) {
+                    final Iterator<Entry> it = entries.values().iterator();
+                    final Entry eldest = it.next();
+                    it.remove();
+                    release(eldest);
+                    evicted.incrementAndGet();
+                }
+                entry = new Entry(topic, allocate());
+            }
+            final ByteBuffer slot = slab(entry.slot).duplicate();
+            slot.position(offset(entry.slot));
+            slot.put(payload);
+            entry.length = payload.length;
+            entries.put(topic, entry);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param topic
+     * @return true if the topic was cached
+     */
+    public boolean remove(@NonNull final String topic) {
+        writeLock.lock();
+        try {
+            final Entry entry = entries.remove(topic);
+            if (entry == null) {
+                return false;
+            }
+            release(entry);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean contains(@NonNull final String topic) {
+        readLock.lock();
+        try {
+            return entries.containsKey(topic);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @param topic
+     * @return a copy of the latest payload, null if not cached
+     */
+    @Nullable
+    public byte[] get(@NonNull final String topic) {
+        readLock.lock();
+        try {
+            final Entry entry = entries.get(topic);
+            return entry != null ? copy(entry) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the latest payload into a buffer of the caller, e.g. a reused direct buffer, without allocating.
+     *
+     * @param topic
+     * @param dst
+     * @return bytes copied, -1 if not cached
+     * @throws BufferOverflowException if the payload doesn't fit the remaining bytes of the buffer
+     */
+    public int get(@NonNull final String topic, @NonNull final ByteBuffer dst) {
+        readLock.lock();
+        try {
+            final Entry entry = entries.get(topic);
+            if (entry == null) {
+                return -1;
+            }
+            if (dst.remaining() < entry.length) {
+                throw new BufferOverflowException();
+            }
+            dst.put(view(entry));
+            return entry.length;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @param topicFilter MQTT topic filter, with {@code +} and {@code #} wildcards
+     * @return copies of the latest payloads of the matching topics
+     */
+    @NonNull
+    public Map<String, byte[]> getAll(@NonNull final String topicFilter) {
+        TopicFilterIndex.validate(topicFilter);
+        readLock.lock();
+        try {
+            final List<Entry> matches = match(topicFilter);
+            final Map<String, byte[]> values = new HashMap<String, byte[]>(matches.size() * 2);
+            for (final Entry entry : matches) {
+                values.put(entry.topic, copy(entry));
+            }
+            return values;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the latest payloads of the matching topics in place, the read-only buffers are only valid during
+     * the call of the consumer. Updates wait until all the topics are read.
+     *
+     * @param topicFilter MQTT topic filter, with {@code +} and {@code #} wildcards
+     * @param consumer
+     * @throws Exception thrown by the consumer
+     */
+    public void forEach(@NonNull final String topicFilter,
+                        @NonNull final BiConsumer<String, ByteBuffer> consumer) throws Exception {
+        TopicFilterIndex.validate(topicFilter);
+        readLock.lock();
+        try {
+            final List<Entry> matches = match(topicFilter);
+            for (final Entry entry : matches) {
+                consumer.accept(entry.topic, view(entry));
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int size() {
+        readLock.lock();
+        try {
+            return entries.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the slabs allocated so far
+     */
+    public long getAllocatedBytes() {
+        readLock.lock();
+        try {
+            long bytes = 0L;
+            for (final ByteBuffer slab : slabs) {
+                if (slab != null) {
+                    bytes += slab.capacity();
+                }
+            }
+            return bytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return topics evicted to make room for new ones so far
+     */
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * @return payloads not cached as larger than a slot so far
+     */
+    public long getOversizedCount() {
+        return oversized.get();
+    }
+
+    @Override
+    public void dispose() {
+        disposables.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposables.isDisposed();
+    }
+
+    /**
+     * Under the read lock.
+     */
+    private List<Entry> match(final String topicFilter) {
+        final List<Entry> matches = new ArrayList<Entry>();
+        if (topicFilter.indexOf('+') < 0 && topicFilter.indexOf('#') < 0) {
+            final Entry entry = entries.get(topicFilter);
+            if (entry != null) {
+                matches.add(entry);
+            }
+            return matches;
+        }
+        final String[] levels = topicFilter.split("/", -1);
+        for (final Entry entry : entries.values()) {
+            if (TopicFilterIndex.matches(levels, entry.topic)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        final int slot = nextSlot++;
+        final int index = slot / slotsPerSlab;
+        if (slabs[index] == null) {
+            final int slots = Math.min(slotsPerSlab, maxTopics - index * slotsPerSlab);
+            slabs[index] = ByteBuffer.allocateDirect(slots * slotSize);
+        }
+        return slot;
+    }
+
+    private void release(final Entry entry) {
+        freeSlots[freeCount++] = entry.slot;
+    }
+
+    private ByteBuffer slab(final int slot) {
+        return slabs[slot / slotsPerSlab];
+    }
+
+    private int offset(final int slot) {
+        return (slot % slotsPerSlab) * slotSize;
+    }
+
+    private ByteBuffer view(final Entry entry) {
+        final ByteBuffer view = slab(entry.slot).asReadOnlyBuffer();
+        final int offset = offset(entry.slot);
+        view.limit(offset + entry.length).position(offset);
+        return view.slice();
+    }
+
+    private byte[] copy(final Entry entry) {
+        final byte[] bytes = new byte[entry.length];
+        view(entry).get(bytes);
+        return bytes;
+    }
+
+    static final class Entry {
+        final String topic;
+        final int slot;
+        int length;
+
+        Entry(final String topic, final int slot) {
+            this.topic = topic;
+            this.slot = slot;
+        }
+    }
+}
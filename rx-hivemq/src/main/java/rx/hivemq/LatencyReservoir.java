@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR-style log-linear histogram of nanosecond latencies as a Dropwizard {@link Reservoir}.
+ *
+ * Values are counted into fixed buckets, 2^{@value #SUB_BUCKET_BITS} linear sub-buckets per power of two, so an
+ * update is a couple of shifts and one atomic increment without allocation, the relative error stays below
+ * 1/2^{@value #SUB_BUCKET_BITS}. Nothing is evicted, the snapshot covers every value recorded since the last reset,
+ * which is never unless the reservoir is {@link #resetting()} or {@link #getSnapshotAndReset()} is called.
+ */
+final class LatencyReservoir implements Reservoir {
+    static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Up to 2^40 ns, about 18 minutes, larger values are counted in the last bucket.
+     */
+    private static final int MAX_BITS = 40;
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final boolean resetOnSnapshot;
+
+    LatencyReservoir() {
+        this(false);
+    }
+
+    private LatencyReservoir(final boolean resetOnSnapshot) {
+        this.resetOnSnapshot = resetOnSnapshot;
+    }
+
+    /**
+     * @return a reservoir reset by every {@link #getSnapshot()}, i.e. per reporting interval of its reporter
+     */
+    static LatencyReservoir resetting() {
+        return new LatencyReservoir(true);
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int bits = 64 - Long.numberOfLeadingZeros(value);
+        if (bits > MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        final int shift = bits - SUB_BUCKET_BITS - 1;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the lowest value counted into the bucket
+     */
+    static long lowest(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return the highest value counted into the bucket
+     */
+    static long highest(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        return lowest(bucket) + (1L << (bucket / SUB_BUCKETS - 1)) - 1;
+    }
+
+    @Override
+    public int size() {
+        long size = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            size += counts.get(i);
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(final long value) {
+        counts.incrementAndGet(bucket(value));
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        if (resetOnSnapshot) {
+            return getSnapshotAndReset();
+        }
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new BucketSnapshot(copy);
+    }
+
+    /**
+     * @return the values recorded since the last reset, a value recorded meanwhile counts for this window or the next
+     */
+    Snapshot getSnapshotAndReset() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.getAndSet(i, 0L);
+        }
+        return new BucketSnapshot(copy);
+    }
+
+    static final class BucketSnapshot extends Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        BucketSnapshot(final long[] counts) {
+            this.counts = counts;
+            long total = 0L;
+            for (final long count : counts) {
+                total += count;
+            }
+            this.total = total;
+        }
+
+        /**
+         * @return the midpoint of the bucket the quantile falls into
+         */
+        @Override
+        public double getValue(final double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (total == 0L) {
+                return 0.0;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return midpoint(i);
+                }
+            }
+            return midpoint(counts.length - 1);
+        }
+
+        /**
+         * Bounded by the number of buckets rather than the values counted, see {@link #getCounts()} for the weights.
+         *
+         * @return the midpoints of the buckets with counted values, ascending
+         */
+        @Override
+        public long[] getValues() {
+            final long[] values = new long[buckets()];
+            int n = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0L) {
+                    values[n++] = (long) midpoint(i);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * @return the values counted per entry of {@link #getValues()}
+         */
+        long[] getCounts() {
+            final long[] weights = new long[buckets()];
+            int n = 0;
+            for (final long count : counts) {
+                if (count != 0L) {
+                    weights[n++] = count;
+                }
+            }
+            return weights;
+        }
+
+        private int buckets() {
+            int buckets = 0;
+            for (final long count : counts) {
+                if (count != 0L) {
+                    buckets++;
+                }
+            }
+            return buckets;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0L) {
+                    return highest(i);
+                }
+            }
+            return 0L;
+        }
+
+        @Override
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0L) {
+                    return lowest(i);
+                }
+            }
+            return 0L;
+        }
+
+        @Override
+        public double getMean() {
+            if (total == 0L) {
+                return 0.0;
+            }
+            double sum = 0.0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += midpoint(i) * counts[i];
+            }
+            return sum / total;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (total <= 1L) {
+                return 0.0;
+            }
+            final double mean = getMean();
+            double sum = 0.0;
+            for (int i = 0; i < counts.length; i++) {
+                final double diff = midpoint(i) - mean;
+                sum += diff * diff * counts[i];
+            }
+            return Math.sqrt(sum / (total - 1));
+        }
+
+        @Override
+        public void dump(final OutputStream output) {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(output, Charset.forName("UTF-8")));
+            try {
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 0L) {
+                        out.printf("%d-%d: %d%n", lowest(i), highest(i), counts[i]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private static double midpoint(final int bucket) {
+            return (lowest(bucket) + highest(bucket)) / 2.0;
+        }
+    }
+}
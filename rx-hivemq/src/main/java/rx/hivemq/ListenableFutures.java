@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.Callable;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Lazy {@link ListenableFuture} bridges of the async HiveMQ services, the service is called on subscription.
+ *
+ * Unlike {@code FutureConverter} they complete {@code ListenableFuture<Void>} without a null value.
+ */
+final class ListenableFutures {
+    private ListenableFutures() {
+    }
+
+    @NonNull
+    static <T> Single<T> toSingle(@NonNull final Callable<? extends ListenableFuture<T>> call) {
+        return Single.create(new SingleOnSubscribe<T>() {
+            @Override
+            public void subscribe(@NonNull final SingleEmitter<T> emitter) throws Exception {
+                final ListenableFuture<T> future = call.call();
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        future.cancel(false);
+                    }
+                });
+                Futures.addCallback(future, new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(final T result) {
+                        if (result != null) {
+                            emitter.onSuccess(result);
+                        } else {
+                            emitter.onError(new NullPointerException("The future completed without a value"));
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable e) {
+                        emitter.onError(e);
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        });
+    }
+
+    @NonNull
+    static Completable toCompletable(@NonNull final Callable<? extends ListenableFuture<?>> call) {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(@NonNull final CompletableEmitter emitter) throws Exception {
+                final ListenableFuture<?> future = call.call();
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        future.cancel(false);
+                    }
+                });
+                Futures.addCallback(future, new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(final Object result) {
+                        emitter.onComplete();
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable e) {
+                        emitter.onError(e);
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        });
+    }
+}
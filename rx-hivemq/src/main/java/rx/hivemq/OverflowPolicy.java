@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Bounded buffer and overflow behaviour of the {@code Flowable} bridges in {@link RxHiveMQ}.
+ *
+ * Events are buffered between the broker callback and a slow subscriber up to {@link #getCapacity()},
+ * once the buffer is full the {@link Strategy} decides which event gives way. Every event that gives way
+ * is counted, see {@link #getDroppedCount()}.
+ *
+ * A policy instance keeps its counter across all the streams it is passed to.
+ */
+public final class OverflowPolicy {
+
+    public enum Strategy {
+        /**
+         * Evict the oldest buffered event to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new event and keep the buffered ones.
+         */
+        DROP_LATEST,
+        /**
+         * Keep only the latest event per key (topic, client id, cron expression),
+         * evicting the oldest key when the buffer is full.
+         */
+        LATEST_PER_KEY,
+        /**
+         * Block the broker thread until there is room, discarding the new event after the timeout.
+         */
+        BLOCK
+    }
+
+    private final Strategy strategy;
+    private final int capacity;
+    private final long timeoutNanos;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private OverflowPolicy(@NonNull final Strategy strategy, final int capacity, final long timeoutNanos) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity > 0 required but it was " + capacity);
+        }
+        if (timeoutNanos < 0) {
+            throw new IllegalArgumentException("timeout >= 0 required but it was " + timeoutNanos);
+        }
+        this.strategy = strategy;
+        this.capacity = capacity;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param capacity
+     * @return
+     */
+    @NonNull
+    public static OverflowPolicy dropOldest(final int capacity) {
+        return new OverflowPolicy(Strategy.DROP_OLDEST, capacity, 0L);
+    }
+
+    /**
+     * @param capacity
+     * @return
+     */
+    @NonNull
+    public static OverflowPolicy dropLatest(final int capacity) {
+        return new OverflowPolicy(Strategy.DROP_LATEST, capacity, 0L);
+    }
+
+    /**
+     * @param capacity maximum number of distinct keys buffered
+     * @return
+     */
+    @NonNull
+    public static OverflowPolicy latestPerKey(final int capacity) {
+        return new OverflowPolicy(Strategy.LATEST_PER_KEY, capacity, 0L);
+    }
+
+    /**
+     * Keep the broker thread briefly, prefer a short timeout as the broker can't serve other clients meanwhile.
+     *
+     * @param capacity
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    @NonNull
+    public static OverflowPolicy block(final int capacity, final long timeout, @NonNull final TimeUnit unit) {
+        return new OverflowPolicy(Strategy.BLOCK, capacity, unit.toNanos(timeout));
+    }
+
+    @NonNull
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getTimeout(@NonNull final TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of events discarded or superseded by this policy so far
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "OverflowPolicy{" + strategy + ", capacity=" + capacity + ", dropped=" + dropped.get() + "}";
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.nio.ByteBuffer;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Decodes the payload of a publish, see {@link PayloadCodecs} for the built-in ones.
+ *
+ * @param <T> the decoded payload
+ */
+public interface PayloadCodec<T> {
+    /**
+     * @param payload read-only view of the payload, only valid during the call
+     * @return
+     * @throws Exception if the payload is malformed
+     */
+    T decode(@NonNull ByteBuffer payload) throws Exception;
+}
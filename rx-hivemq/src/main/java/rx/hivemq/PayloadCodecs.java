@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Built-in {@link PayloadCodec}s.
+ *
+ * The text codecs decode with a {@link CharsetDecoder} and a {@link CharBuffer} pooled per thread, malformed
+ * UTF-8 is replaced like {@code new String(bytes, UTF_8)} does.
+ */
+public final class PayloadCodecs {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Larger char buffers are allocated per decode instead of being kept by the thread.
+     */
+    private static final int MAX_POOLED_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<CharsetDecoder> UTF_8_DECODER = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+    private static final ThreadLocal<CharBuffer> CHARS = new ThreadLocal<CharBuffer>() {
+        @Override
+        protected CharBuffer initialValue() {
+            return CharBuffer.allocate(256);
+        }
+    };
+
+    private static final PayloadCodec<String> UTF_8_CODEC = new PayloadCodec<String>() {
+        @Override
+        public String decode(@NonNull final ByteBuffer payload) throws Exception {
+            return decodeUtf8(payload).toString();
+        }
+    };
+
+    private static final PayloadCodec<Object> JSON_CODEC = new PayloadCodec<Object>() {
+        @Override
+        public Object decode(@NonNull final ByteBuffer payload) throws Exception {
+            return Json.parse(decodeUtf8(payload));
+        }
+    };
+
+    private static final PayloadCodec<List<ByteBuffer>> LENGTH_PREFIXED_CODEC = new PayloadCodec<List<ByteBuffer>>() {
+        @Override
+        public List<ByteBuffer> decode(@NonNull final ByteBuffer payload) throws Exception {
+            if (!payload.hasRemaining()) {
+                return Collections.emptyList();
+            }
+            final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+            while (payload.hasRemaining()) {
+                if (payload.remaining() < 4) {
+                    throw new IllegalArgumentException("Truncated frame length at " + payload.position());
+                }
+                final int length = payload.getInt();
+                if (length < 0 || length > payload.remaining()) {
+                    throw new IllegalArgumentException("Frame of " + length + " bytes exceeds the payload at "
+                            + payload.position());
+                }
+                final ByteBuffer frame = payload.slice();
+                frame.limit(length);
+                frames.add(frame);
+                payload.position(payload.position() + length);
+            }
+            return frames;
+        }
+    };
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * @return
+     */
+    @NonNull
+    public static PayloadCodec<String> utf8() {
+        return UTF_8_CODEC;
+    }
+
+    /**
+     * Parses UTF-8 JSON into {@code Map<String, Object>} (keeping the order of the members), {@code List<Object>},
+     * {@code String}, {@code Long}, {@code Double}, {@code Boolean} and null. Malformed JSON, or objects and arrays
+     * nested deeper than 512, fail with an {@link IllegalArgumentException}.
+     *
+     * @return
+     */
+    @NonNull
+    public static PayloadCodec<Object> json() {
+        return JSON_CODEC;
+    }
+
+    /**
+     * Splits the payload into frames of a 4 byte big-endian length followed by that many bytes.
+     *
+     * @return read-only views of the frames, sharing the payload
+     */
+    @NonNull
+    public static PayloadCodec<List<ByteBuffer>> lengthPrefixed() {
+        return LENGTH_PREFIXED_CODEC;
+    }
+
+    /**
+     * @return the chars, pooled by the thread until its next decode
+     */
+    static CharBuffer decodeUtf8(@NonNull final ByteBuffer bytes) throws CharacterCodingException {
+        final CharsetDecoder decoder = UTF_8_DECODER.get().reset();
+        final int max = (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte());
+        CharBuffer chars = CHARS.get();
+        if (chars.capacity() < max) {
+            chars = CharBuffer.allocate(max);
+            if (max <= MAX_POOLED_CHARS) {
+                CHARS.set(chars);
+            }
+        }
+        chars.clear();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(chars);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        chars.flip();
+        return chars;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+
+/**
+ * Decision of a {@link RxHiveMQ#publishInterceptor} on a received publish.
+ */
+public final class PublishDecision {
+
+    public enum Type {
+        /**
+         * Deliver the publish.
+         */
+        ACCEPT,
+        /**
+         * Don't deliver the publish.
+         */
+        REJECT,
+        /**
+         * Publish it to another topic instead, sharing the payload unless replaced.
+         */
+        REDIRECT
+    }
+
+    private static final PublishDecision ACCEPT = new PublishDecision(Type.ACCEPT, null, null, false);
+    private static final PublishDecision REJECT = new PublishDecision(Type.REJECT, null, null, false);
+    private static final PublishDecision REJECT_AND_DISCONNECT = new PublishDecision(Type.REJECT, null, null, true);
+
+    private final Type type;
+    private final String topic;
+    private final byte[] payload;
+    private final boolean disconnectClient;
+
+    private PublishDecision(@NonNull final Type type,
+                            @Nullable final String topic,
+                            @Nullable final byte[] payload,
+                            final boolean disconnectClient) {
+        this.type = type;
+        this.topic = topic;
+        this.payload = payload;
+        this.disconnectClient = disconnectClient;
+    }
+
+    @NonNull
+    public static PublishDecision accept() {
+        return ACCEPT;
+    }
+
+    @NonNull
+    public static PublishDecision reject() {
+        return REJECT;
+    }
+
+    /**
+     * @param disconnectClient
+     * @return
+     */
+    @NonNull
+    public static PublishDecision reject(final boolean disconnectClient) {
+        return disconnectClient ? REJECT_AND_DISCONNECT : REJECT;
+    }
+
+    /**
+     * @param topic
+     * @return
+     */
+    @NonNull
+    public static PublishDecision redirect(@NonNull final String topic) {
+        return new PublishDecision(Type.REDIRECT, topic, null, false);
+    }
+
+    /**
+     * @param topic
+     * @param payload replacing the payload of the publish, not copied
+     * @return
+     */
+    @NonNull
+    public static PublishDecision redirect(@NonNull final String topic, @NonNull final byte[] payload) {
+        return new PublishDecision(Type.REDIRECT, topic, payload, false);
+    }
+
+    @NonNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the topic to redirect to
+     */
+    @Nullable
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the payload replacing the original one, null to share the original one
+     */
+    @Nullable
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public boolean isDisconnectClient() {
+        return disconnectClient;
+    }
+
+    @Override
+    public String toString() {
+        return "PublishDecision{" + type + (topic != null ? ", topic=" + topic : "")
+                + (disconnectClient ? ", disconnectClient" : "") + "}";
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+
+import java.nio.ByteBuffer;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * A PUBLISH received by the broker together with the client that sent it.
+ *
+ * Events of {@link RxHiveMQ#publishEvents(com.hivemq.spi.callback.registry.CallbackRegistry, int, boolean)}
+ * with {@code reuseEvents} are recycled once {@code onNext} returns, don't keep a reference to them beyond that.
+ */
+public final class PublishEvent {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private PUBLISH publish;
+    private ClientData clientData;
+    private ByteBuffer payload;
+    private byte[] wrapped;
+
+    PublishEvent() {
+    }
+
+    PublishEvent(@NonNull final PUBLISH publish, @NonNull final ClientData clientData) {
+        this.publish = publish;
+        this.clientData = clientData;
+    }
+
+    PublishEvent set(final PUBLISH publish, final ClientData clientData) {
+        this.publish = publish;
+        this.clientData = clientData;
+        return this;
+    }
+
+    @NonNull
+    public PUBLISH getPublish() {
+        return publish;
+    }
+
+    @NonNull
+    public ClientData getClientData() {
+        return clientData;
+    }
+
+    @NonNull
+    public String getClientId() {
+        return clientData.getClientId();
+    }
+
+    @NonNull
+    public String getTopic() {
+        return publish.getTopic();
+    }
+
+    @NonNull
+    public QoS getQoS() {
+        return publish.getQoS();
+    }
+
+    public boolean isRetain() {
+        return publish.isRetain();
+    }
+
+    public int getPayloadLength() {
+        final byte[] bytes = publish.getPayload();
+        return bytes != null ? bytes.length : 0;
+    }
+
+    /**
+     * The view is kept for as long as the event holds the same payload array and rewound on every further access.
+     * A {@link ByteBuffer} can't be pointed at another array, so a recycled event still allocates one view
+     * per PUBLISH it reads the payload of, read {@code getPublish().getPayload()} to avoid it.
+     *
+     * @return a read-only view of the payload, sharing the bytes of the PUBLISH without a copy
+     */
+    @NonNull
+    public ByteBuffer getPayload() {
+        final byte[] bytes = publish.getPayload();
+        if (bytes == null || bytes.length == 0) {
+            return EMPTY;
+        }
+        ByteBuffer buffer = payload;
+        if (bytes == wrapped) {
+            buffer.clear();
+        } else {
+            buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            payload = buffer;
+            wrapped = bytes;
+        }
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return "PublishEvent{clientId=" + clientData.getClientId()
+                + ", topic=" + publish.getTopic()
+                + ", qos=" + publish.getQoS()
+                + ", payloadLength=" + getPayloadLength() + "}";
+    }
+}
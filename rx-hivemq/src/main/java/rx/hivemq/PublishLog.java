@@ -0,0 +1,491 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+
+import org.reactivestreams.Publisher;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import io.reactivex.Completable;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Append-only log of PUBLISH records in memory-mapped segment files, for durable capture off the broker threads.
+ *
+ * A record is appended to the mapped segment, the segment is forced to disk once {@code syncBytes} were appended
+ * since the last sync or {@code syncInterval} elapsed, whichever comes first. A record that doesn't fit the rest of
+ * the segment rolls over to a new one. Segments are named by their sequence number, a reopened log appends to a
+ * new segment after the existing ones. Once more than {@code maxSegments} segments are in the directory, the oldest
+ * ones are deleted on roll over.
+ *
+ * Records are laid out as
+ * {@code [int length][int crc][long timestamp][byte qos][byte flags]}
+ * {@code [short topic][topic][short client id][client id][int payload][payload]},
+ * the CRC32 covers the bytes after it. The pages of a mapped segment reach the disk in no particular order, a record
+ * torn by a crash fails its length or CRC check and ends the replay of its segment. The timestamp is the time the
+ * record was appended, which is behind the receipt of the PUBLISH by as long as it waited to be written.
+ */
+public final class PublishLog implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final long DEFAULT_SYNC_BYTES = 1024 * 1024;
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000L;
+    static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".log";
+    private static final int LENGTH = 4;
+    private static final int HEADER = LENGTH + 4;
+    private static final int FIXED = 8 + 1 + 1 + 2 + 2 + 4;
+    private static final int RETAIN = 1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long syncBytes;
+    private final long syncIntervalNanos;
+    private final int maxSegments;
+
+    private long nextSegment;
+    private MappedByteBuffer segment;
+    private long unsyncedBytes;
+    private long lastSyncNanos = System.nanoTime();
+    private boolean closed;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer record = ByteBuffer.allocate(256);
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+
+    private PublishLog(@NonNull final File directory,
+                       final int segmentSize,
+                       final long syncBytes,
+                       final long syncIntervalNanos,
+                       final int maxSegments,
+                       final long nextSegment) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncBytes = syncBytes;
+        this.syncIntervalNanos = syncIntervalNanos;
+        this.maxSegments = maxSegments;
+        this.nextSegment = nextSegment;
+    }
+
+    /**
+     * @param directory
+     * @return a log of 64 MiB segments synced every MiB or second, keeping the latest 16 segments
+     * @throws IOException
+     */
+    @NonNull
+    public static PublishLog open(@NonNull final File directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_BYTES,
+                DEFAULT_SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param directory created if missing
+     * @param segmentSize bytes per segment file
+     * @param syncBytes
+     * @param syncInterval
+     * @param unit
+     * @return a log keeping the latest 16 segments
+     * @throws IOException
+     */
+    @NonNull
+    public static PublishLog open(@NonNull final File directory,
+                                  final int segmentSize,
+                                  final long syncBytes,
+                                  final long syncInterval,
+                                  @NonNull final TimeUnit unit) throws IOException {
+        return open(directory, segmentSize, syncBytes, syncInterval, unit, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param directory created if missing
+     * @param segmentSize bytes per segment file
+     * @param syncBytes
+     * @param syncInterval
+     * @param unit
+     * @param maxSegments segments kept in the directory, the oldest ones are deleted on roll over
+     * @return
+     * @throws IOException
+     */
+    @NonNull
+    public static PublishLog open(@NonNull final File directory,
+                                  final int segmentSize,
+                                  final long syncBytes,
+                                  final long syncInterval,
+                                  @NonNull final TimeUnit unit,
+                                  final int maxSegments) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize > 0 required but it was " + segmentSize);
+        }
+        if (syncBytes <= 0) {
+            throw new IllegalArgumentException("syncBytes > 0 required but it was " + syncBytes);
+        }
+        if (syncInterval <= 0) {
+            throw new IllegalArgumentException("syncInterval > 0 required but it was " + syncInterval);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments > 0 required but it was " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final File[] existing = segments(directory);
+        final long nextSegment = existing.length == 0 ? 0L : sequence(existing[existing.length - 1]) + 1;
+        return new PublishLog(directory, segmentSize, syncBytes, unit.toNanos(syncInterval), maxSegments,
+                nextSegment);
+    }
+
+    /**
+     * Appends the publishes in batches on the {@link Scheduler}, a batch is appended once it holds
+     * {@code maxBatchSize} publishes or the sync interval elapsed. Publishes are requested at most
+     * {@code maxBatchSize} ahead of the appended ones, so a source that honours backpressure, e.g.
+     * {@link RxHiveMQ#publishReceiveds(com.hivemq.spi.callback.registry.CallbackRegistry, int, OverflowPolicy)},
+     * applies its overflow policy once the log falls behind. Records are stamped when their batch is appended, up to
+     * a sync interval after the receipt.
+     *
+     * @param publishes
+     * @param scheduler to append on, appends are serialized
+     * @param maxBatchSize
+     * @return completes once all the publishes are appended and synced
+     */
+    @NonNull
+    @CheckReturnValue
+    public Completable writeBehind(@NonNull final Publisher<RxHiveMQ.Pair<PUBLISH, ClientData>> publishes,
+                                   @NonNull final Scheduler scheduler,
+                                   final int maxBatchSize) {
+        // the timed buffer requests everything, batch behind observeOn so its prefetch bounds the source
+        return Flowable.fromPublisher(publishes)
+                .observeOn(scheduler, false, maxBatchSize)
+                .buffer(syncIntervalNanos, TimeUnit.NANOSECONDS, scheduler, maxBatchSize)
+                .doOnNext(new Consumer<List<RxHiveMQ.Pair<PUBLISH, ClientData>>>() {
+                    @Override
+                    public void accept(@NonNull final List<RxHiveMQ.Pair<PUBLISH, ClientData>> batch)
+                            throws Exception {
+                        appendAll(batch);
+                    }
+                })
+                .ignoreElements()
+                .doOnComplete(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        sync();
+                    }
+                });
+    }
+
+    /**
+     * Appends a batch and syncs if the policy is due, an empty batch only syncs if the interval elapsed.
+     *
+     * @param batch
+     * @throws IOException
+     */
+    public synchronized void appendAll(@NonNull final List<RxHiveMQ.Pair<PUBLISH, ClientData>> batch)
+            throws IOException {
+        for (final RxHiveMQ.Pair<PUBLISH, ClientData> pair : batch) {
+            write(pair.left, pair.right.getClientId());
+        }
+        if (unsyncedBytes >= syncBytes
+                || (unsyncedBytes > 0 && System.nanoTime() - lastSyncNanos >= syncIntervalNanos)) {
+            sync();
+        }
+    }
+
+    /**
+     * Appends without syncing, see {@link #sync()}.
+     *
+     * @param publish
+     * @param clientId
+     * @throws IOException
+     */
+    public synchronized void append(@NonNull final PUBLISH publish, @NonNull final String clientId)
+            throws IOException {
+        write(publish, clientId);
+    }
+
+    private void write(final PUBLISH publish, final String clientId) throws IOException {
+        if (closed) {
+            throw new IOException("Log closed " + directory);
+        }
+        final byte[] topic = publish.getTopic().getBytes(UTF_8);
+        final byte[] client = clientId.getBytes(UTF_8);
+        final byte[] payload = publish.getPayload();
+        final int length = FIXED + topic.length + client.length + payload.length;
+        final int size = HEADER + length;
+        if (segment == null || segment.remaining() < size) {
+            roll(size);
+        }
+        if (record.capacity() < length) {
+            record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2));
+        }
+        record.clear();
+        record.putLong(System.currentTimeMillis());
+        record.put((byte) publish.getQoS().getQosNumber());
+        record.put((byte) (publish.isRetain() ? RETAIN : 0));
+        record.putShort((short) topic.length);
+        record.put(topic);
+        record.putShort((short) client.length);
+        record.put(client);
+        record.putInt(payload.length);
+        record.put(payload);
+        crc.reset();
+        crc.update(record.array(), 0, length);
+
+        final int start = segment.position();
+        segment.position(start + LENGTH);
+        segment.putInt((int) crc.getValue());
+        segment.put(record.array(), 0, length);
+        segment.putInt(start, length);
+
+        unsyncedBytes += size;
+        appended.incrementAndGet();
+        appendedBytes.addAndGet(size);
+    }
+
+    private void roll(final int size) throws IOException {
+        if (segment != null) {
+            segment.force();
+            syncs.incrementAndGet();
+            segment = null;
+        }
+        final File file = new File(directory, String.format("%020d%s", nextSegment++, SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, size));
+        }
+        unsyncedBytes = 0;
+        lastSyncNanos = System.nanoTime();
+        segments.incrementAndGet();
+
+        final File[] existing = segments(directory);
+        for (int i = 0; i < existing.length - maxSegments; i++) {
+            // A replay still reading the segment keeps its mapping
+            if (existing[i].delete()) {
+                deletedSegments.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forces the appended records to disk.
+     */
+    public synchronized void sync() {
+        if (segment != null && unsyncedBytes > 0) {
+            segment.force();
+            syncs.incrementAndGet();
+        }
+        unsyncedBytes = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * Syncs, the segment is unmapped once it's garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            sync();
+            segment = null;
+            closed = true;
+        }
+    }
+
+    /**
+     * @return the records of the log's segments, including the ones appended after subscribing up to the
+     * moment the replay reaches them
+     */
+    @NonNull
+    @CheckReturnValue
+    public Flowable<PublishRecord> replay() {
+        return replay(directory);
+    }
+
+    /**
+     * Replays the segments of a log in order, the segments are mapped one at a time as the subscriber requests.
+     *
+     * @param directory
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<PublishRecord> replay(@NonNull final File directory) {
+        return Flowable.generate(new Callable<Replay>() {
+            @Override
+            public Replay call() throws Exception {
+                return new Replay(segments(directory));
+            }
+        }, new BiFunction<Replay, Emitter<PublishRecord>, Replay>() {
+            @Override
+            public Replay apply(@NonNull final Replay replay, @NonNull final Emitter<PublishRecord> emitter)
+                    throws Exception {
+                final PublishRecord record = replay.next();
+                if (record != null) {
+                    emitter.onNext(record);
+                } else {
+                    emitter.onComplete();
+                }
+                return replay;
+            }
+        }, new Consumer<Replay>() {
+            @Override
+            public void accept(@NonNull final Replay replay) throws Exception {
+                replay.segment = null;
+            }
+        });
+    }
+
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    public long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    /**
+     * @return segments created by this instance
+     */
+    public long getSegmentCount() {
+        return segments.get();
+    }
+
+    /**
+     * @return segments deleted by this instance to keep {@code maxSegments}
+     */
+    public long getDeletedSegmentCount() {
+        return deletedSegments.get();
+    }
+
+    @NonNull
+    static File[] segments(@NonNull final File directory) {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.length() == 20 + SUFFIX.length() && name.endsWith(SUFFIX)
+                        && name.substring(0, 20).matches("\\d+");
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long sequence(final File segment) {
+        return Long.parseLong(segment.getName().substring(0, 20));
+    }
+
+    static final class Replay {
+        final File[] files;
+        final CRC32 crc = new CRC32();
+        int index;
+        MappedByteBuffer segment;
+        ByteBuffer record = ByteBuffer.allocate(256);
+
+        Replay(final File[] files) {
+            this.files = files;
+        }
+
+        /**
+         * @return null once all the segments are replayed
+         */
+        PublishRecord next() throws IOException {
+            for (;;) {
+                if (segment == null) {
+                    if (index == files.length) {
+                        return null;
+                    }
+                    try (RandomAccessFile raf = new RandomAccessFile(files[index++], "r")) {
+                        segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    } catch (FileNotFoundException e) {
+                        // Deleted by the retention of the log since the replay started
+                        continue;
+                    }
+                }
+                if (segment.remaining() < HEADER + FIXED) {
+                    segment = null;
+                    continue;
+                }
+                final int length = segment.getInt();
+                if (length < FIXED || length > segment.remaining() - (HEADER - LENGTH)) {
+                    segment = null;
+                    continue;
+                }
+                final int checksum = segment.getInt();
+                if (record.capacity() < length) {
+                    record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2));
+                }
+                record.clear();
+                segment.get(record.array(), 0, length);
+                crc.reset();
+                crc.update(record.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    segment = null;
+                    continue;
+                }
+                record.limit(length);
+                final long timestamp = record.getLong();
+                final QoS qos = QoS.valueOf(record.get());
+                final boolean retain = (record.get() & RETAIN) != 0;
+                final String topic = string(record.getShort() & 0xFFFF);
+                final String clientId = string(record.getShort() & 0xFFFF);
+                final byte[] payload = new byte[record.getInt()];
+                record.get(payload);
+                return new PublishRecord(timestamp, topic, clientId, qos, retain, payload);
+            }
+        }
+
+        private String string(final int length) {
+            final String s = new String(record.array(), record.position(), length, UTF_8);
+            record.position(record.position() + length);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Per-client token buckets of {@link RxHiveMQ#rateLimits}, a client may publish {@code burst} messages at once
+ * and then one message per {@code 1 / permitsPerSecond}.
+ *
+ * The bucket of a client is a single {@code long}, the time its bucket is full again (GCRA), taken by one
+ * compare-and-set without locking. Buckets which have been full for the idle timeout are dropped by
+ * {@link #evictIdle()}, a client coming back starts with a full bucket, so the table only holds the clients
+ * publishing recently.
+ */
+public final class PublishRateLimiter {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final long idleNanos;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private final StripedCounter rejected = new StripedCounter();
+
+    private PublishRateLimiter(final double permitsPerSecond, final int burst, final long idleNanos) {
+        if (!(permitsPerSecond > 0.0)) {
+            throw new IllegalArgumentException("permitsPerSecond > 0 required but it was " + permitsPerSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst > 0 required but it was " + burst);
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        this.idleNanos = idleNanos;
+    }
+
+    /**
+     * @param permitsPerSecond sustained messages per second and client
+     * @param burst messages a client may send at once
+     * @param idleTimeout time a full bucket is kept
+     * @param unit
+     * @return
+     */
+    @NonNull
+    public static PublishRateLimiter create(final double permitsPerSecond,
+                                            final int burst,
+                                            final long idleTimeout,
+                                            @NonNull final TimeUnit unit) {
+        return new PublishRateLimiter(permitsPerSecond, burst, unit.toNanos(idleTimeout));
+    }
+
+    /**
+     * @param clientId
+     * @return false if the client exceeded its rate
+     */
+    public boolean tryAcquire(@NonNull final String clientId) {
+        final long now = System.nanoTime();
+        Bucket bucket = buckets.get(clientId);
+        if (bucket == null) {
+            final Bucket created = new Bucket(now);
+            bucket = buckets.putIfAbsent(clientId, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        for (;;) {
+            final long full = bucket.get();
+            final long next = (full - now > 0L ? full : now) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets which have been full for the idle timeout.
+     *
+     * @return the number of buckets dropped
+     */
+    public int evictIdle() {
+        final long now = System.nanoTime();
+        int evicted = 0;
+        final Iterator<Map.Entry<String, Bucket>> it = buckets.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().get() >= idleNanos) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return clients with a bucket
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * @return messages rejected so far
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Time the bucket is full again.
+     */
+    private static final class Bucket extends AtomicLong {
+        private static final long serialVersionUID = 5305236823591766524L;
+
+        Bucket(final long full) {
+            super(full);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * A PUBLISH replayed from a {@link PublishLog}, with the client that published it and when it was appended.
+ */
+public final class PublishRecord {
+    private final long timestamp;
+    private final String topic;
+    private final String clientId;
+    private final QoS qos;
+    private final boolean retain;
+    private final byte[] payload;
+
+    PublishRecord(final long timestamp,
+                  @NonNull final String topic,
+                  @NonNull final String clientId,
+                  @NonNull final QoS qos,
+                  final boolean retain,
+                  @NonNull final byte[] payload) {
+        this.timestamp = timestamp;
+        this.topic = topic;
+        this.clientId = clientId;
+        this.qos = qos;
+        this.retain = retain;
+        this.payload = payload;
+    }
+
+    /**
+     * @return milliseconds since the epoch the PUBLISH was appended at
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @NonNull
+    public String getTopic() {
+        return topic;
+    }
+
+    @NonNull
+    public String getClientId() {
+        return clientId;
+    }
+
+    @NonNull
+    public QoS getQoS() {
+        return qos;
+    }
+
+    public boolean isRetain() {
+        return retain;
+    }
+
+    @NonNull
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return a new PUBLISH of the record, e.g. to publish it again
+     */
+    @NonNull
+    public PUBLISH toPublish() {
+        final PUBLISH publish = new PUBLISH(payload, topic, qos);
+        publish.setRetain(retain);
+        return publish;
+    }
+
+    @Override
+    public String toString() {
+        return "PublishRecord{" + clientId + " -> " + topic + ", " + qos + ", " + payload.length + " bytes}";
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Windowing of {@link RxPublishService#publishAll}, a window is flushed once it holds {@link #getMaxSize()}
+ * messages or its timespan elapsed, whichever comes first.
+ *
+ * With {@link #coalescing(int, long, TimeUnit)} only the latest message per topic of a window is published,
+ * for state-like topics where an update supersedes the previous one. Every superseded message is counted,
+ * see {@link #getCoalescedCount()}.
+ *
+ * A window instance keeps its counters across all the sinks it is passed to.
+ */
+public final class PublishWindow {
+    private final int maxSize;
+    private final long timespanNanos;
+    private final boolean coalescing;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private PublishWindow(final int maxSize, final long timespanNanos, final boolean coalescing) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize > 0 required but it was " + maxSize);
+        }
+        if (timespanNanos <= 0) {
+            throw new IllegalArgumentException("timespan > 0 required but it was " + timespanNanos);
+        }
+        this.maxSize = maxSize;
+        this.timespanNanos = timespanNanos;
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * @param maxSize
+     * @param timespan
+     * @param unit
+     * @return
+     */
+    @NonNull
+    public static PublishWindow of(final int maxSize, final long timespan, @NonNull final TimeUnit unit) {
+        return new PublishWindow(maxSize, unit.toNanos(timespan), false);
+    }
+
+    /**
+     * @param maxSize
+     * @param timespan
+     * @param unit
+     * @return a window publishing the latest message per topic only
+     */
+    @NonNull
+    public static PublishWindow coalescing(final int maxSize, final long timespan, @NonNull final TimeUnit unit) {
+        return new PublishWindow(maxSize, unit.toNanos(timespan), true);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimespan(@NonNull final TimeUnit unit) {
+        return unit.convert(timespanNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * @return messages handed to the {@code PublishService} so far
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return messages superseded by a later message of the same topic so far
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return non-empty windows flushed so far
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    long timespanNanos() {
+        return timespanNanos;
+    }
+
+    void onFlushed(final int published, final int coalesced) {
+        flushes.incrementAndGet();
+        this.published.addAndGet(published);
+        if (coalesced != 0) {
+            this.coalesced.addAndGet(coalesced);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PublishWindow{maxSize=" + maxSize + ", timespan=" + timespanNanos + "ns, coalescing=" + coalescing
+                + ", published=" + published.get() + ", coalesced=" + coalesced.get() + "}";
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+
+/**
+ * Shared {@link OnPublishReceivedException}s rejecting publishes at line rate, without the stack trace
+ * nobody reads.
+ */
+final class RejectedPublishException extends OnPublishReceivedException {
+    private static final long serialVersionUID = -4011327095437525315L;
+
+    static final RejectedPublishException RATE_LIMITED = new RejectedPublishException("Rate limited", false);
+    static final RejectedPublishException REJECTED = new RejectedPublishException("Rejected", false);
+    static final RejectedPublishException REJECTED_AND_DISCONNECTED = new RejectedPublishException("Rejected", true);
+    static final RejectedPublishException REDIRECTED = new RejectedPublishException("Redirected", false);
+
+    private RejectedPublishException(final String message, final boolean disconnectClient) {
+        super(message, disconnectClient);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
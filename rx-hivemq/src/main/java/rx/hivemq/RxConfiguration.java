@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.config.SystemInformation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Hot-reloadable configuration, a properties file watched for changes.
+ *
+ * The folder is watched by a {@link WatchService} on a thread of the {@link Scheduler}, bursts of edits are
+ * debounced and the file is parsed on the {@link Scheduler} as well, never on a broker thread.
+ * A file that can't be read or parsed, e.g. with a malformed unicode escape, is skipped and reported to
+ * {@link RxJavaPlugins#onError(Throwable)}, subscribers keep the previous snapshot.
+ * A missing file reads as {@link ConfigSnapshot#empty()}.
+ */
+public final class RxConfiguration {
+    static final long DEFAULT_DEBOUNCE_MILLIS = 500L;
+
+    private static final Boolean INITIAL = Boolean.TRUE;
+    private static final Boolean CHANGED = Boolean.FALSE;
+
+    private RxConfiguration() {
+    }
+
+    /**
+     * @param systemInformation
+     * @param fileName within {@link SystemInformation#getConfigFolder()}, e.g. {@code myPlugin.properties}
+     * @return
+     * @see #watch(File, String, long, TimeUnit, Scheduler)
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<ConfigSnapshot> watch(@NonNull final SystemInformation systemInformation,
+                                                   @NonNull final String fileName) {
+        return watch(systemInformation.getConfigFolder(), fileName);
+    }
+
+    /**
+     * @param folder
+     * @param fileName
+     * @return
+     * @see #watch(File, String, long, TimeUnit, Scheduler)
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<ConfigSnapshot> watch(@NonNull final File folder, @NonNull final String fileName) {
+        return watch(folder, fileName, DEFAULT_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS, Schedulers.io());
+    }
+
+    /**
+     * Emits the current snapshot on subscribe, then a snapshot whenever the file changed and stayed
+     * unchanged for the debounce timeout. Snapshots equal to the previous one are not emitted.
+     *
+     * Each subscriber watches on its own, share the stream with e.g. {@code replay(1).refCount()}.
+     *
+     * @param folder
+     * @param fileName
+     * @param debounce
+     * @param unit
+     * @param scheduler blocks one of its threads per subscriber, e.g. {@link Schedulers#io()}
+     * @return fails if the folder can't be watched or is deleted
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<ConfigSnapshot> watch(@NonNull final File folder,
+                                                   @NonNull final String fileName,
+                                                   final long debounce,
+                                                   @NonNull final TimeUnit unit,
+                                                   @NonNull final Scheduler scheduler) {
+        if (debounce < 0) {
+            throw new IllegalArgumentException("debounce >= 0 required but it was " + debounce);
+        }
+        final File file = new File(folder, fileName);
+        final Observable<Long> timer = Observable.timer(debounce, unit, scheduler);
+        return changes(folder.toPath(), fileName)
+                .subscribeOn(scheduler)
+                .debounce(new Function<Boolean, ObservableSource<Long>>() {
+                    @Override
+                    public ObservableSource<Long> apply(@NonNull final Boolean initial) throws Exception {
+                        return initial ? Observable.<Long>empty() : timer;
+                    }
+                })
+                .flatMapMaybe(new Function<Boolean, MaybeSource<ConfigSnapshot>>() {
+                    @Override
+                    public MaybeSource<ConfigSnapshot> apply(@NonNull final Boolean initial) throws Exception {
+                        try {
+                            return Maybe.just(read(file));
+                        } catch (IOException | RuntimeException e) {
+                            RxJavaPlugins.onError(e);
+                            return Maybe.empty();
+                        }
+                    }
+                })
+                .distinctUntilChanged();
+    }
+
+    /**
+     * @param file
+     * @return
+     * @throws IOException also if the file is malformed
+     */
+    @NonNull
+    static ConfigSnapshot read(@NonNull final File file) throws IOException {
+        if (!file.exists()) {
+            return ConfigSnapshot.empty();
+        }
+        final Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(file)) {
+            properties.load(is);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed " + file, e);
+        }
+        return ConfigSnapshot.of(properties);
+    }
+
+    /**
+     * @return {@link #INITIAL} once the folder is watched, then {@link #CHANGED} per batch of events on the file
+     */
+    private static Observable<Boolean> changes(@NonNull final Path folder, @NonNull final String fileName) {
+        return Observable.create(new ObservableOnSubscribe<Boolean>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Boolean> emitter) throws Exception {
+                final WatchService watchService = folder.getFileSystem().newWatchService();
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        watchService.close();
+                    }
+                });
+                folder.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                emitter.onNext(INITIAL);
+
+                while (!emitter.isDisposed()) {
+                    final WatchKey key;
+                    try {
+                        key = watchService.take();
+                    } catch (ClosedWatchServiceException | InterruptedException e) {
+                        return;
+                    }
+                    boolean changed = false;
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || fileName.equals(String.valueOf(event.context()))) {
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        emitter.onNext(CHANGED);
+                    }
+                    if (!key.reset() && !emitter.isDisposed()) {
+                        emitter.onError(new IOException("No longer watching " + folder));
+                        return;
+                    }
+                }
+            }
+        });
+    }
+}
@@ -16,27 +16,54 @@
 
 package rx.hivemq;
 
+import com.codahale.metrics.MetricRegistry;
 import com.hivemq.spi.callback.*;
 import com.hivemq.spi.callback.events.*;
 import com.hivemq.spi.callback.events.broker.OnBrokerStart;
 import com.hivemq.spi.callback.exception.*;
+import com.hivemq.spi.callback.lowlevel.*;
 import com.hivemq.spi.callback.registry.CallbackRegistry;
 import com.hivemq.spi.callback.schedule.ScheduledCallback;
+import com.hivemq.spi.callback.security.AfterLoginCallback;
+import com.hivemq.spi.callback.security.OnAuthenticationCallback;
 import com.hivemq.spi.message.CONNECT;
+import com.hivemq.spi.message.PUBACK;
+import com.hivemq.spi.message.PUBCOMP;
 import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.PUBREC;
+import com.hivemq.spi.message.PUBREL;
+import com.hivemq.spi.message.ReturnCode;
+import com.hivemq.spi.security.ClientCredentialsData;
 import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.services.PluginExecutorService;
+import com.hivemq.spi.services.PublishService;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Completable;
 import io.reactivex.CompletableEmitter;
 import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.SingleSource;
 import io.reactivex.annotations.CheckReturnValue;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.Exceptions;
 import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.BiFunction;
 import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * OnBrokerStart
@@ -90,6 +117,7 @@ public class RxHiveMQ {
         return Completable.create(new CompletableOnSubscribe() {
             @Override
             public void subscribe(@NonNull final CompletableEmitter emitter) throws Exception {
+                final CallbackHub.BrokerStartHub hub = CallbackHub.brokerStart(callbackRegistry, priority);
                 final OnBrokerStart callback = new OnBrokerStart() {
                     @Override
                     public void onBrokerStart() throws BrokerUnableToStartException {
@@ -107,11 +135,11 @@ public class RxHiveMQ {
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
-                        callbackRegistry.removeCallback(callback);
+                        hub.remove(callback);
                     }
                 });
 
-                callbackRegistry.addCallback(callback);
+                hub.add(callback);
             }
         });
     }
@@ -144,6 +172,7 @@ public class RxHiveMQ {
         return Observable.create(new ObservableOnSubscribe<Pair<PUBLISH, ClientData>>() {
             @Override
             public void subscribe(@NonNull final ObservableEmitter<Pair<PUBLISH, ClientData>> emitter) throws Exception {
+                final CallbackHub.PublishReceivedHub hub = CallbackHub.publishReceived(callbackRegistry, priority);
                 final OnPublishReceivedCallback callback = new OnPublishReceivedCallback() {
                     @Override
                     public void onPublishReceived(@NonNull final PUBLISH publish,
@@ -163,15 +192,367 @@ public class RxHiveMQ {
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
-                        callbackRegistry.removeCallback(callback);
+                        hub.remove(callback);
                     }
                 });
 
-                callbackRegistry.addCallback(callback);
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBLISHes whose topic matches the MQTT topic filter, wildcards {@code +} and {@code #} included.
+     *
+     * The filters of all subscribers at the same priority share one topic trie, an incoming topic is matched once
+     * and routed to the matching subscribers only.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param topicFilter
+     * @return
+     * @throws IllegalArgumentException if the topic filter is invalid
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBLISH, ClientData>>
+        publishReceiveds(@NonNull final CallbackRegistry callbackRegistry,
+                   final int priority,
+                   @NonNull final String topicFilter) {
+        TopicFilterIndex.validate(topicFilter);
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBLISH, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBLISH, ClientData>> emitter) throws Exception {
+                final TopicFilterIndex index = CallbackHub.publishReceived(callbackRegistry, priority).topicFilters();
+                final OnPublishReceivedCallback callback = new OnPublishReceivedCallback() {
+                    @Override
+                    public void onPublishReceived(@NonNull final PUBLISH publish,
+                                           @NonNull final ClientData clientData)
+                            throws OnPublishReceivedException {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBLISH, ClientData>(publish, clientData));
+                        }
+                    }
+
+                    @Override
+                    public int priority() {
+                        return priority;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        index.remove(topicFilter, callback);
+                    }
+                });
+
+                index.add(topicFilter, callback);
+            }
+        });
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<PublishEvent>
+        publishEvents(@NonNull final CallbackRegistry callbackRegistry,
+                      final int priority) {
+        return publishEvents(callbackRegistry, priority, false);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param reuseEvents recycle one event per broker thread instead of allocating one per PUBLISH,
+     *                    only for consumers that are done with the event when {@code onNext} returns
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<PublishEvent>
+        publishEvents(@NonNull final CallbackRegistry callbackRegistry,
+                      final int priority,
+                      final boolean reuseEvents) {
+        return Observable.create(new ObservableOnSubscribe<PublishEvent>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<PublishEvent> emitter) throws Exception {
+                final CallbackHub.PublishReceivedHub hub = CallbackHub.publishReceived(callbackRegistry, priority);
+                final ThreadLocal<PublishEvent> events = !reuseEvents ? null : new ThreadLocal<PublishEvent>() {
+                    @Override
+                    protected PublishEvent initialValue() {
+                        return new PublishEvent();
+                    }
+                };
+                final OnPublishReceivedCallback callback = new OnPublishReceivedCallback() {
+                    @Override
+                    public void onPublishReceived(@NonNull final PUBLISH publish,
+                                                  @NonNull final ClientData clientData)
+                            throws OnPublishReceivedException {
+                        if (emitter.isDisposed()) {
+                            return;
+                        }
+                        if (events == null) {
+                            emitter.onNext(new PublishEvent(publish, clientData));
+                            return;
+                        }
+                        final PublishEvent event = events.get().set(publish, clientData);
+                        try {
+                            emitter.onNext(event);
+                        } finally {
+                            event.set(null, null);
+                        }
+                    }
+
+                    @Override
+                    public int priority() {
+                        return priority;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * Wraps the publishes into {@link DecodedPublish}es decoding the payload on first read only:
+     *
+     * <pre>{@code
+     * publishReceiveds(callbackRegistry, priority).compose(decoded(PayloadCodecs.utf8()))
+     * }</pre>
+     *
+     * @param codec
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static <T> ObservableTransformer<Pair<PUBLISH, ClientData>, DecodedPublish<T>>
+        decoded(@NonNull final PayloadCodec<T> codec) {
+        return new ObservableTransformer<Pair<PUBLISH, ClientData>, DecodedPublish<T>>() {
+            @Override
+            public ObservableSource<DecodedPublish<T>> apply(@NonNull final Observable<Pair<PUBLISH, ClientData>> upstream) {
+                return upstream.map(new Function<Pair<PUBLISH, ClientData>, DecodedPublish<T>>() {
+                    @Override
+                    public DecodedPublish<T> apply(@NonNull final Pair<PUBLISH, ClientData> pair) throws Exception {
+                        return new DecodedPublish<T>(pair.left, pair.right, codec);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Decides on every received publish synchronously within the broker callback, rejected and redirected
+     * publishes aren't delivered and callbacks of a lower priority don't see them. Subscribers of the same
+     * priority still do, whatever their order, subscribe it with a higher priority than the streams to protect.
+     *
+     * A redirect publishes a copy of the publish to the new topic with the {@link PublishService}, the copy
+     * shares the payload array of the original unless the decision replaces it.
+     *
+     * A decision function throwing accepts the publish, the error goes to {@code RxJavaPlugins.onError} and
+     * the stream keeps running.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param publishService for redirects
+     * @param decision
+     * @return the decided publishes, emitted before the decision takes effect
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBLISH, PublishDecision>>
+        publishInterceptor(@NonNull final CallbackRegistry callbackRegistry,
+                           final int priority,
+                           @NonNull final PublishService publishService,
+                           @NonNull final BiFunction<? super PUBLISH, ? super ClientData, PublishDecision> decision) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBLISH, PublishDecision>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBLISH, PublishDecision>> emitter)
+                    throws Exception {
+                final CallbackHub.PublishReceivedHub hub = CallbackHub.publishReceived(callbackRegistry, priority);
+                final OnPublishReceivedCallback callback = new OnPublishReceivedCallback() {
+                    @Override
+                    public void onPublishReceived(@NonNull final PUBLISH publish, @NonNull final ClientData clientData)
+                            throws OnPublishReceivedException {
+                        PublishDecision decided;
+                        try {
+                            decided = decision.apply(publish, clientData);
+                        } catch (Throwable e) {
+                            Exceptions.throwIfFatal(e);
+                            RxJavaPlugins.onError(e);
+                            decided = PublishDecision.accept();
+                        }
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBLISH, PublishDecision>(publish, decided));
+                        }
+                        switch (decided.getType()) {
+                            case REJECT:
+                                throw decided.isDisconnectClient()
+                                        ? RejectedPublishException.REJECTED_AND_DISCONNECTED
+                                        : RejectedPublishException.REJECTED;
+                            case REDIRECT:
+                                final PUBLISH redirect = PUBLISH.copy(publish);
+                                redirect.setTopic(decided.getTopic());
+                                if (decided.getPayload() != null) {
+                                    redirect.setPayload(decided.getPayload());
+                                }
+                                publishService.publish(redirect);
+                                throw RejectedPublishException.REDIRECTED;
+                            case ACCEPT:
+                            default:
+                                break;
+                        }
+                    }
+
+                    @Override
+                    public int priority() {
+                        return priority;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * Rejects the messages of clients exceeding their rate with an {@link OnPublishReceivedException},
+     * the broker doesn't deliver them and callbacks of a lower priority don't see them. Subscribers of the same
+     * priority still do, whatever their order, subscribe it with a higher priority than the streams to protect.
+     *
+     * Idle buckets of the limiter are evicted every minute while subscribed.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param rateLimiter
+     * @return the rejected messages
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBLISH, ClientData>>
+        rateLimits(@NonNull final CallbackRegistry callbackRegistry,
+                   final int priority,
+                   @NonNull final PublishRateLimiter rateLimiter) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBLISH, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBLISH, ClientData>> emitter) throws Exception {
+                final CallbackHub.PublishReceivedHub hub = CallbackHub.publishReceived(callbackRegistry, priority);
+                final OnPublishReceivedCallback callback = new OnPublishReceivedCallback() {
+                    @Override
+                    public void onPublishReceived(@NonNull final PUBLISH publish, @NonNull final ClientData clientData)
+                            throws OnPublishReceivedException {
+                        if (!rateLimiter.tryAcquire(clientData.getClientId())) {
+                            if (!emitter.isDisposed()) {
+                                emitter.onNext(new Pair<PUBLISH, ClientData>(publish, clientData));
+                            }
+                            throw RejectedPublishException.RATE_LIMITED;
+                        }
+                    }
+
+                    @Override
+                    public int priority() {
+                        return priority;
+                    }
+                };
+                final Disposable eviction = scheduleds(callbackRegistry, "0 * * * * ?")
+                        .subscribe(new Consumer<String>() {
+                            @Override
+                            public void accept(@NonNull final String cron) throws Exception {
+                                rateLimiter.evictIdle();
+                            }
+                        });
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                        eviction.dispose();
+                    }
+                });
+
+                hub.add(callback);
             }
         });
     }
 
+    /**
+     * Backpressure-aware {@link #publishReceiveds(CallbackRegistry, int)}, {@link OverflowPolicy#latestPerKey(int)}
+     * keeps the latest PUBLISH per topic.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param overflowPolicy
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<Pair<PUBLISH, ClientData>>
+        publishReceiveds(@NonNull final CallbackRegistry callbackRegistry,
+                   final int priority,
+                   @NonNull final OverflowPolicy overflowPolicy) {
+        return new FlowableOverflow<Pair<PUBLISH, ClientData>>(publishReceiveds(callbackRegistry, priority),
+                overflowPolicy, new Function<Pair<PUBLISH, ClientData>, Object>() {
+                    @Override
+                    public Object apply(@NonNull final Pair<PUBLISH, ClientData> pair) throws Exception {
+                        return pair.left.getTopic();
+                    }
+                });
+    }
+
+    /**
+     * Backpressure-aware {@link #publishReceiveds(CallbackRegistry, int)} that spills the PUBLISHes a slow
+     * subscriber can't keep up with to disk, see {@link SpillPolicy#publishes()} for what is kept of the client.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param spillPolicy
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<Pair<PUBLISH, ClientData>>
+        publishReceiveds(@NonNull final CallbackRegistry callbackRegistry,
+                         final int priority,
+                         @NonNull final SpillPolicy spillPolicy) {
+        return spill(publishReceiveds(callbackRegistry, priority), spillPolicy, SpillPolicy.publishes());
+    }
+
+    /**
+     * Bridges the events to a {@link Flowable}, spilling the ones a slow subscriber can't keep up with to disk.
+     *
+     * @param source
+     * @param spillPolicy
+     * @param serializer
+     * @param <T>
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static <T> Flowable<T> spill(@NonNull final ObservableSource<T> source,
+                                        @NonNull final SpillPolicy spillPolicy,
+                                        @NonNull final SpillPolicy.Serializer<T> serializer) {
+        return new FlowableSpill<T>(source, spillPolicy, serializer);
+    }
+
     /**
      * @param callbackRegistry
      * @param priority
@@ -185,6 +566,7 @@ public class RxHiveMQ {
         return Observable.create(new ObservableOnSubscribe<Pair<CONNECT, ClientData>>() {
             @Override
             public void subscribe(@NonNull final ObservableEmitter<Pair<CONNECT, ClientData>> emitter) throws Exception {
+                final CallbackHub.ConnectHub hub = CallbackHub.connect(callbackRegistry, priority);
                 final OnConnectCallback callback = new OnConnectCallback() {
                     @Override
                     public void onConnect(@NonNull final CONNECT connect,
@@ -203,49 +585,787 @@ public class RxHiveMQ {
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
-                        callbackRegistry.removeCallback(callback);
+                        hub.remove(callback);
                     }
                 });
 
-                callbackRegistry.addCallback(callback);
+                hub.add(callback);
             }
         });
     }
 
     /**
      * @param callbackRegistry
-     * @param cronExpression
+     * @param priority
      * @return
      */
     @NonNull
     @CheckReturnValue
-    public static Observable<String>
-        scheduleds(@NonNull final CallbackRegistry callbackRegistry,
-                   @NonNull final String cronExpression) {
-        return Observable.create(new ObservableOnSubscribe<String>() {
+    public static Observable<ConnectEvent>
+            connectEvents(@NonNull final CallbackRegistry callbackRegistry,
+                          final int priority) {
+        return connectEvents(callbackRegistry, priority, false);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param reuseEvents recycle one event per broker thread instead of allocating one per CONNECT,
+     *                    only for consumers that are done with the event when {@code onNext} returns
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<ConnectEvent>
+            connectEvents(@NonNull final CallbackRegistry callbackRegistry,
+                          final int priority,
+                          final boolean reuseEvents) {
+        return Observable.create(new ObservableOnSubscribe<ConnectEvent>() {
             @Override
-            public void subscribe(@NonNull final ObservableEmitter<String> emitter) throws Exception {
-                final ScheduledCallback callback = new ScheduledCallback() {
+            public void subscribe(@NonNull final ObservableEmitter<ConnectEvent> emitter) throws Exception {
+                final CallbackHub.ConnectHub hub = CallbackHub.connect(callbackRegistry, priority);
+                final ThreadLocal<ConnectEvent> events = !reuseEvents ? null : new ThreadLocal<ConnectEvent>() {
                     @Override
-                    public void execute() {
-                        emitter.onNext(cronExpression);
+                    protected ConnectEvent initialValue() {
+                        return new ConnectEvent();
+                    }
+                };
+                final OnConnectCallback callback = new OnConnectCallback() {
+                    @Override
+                    public void onConnect(@NonNull final CONNECT connect,
+                                          @NonNull final ClientData clientData) throws RefusedConnectionException {
+                        if (emitter.isDisposed()) {
+                            return;
+                        }
+                        if (events == null) {
+                            emitter.onNext(new ConnectEvent(connect, clientData));
+                            return;
+                        }
+                        final ConnectEvent event = events.get().set(connect, clientData);
+                        try {
+                            emitter.onNext(event);
+                        } finally {
+                            event.set(null, null);
+                        }
                     }
 
                     @Override
-                    public String cronExpression() {
-                        return cronExpression;
+                    public int priority() {
+                        return priority;
                     }
                 };
 
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
-                        callbackRegistry.removeCallback(callback);
+                        hub.remove(callback);
                     }
                 });
 
-                callbackRegistry.addCallback(callback);
+                hub.add(callback);
             }
         });
     }
+
+    /**
+     * Backpressure-aware {@link #clientConnects(CallbackRegistry, int)}, {@link OverflowPolicy#latestPerKey(int)}
+     * keeps the latest CONNECT per client id.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param overflowPolicy
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<Pair<CONNECT, ClientData>>
+            clientConnects(@NonNull final CallbackRegistry callbackRegistry,
+                           final int priority,
+                           @NonNull final OverflowPolicy overflowPolicy) {
+        return new FlowableOverflow<Pair<CONNECT, ClientData>>(clientConnects(callbackRegistry, priority),
+                overflowPolicy, new Function<Pair<CONNECT, ClientData>, Object>() {
+                    @Override
+                    public Object apply(@NonNull final Pair<CONNECT, ClientData> pair) throws Exception {
+                        return pair.right.getClientId();
+                    }
+                });
+    }
+
+    /**
+     * PUBLISHes delivered to the subscribing clients, one per subscriber, along with the receiving client.
+     *
+     * The broker calls back asynchronously, after the message was written to the client.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBLISH, ClientData>>
+            publishSends(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBLISH, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBLISH, ClientData>> emitter) throws Exception {
+                final CallbackHub.PublishSendHub hub = CallbackHub.publishSend(callbackRegistry);
+                final OnPublishSend callback = new OnPublishSend() {
+                    @Override
+                    public void onPublishSend(@NonNull final PUBLISH publish, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBLISH, ClientData>(publish, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBACKs received from the clients, acknowledging a QoS 1 PUBLISH sent to them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBACK, ClientData>>
+            pubackReceiveds(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBACK, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBACK, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubackReceivedHub hub = CallbackHub.pubackReceived(callbackRegistry);
+                final OnPubackReceived callback = new OnPubackReceived() {
+                    @Override
+                    public void onPubackReceived(@NonNull final PUBACK puback, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBACK, ClientData>(puback, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBACKs sent to the clients, acknowledging a QoS 1 PUBLISH received from them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBACK, ClientData>>
+            pubackSends(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBACK, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBACK, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubackSendHub hub = CallbackHub.pubackSend(callbackRegistry);
+                final OnPubackSend callback = new OnPubackSend() {
+                    @Override
+                    public void onPubackSend(@NonNull final PUBACK puback, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBACK, ClientData>(puback, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBRECs received from the clients, the first acknowledgement of a QoS 2 PUBLISH sent to them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBREC, ClientData>>
+            pubrecReceiveds(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBREC, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBREC, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubrecReceivedHub hub = CallbackHub.pubrecReceived(callbackRegistry);
+                final OnPubrecReceived callback = new OnPubrecReceived() {
+                    @Override
+                    public void onPubrecReceived(@NonNull final PUBREC pubrec, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBREC, ClientData>(pubrec, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBRECs sent to the clients, the first acknowledgement of a QoS 2 PUBLISH received from them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBREC, ClientData>>
+            pubrecSends(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBREC, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBREC, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubrecSendHub hub = CallbackHub.pubrecSend(callbackRegistry);
+                final OnPubrecSend callback = new OnPubrecSend() {
+                    @Override
+                    public void onPubrecSend(@NonNull final PUBREC pubrec, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBREC, ClientData>(pubrec, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBRELs received from the clients, releasing a QoS 2 PUBLISH received from them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBREL, ClientData>>
+            pubrelReceiveds(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBREL, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBREL, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubrelReceivedHub hub = CallbackHub.pubrelReceived(callbackRegistry);
+                final OnPubrelReceived callback = new OnPubrelReceived() {
+                    @Override
+                    public void onPubrelReceived(@NonNull final PUBREL pubrel, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBREL, ClientData>(pubrel, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBRELs sent to the clients, releasing a QoS 2 PUBLISH sent to them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBREL, ClientData>>
+            pubrelSends(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBREL, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBREL, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubrelSendHub hub = CallbackHub.pubrelSend(callbackRegistry);
+                final OnPubrelSend callback = new OnPubrelSend() {
+                    @Override
+                    public void onPubrelSend(@NonNull final PUBREL pubrel, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBREL, ClientData>(pubrel, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBCOMPs received from the clients, completing a QoS 2 PUBLISH sent to them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBCOMP, ClientData>>
+            pubcompReceiveds(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBCOMP, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBCOMP, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubcompReceivedHub hub = CallbackHub.pubcompReceived(callbackRegistry);
+                final OnPubcompReceived callback = new OnPubcompReceived() {
+                    @Override
+                    public void onPubcompReceived(@NonNull final PUBCOMP pubcomp, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBCOMP, ClientData>(pubcomp, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * PUBCOMPs sent to the clients, completing a QoS 2 PUBLISH received from them.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<PUBCOMP, ClientData>>
+            pubcompSends(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<PUBCOMP, ClientData>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<PUBCOMP, ClientData>> emitter) throws Exception {
+                final CallbackHub.PubcompSendHub hub = CallbackHub.pubcompSend(callbackRegistry);
+                final OnPubcompSend callback = new OnPubcompSend() {
+                    @Override
+                    public void onPubcompSend(@NonNull final PUBCOMP pubcomp, @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<PUBCOMP, ClientData>(pubcomp, clientData));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * Disconnecting clients along with whether the connection was aborted abruptly.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<ClientData, Boolean>>
+            clientDisconnects(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<ClientData, Boolean>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<ClientData, Boolean>> emitter) throws Exception {
+                final CallbackHub.DisconnectHub hub = CallbackHub.disconnect(callbackRegistry);
+                final OnDisconnectCallback callback = new OnDisconnectCallback() {
+                    @Override
+                    public void onDisconnect(@NonNull final ClientData clientData, final boolean abruptAbort) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<ClientData, Boolean>(clientData, abruptAbort));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * Authenticates the connecting clients with the {@code authenticator}, subscribed on the {@code scheduler}
+     * and awaited up to the timeout, the client is refused with {@code REFUSED_SERVER_UNAVAILABLE} if it fails
+     * or times out.
+     *
+     * The {@link OnAuthenticationCallback} is synchronous, the broker thread waits for the decision. Successful
+     * decisions are kept in the {@link AuthenticationCache} so reconnecting clients with the same credentials
+     * don't wait again, the authenticator is only applied on a cache miss.
+     *
+     * @param callbackRegistry
+     * @param priority
+     * @param authenticator
+     * @param scheduler to verify the credentials on, e.g. {@link #scheduler(PluginExecutorService)}
+     * @param timeout
+     * @param unit
+     * @param authenticationCache
+     * @return the decisions, emitted on the broker thread
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<ClientCredentialsData, Boolean>>
+            authentications(@NonNull final CallbackRegistry callbackRegistry,
+                            final int priority,
+                            @NonNull final Function<? super ClientCredentialsData,
+                                    ? extends SingleSource<Boolean>> authenticator,
+                            @NonNull final Scheduler scheduler,
+                            final long timeout,
+                            @NonNull final TimeUnit unit,
+                            @NonNull final AuthenticationCache authenticationCache) {
+        return Observable.create(new ObservableOnSubscribe<Pair<ClientCredentialsData, Boolean>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<ClientCredentialsData, Boolean>> emitter)
+                    throws Exception {
+                final OnAuthenticationCallback callback = new OnAuthenticationCallback() {
+                    @Override
+                    public Boolean checkCredentials(@NonNull final ClientCredentialsData clientData)
+                            throws AuthenticationException {
+                        final boolean authenticated;
+                        if (authenticationCache.contains(clientData)) {
+                            authenticated = true;
+                        } else {
+                            authenticated = verify(clientData);
+                            if (authenticated) {
+                                authenticationCache.put(clientData);
+                            }
+                        }
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<ClientCredentialsData, Boolean>(clientData, authenticated));
+                        }
+                        return authenticated;
+                    }
+
+                    private boolean verify(final ClientCredentialsData clientData) throws AuthenticationException {
+                        try {
+                            return Single.wrap(authenticator.apply(clientData))
+                                    .subscribeOn(scheduler)
+                                    .timeout(timeout, unit)
+                                    .blockingGet();
+                        } catch (Throwable e) {
+                            final Throwable cause = e instanceof RuntimeException && e.getCause() != null
+                                    ? e.getCause() : e;
+                            if (cause instanceof AuthenticationException) {
+                                throw (AuthenticationException) cause;
+                            }
+                            throw new AuthenticationException("Unable to authenticate " + clientData.getClientId()
+                                    + ": " + cause, ReturnCode.REFUSED_SERVER_UNAVAILABLE);
+                        }
+                    }
+
+                    @Override
+                    public int priority() {
+                        return priority;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        callbackRegistry.removeCallback(callback);
+                    }
+                });
+
+                callbackRegistry.addCallback(callback);
+            }
+        });
+    }
+
+    /**
+     * Login results, the exception is null for successful logins.
+     *
+     * @param callbackRegistry
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<Pair<ClientData, AuthenticationException>>
+            afterLogins(@NonNull final CallbackRegistry callbackRegistry) {
+        return Observable.create(new ObservableOnSubscribe<Pair<ClientData, AuthenticationException>>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<Pair<ClientData, AuthenticationException>> emitter)
+                    throws Exception {
+                final CallbackHub.AfterLoginHub hub = CallbackHub.afterLogin(callbackRegistry);
+                final AfterLoginCallback callback = new AfterLoginCallback() {
+                    @Override
+                    public void afterSuccessfulLogin(@NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<ClientData, AuthenticationException>(clientData, null));
+                        }
+                    }
+
+                    @Override
+                    public void afterFailedLogin(@NonNull final AuthenticationException exception,
+                                                 @NonNull final ClientData clientData) {
+                        if (!emitter.isDisposed()) {
+                            emitter.onNext(new Pair<ClientData, AuthenticationException>(clientData, exception));
+                        }
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param cronExpression
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<String>
+        scheduleds(@NonNull final CallbackRegistry callbackRegistry,
+                   @NonNull final String cronExpression) {
+        return Observable.create(new ObservableOnSubscribe<String>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<String> emitter) throws Exception {
+                final CallbackHub.ScheduledHub hub = CallbackHub.scheduled(callbackRegistry, cronExpression);
+                final ScheduledCallback callback = new ScheduledCallback() {
+                    @Override
+                    public void execute() {
+                        emitter.onNext(cronExpression);
+                    }
+
+                    @Override
+                    public String cronExpression() {
+                        return cronExpression;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * {@link #scheduleds(CallbackRegistry, String)} along with when each execution fired and how late, cron
+     * expressions fire on whole seconds so the lateness is the time past the second.
+     *
+     * Subscribers of the same cron expression share a single broker callback. For intervals below a second,
+     * see {@link TimerWheel#intervals(long, TimeUnit)}.
+     *
+     * @param callbackRegistry
+     * @param cronExpression
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Observable<ScheduledTick>
+        scheduledTicks(@NonNull final CallbackRegistry callbackRegistry,
+                       @NonNull final String cronExpression) {
+        return Observable.create(new ObservableOnSubscribe<ScheduledTick>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<ScheduledTick> emitter) throws Exception {
+                final CallbackHub.ScheduledHub hub = CallbackHub.scheduled(callbackRegistry, cronExpression);
+                final AtomicLong sequence = new AtomicLong();
+                final ScheduledCallback callback = new ScheduledCallback() {
+                    @Override
+                    public void execute() {
+                        final long now = System.currentTimeMillis();
+                        emitter.onNext(new ScheduledTick(sequence.getAndIncrement(), now,
+                                TimeUnit.MILLISECONDS.toNanos(now % 1000L)));
+                    }
+
+                    @Override
+                    public String cronExpression() {
+                        return cronExpression;
+                    }
+                };
+
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        hub.remove(callback);
+                    }
+                });
+
+                hub.add(callback);
+            }
+        });
+    }
+
+    /**
+     * Backpressure-aware {@link #scheduleds(CallbackRegistry, String)}, missed executions are handled by
+     * the {@link OverflowPolicy}.
+     *
+     * @param callbackRegistry
+     * @param cronExpression
+     * @param overflowPolicy
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<String>
+        scheduleds(@NonNull final CallbackRegistry callbackRegistry,
+                   @NonNull final String cronExpression,
+                   @NonNull final OverflowPolicy overflowPolicy) {
+        return new FlowableOverflow<String>(scheduleds(callbackRegistry, cronExpression),
+                overflowPolicy, new Function<String, Object>() {
+                    @Override
+                    public Object apply(@NonNull final String cron) throws Exception {
+                        return cron;
+                    }
+                });
+    }
+
+    /**
+     * Moves the work off the broker threads onto the executor of the plugins, with {@code observeOn}.
+     *
+     * @param pluginExecutorService
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Scheduler scheduler(@NonNull final PluginExecutorService pluginExecutorService) {
+        return Schedulers.from(pluginExecutorService);
+    }
+
+    /**
+     * Spreads the events over {@code lanes} lanes by client id, every lane is observed on the
+     * {@link Scheduler} so the events of a client stay in order while the lanes run in parallel:
+     *
+     * <pre>{@code
+     * publishReceiveds(callbackRegistry, priority)
+     *         .compose(observeOnClientLanes(scheduler(pluginExecutorService), 8))
+     *         .flatMap(lane -> lane.map(pair -> process(pair)))
+     * }</pre>
+     *
+     * Don't pass reused {@link PublishEvent}s or {@link ConnectEvent}s across the lanes, they are only
+     * valid during {@code onNext} on the broker thread.
+     *
+     * @param scheduler
+     * @param lanes
+     * @return
+     */
+    @NonNull
+    @CheckReturnValue
+    public static <L> ObservableTransformer<Pair<L, ClientData>, Observable<Pair<L, ClientData>>>
+        observeOnClientLanes(@NonNull final Scheduler scheduler, final int lanes) {
+        return new ClientLanes<Pair<L, ClientData>>(scheduler, lanes, new Function<Pair<L, ClientData>, String>() {
+            @Override
+            public String apply(@NonNull final Pair<L, ClientData> pair) throws Exception {
+                return pair.right.getClientId();
+            }
+        });
+    }
+
+    /**
+     * @param scheduler
+     * @param lanes
+     * @param clientIdSelector
+     * @return
+     * @see #observeOnClientLanes(Scheduler, int)
+     */
+    @NonNull
+    @CheckReturnValue
+    public static <T> ObservableTransformer<T, Observable<T>>
+        observeOnClientLanes(@NonNull final Scheduler scheduler,
+                             final int lanes,
+                             @NonNull final Function<? super T, String> clientIdSelector) {
+        return new ClientLanes<T>(scheduler, lanes, clientIdSelector);
+    }
+
+    /**
+     * Registers the metrics of the streams of the {@link CallbackRegistry} in the {@link MetricRegistry}, e.g. the one
+     * of the {@code BlockingMetricService},
+     * named {@code rx-hivemq.<stream>.<priority or cron>.<metric>}:
+     * <ul>
+     * <li>{@code events}: events dispatched by the broker</li>
+     * <li>{@code unobserved}: events dispatched after the last subscriber left, before the callback was removed</li>
+     * <li>{@code subscribers}: current subscribers</li>
+     * <li>{@code latency}: nanoseconds from the broker callback entering to the last {@code onNext} returning</li>
+     * </ul>
+     *
+     * Streams created later are registered as well. Metrics are disabled by default.
+     *
+     * @param callbackRegistry
+     * @param metricRegistry
+     */
+    public static void enableMetrics(@NonNull final CallbackRegistry callbackRegistry,
+                                     @NonNull final MetricRegistry metricRegistry) {
+        CallbackHub.enableMetrics(callbackRegistry, metricRegistry);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @see #enableMetrics(CallbackRegistry, MetricRegistry)
+     */
+    public static void disableMetrics(@NonNull final CallbackRegistry callbackRegistry) {
+        CallbackHub.disableMetrics(callbackRegistry);
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.services.PublishService;
+
+import org.reactivestreams.Publisher;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.flowables.GroupedFlowable;
+import io.reactivex.functions.Function;
+
+/**
+ * Reactive sinks of the {@link PublishService}.
+ *
+ * The HiveMQ SPI 3.1 has neither a bulk nor an asynchronous publish, a window is published message by message
+ * within a single task of the {@link Scheduler}, so the broker sees a task per window instead of per message.
+ */
+public final class RxPublishService {
+    private RxPublishService() {
+    }
+
+    /**
+     * Publishes the messages in windows over {@code maxInFlight} lanes, the messages of a topic always take the same
+     * lane. A lane publishes its windows one after the other and requests at most two windows ahead, so the messages
+     * of a topic keep their order and a fast source waits for the broker instead of piling up windows.
+     *
+     * @param publishService
+     * @param publishes
+     * @param window
+     * @param scheduler to publish on, e.g. {@link RxHiveMQ#scheduler(com.hivemq.spi.services.PluginExecutorService)}
+     * @param maxInFlight lanes publishing concurrently
+     * @return completes once all the messages are published
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Completable publishAll(@NonNull final PublishService publishService,
+                                         @NonNull final Publisher<PUBLISH> publishes,
+                                         @NonNull final PublishWindow window,
+                                         @NonNull final Scheduler scheduler,
+                                         final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight > 0 required but it was " + maxInFlight);
+        }
+        if (maxInFlight == 1) {
+            return new CompletablePublishWindows(publishes, publishService, window, scheduler);
+        }
+        return Flowable.fromPublisher(publishes)
+                .groupBy(new Function<PUBLISH, Integer>() {
+                    @Override
+                    public Integer apply(@NonNull final PUBLISH publish) throws Exception {
+                        return (publish.getTopic().hashCode() & Integer.MAX_VALUE) % maxInFlight;
+                    }
+                })
+                .flatMapCompletable(new Function<GroupedFlowable<Integer, PUBLISH>, CompletableSource>() {
+                    @Override
+                    public CompletableSource apply(@NonNull final GroupedFlowable<Integer, PUBLISH> lane)
+                            throws Exception {
+                        return new CompletablePublishWindows(lane, publishService, window, scheduler);
+                    }
+                }, false, maxInFlight);
+    }
+
+    /**
+     * @return the latest message per topic, in the order the topics first appeared
+     */
+    static Collection<PUBLISH> coalesce(@NonNull final List<PUBLISH> batch) {
+        if (batch.size() == 1) {
+            return batch;
+        }
+        final Map<String, PUBLISH> latest = new LinkedHashMap<String, PUBLISH>(batch.size() * 2);
+        for (final PUBLISH publish : batch) {
+            latest.put(publish.getTopic(), publish);
+        }
+        return latest.values();
+    }
+}
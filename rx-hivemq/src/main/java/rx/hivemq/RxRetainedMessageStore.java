@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.spi.message.RetainedMessage;
+import com.hivemq.spi.services.AsyncRetainedMessageStore;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Function;
+
+/**
+ * Reactive maintenance of the retained messages on top of the {@link AsyncRetainedMessageStore},
+ * nothing blocks the calling thread.
+ *
+ * The HiveMQ SPI has no cursor over the retained messages, the message set is fetched once per subscription and
+ * then emitted as far as the subscriber requests.
+ */
+public final class RxRetainedMessageStore {
+    public static final int DEFAULT_BATCH_SIZE = 128;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    private RxRetainedMessageStore() {
+    }
+
+    /**
+     * @param retainedMessageStore
+     * @return the retained messages of the cluster
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<RetainedMessage> retainedMessages(
+            @NonNull final AsyncRetainedMessageStore retainedMessageStore) {
+        return flatten(ListenableFutures.toSingle(new Callable<ListenableFuture<Set<RetainedMessage>>>() {
+            @Override
+            public ListenableFuture<Set<RetainedMessage>> call() throws Exception {
+                return retainedMessageStore.getRetainedMessages();
+            }
+        }));
+    }
+
+    /**
+     * @param retainedMessageStore
+     * @return the retained messages of this node
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Flowable<RetainedMessage> localRetainedMessages(
+            @NonNull final AsyncRetainedMessageStore retainedMessageStore) {
+        return flatten(ListenableFutures.toSingle(new Callable<ListenableFuture<Set<RetainedMessage>>>() {
+            @Override
+            public ListenableFuture<Set<RetainedMessage>> call() throws Exception {
+                return retainedMessageStore.getLocalRetainedMessages();
+            }
+        }));
+    }
+
+    private static Flowable<RetainedMessage> flatten(final Single<Set<RetainedMessage>> messages) {
+        return messages.flattenAsFlowable(new Function<Set<RetainedMessage>, Iterable<RetainedMessage>>() {
+            @Override
+            public Iterable<RetainedMessage> apply(@NonNull final Set<RetainedMessage> set) throws Exception {
+                return set;
+            }
+        });
+    }
+
+    /**
+     * @param retainedMessageStore
+     * @param topics
+     * @return the number of removed topics
+     * @see #removeAll(AsyncRetainedMessageStore, Publisher, int, int)
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Single<Long> removeAll(@NonNull final AsyncRetainedMessageStore retainedMessageStore,
+                                        @NonNull final Publisher<String> topics) {
+        return removeAll(retainedMessageStore, topics, DEFAULT_BATCH_SIZE, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Removes the retained messages of the topics in batches, at most {@code batchSize * maxConcurrency}
+     * removals are in flight and the topics are requested as removals complete.
+     *
+     * @param retainedMessageStore
+     * @param topics
+     * @param batchSize
+     * @param maxConcurrency batches in flight
+     * @return the number of removed topics
+     */
+    @NonNull
+    @CheckReturnValue
+    public static Single<Long> removeAll(@NonNull final AsyncRetainedMessageStore retainedMessageStore,
+                                        @NonNull final Publisher<String> topics,
+                                        final int batchSize,
+                                        final int maxConcurrency) {
+        return Flowable.fromPublisher(topics)
+                .buffer(batchSize)
+                .flatMapSingle(new Function<List<String>, SingleSource<Long>>() {
+                    @Override
+                    public SingleSource<Long> apply(@NonNull final List<String> batch) throws Exception {
+                        return ListenableFutures.toCompletable(new Callable<ListenableFuture<?>>() {
+                            @Override
+                            public ListenableFuture<?> call() throws Exception {
+                                final List<ListenableFuture<Void>> removals =
+                                        new ArrayList<ListenableFuture<Void>>(batch.size());
+                                for (final String topic : batch) {
+                                    removals.add(retainedMessageStore.remove(topic));
+                                }
+                                return Futures.allAsList(removals);
+                            }
+                        }).toSingleDefault((long) batch.size());
+                    }
+                }, false, maxConcurrency)
+                .reduce(0L, new BiFunction<Long, Long, Long>() {
+                    @Override
+                    public Long apply(@NonNull final Long sum, @NonNull final Long removed) throws Exception {
+                        return sum + removed;
+                    }
+                });
+    }
+}
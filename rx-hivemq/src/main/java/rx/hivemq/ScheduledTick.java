@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * An execution of a schedule, with when it fired and how late, to measure the jitter of the schedule.
+ */
+public final class ScheduledTick {
+    private final long sequence;
+    private final long timestamp;
+    private final long latenessNanos;
+
+    ScheduledTick(final long sequence, final long timestamp, final long latenessNanos) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.latenessNanos = latenessNanos;
+    }
+
+    /**
+     * @return executions before this one since subscribing
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return milliseconds since the epoch it fired at
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @param unit
+     * @return time it fired after it was due
+     */
+    public long getLateness(@NonNull final TimeUnit unit) {
+        return unit.convert(latenessNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledTick{#" + sequence + " at " + timestamp + ", "
+                + TimeUnit.NANOSECONDS.toMicros(latenessNanos) + " us late}";
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.base.Optional;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.security.SslClientCertificate;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Bounded in-memory buffer of the {@code Flowable} bridges in {@link RxHiveMQ} that spills to disk instead of
+ * dropping events.
+ *
+ * Events are buffered between the broker callback and a slow subscriber up to {@link #getCapacity()}, once the
+ * buffer is full the following events are serialized to memory-mapped segment files until the subscriber drained
+ * them all, so the events keep their order. Every subscription spills to a directory of its own within
+ * {@link #getDirectory()}, deleted once the subscription ends. Spilled events don't survive a restart.
+ *
+ * A policy instance keeps its counters across all the streams it is passed to.
+ */
+public final class SpillPolicy {
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Serializes the events to spill.
+     */
+    public interface Serializer<T> {
+        @NonNull
+        byte[] serialize(@NonNull T value) throws Exception;
+
+        /**
+         * @param bytes read-only view of the serialized event, only valid during the call
+         * @return
+         * @throws Exception
+         */
+        @NonNull
+        T deserialize(@NonNull ByteBuffer bytes) throws Exception;
+    }
+
+    private final File directory;
+    private final int capacity;
+    private final int segmentSize;
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final AtomicLong restored = new AtomicLong();
+
+    private SpillPolicy(@NonNull final File directory, final int capacity, final int segmentSize) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity > 0 required but it was " + capacity);
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize > 0 required but it was " + segmentSize);
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @param directory e.g. within {@link com.hivemq.spi.config.SystemInformation#getDataFolder()}, created if missing
+     * @param capacity events buffered in memory
+     * @return a policy spilling to 16 MiB segments
+     */
+    @NonNull
+    public static SpillPolicy create(@NonNull final File directory, final int capacity) {
+        return new SpillPolicy(directory, capacity, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory created if missing
+     * @param capacity events buffered in memory
+     * @param segmentSize bytes per segment file
+     * @return
+     */
+    @NonNull
+    public static SpillPolicy create(@NonNull final File directory, final int capacity, final int segmentSize) {
+        return new SpillPolicy(directory, capacity, segmentSize);
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return events spilled to disk so far
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * @return spilled events read back so far
+     */
+    public long getRestoredCount() {
+        return restored.get();
+    }
+
+    void onSpilled(final int bytes) {
+        spilled.incrementAndGet();
+        spilledBytes.addAndGet(bytes);
+    }
+
+    void onRestored() {
+        restored.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "SpillPolicy{" + directory + ", capacity=" + capacity + ", spilled=" + spilled.get()
+                + ", restored=" + restored.get() + "}";
+    }
+
+    /**
+     * Serializes the PUBLISH along with the client id, user name, address and flags of the client, the
+     * certificate of a restored client is absent.
+     *
+     * @return
+     */
+    @NonNull
+    public static Serializer<RxHiveMQ.Pair<PUBLISH, ClientData>> publishes() {
+        return PublishSerializer.INSTANCE;
+    }
+
+    /**
+     * Lays a PUBLISH out as {@code [byte qos][byte flags][int message id][short topic][topic][short client id]
+     * [client id][short user name][user name][byte address][address][int payload][payload]}.
+     */
+    enum PublishSerializer implements Serializer<RxHiveMQ.Pair<PUBLISH, ClientData>> {
+        INSTANCE;
+
+        private static final int RETAIN = 1;
+        private static final int DUPLICATE = 1 << 1;
+        private static final int AUTHENTICATED = 1 << 2;
+        private static final int ANONYMOUS = 1 << 3;
+        private static final int BRIDGE = 1 << 4;
+        private static final int USERNAME = 1 << 5;
+
+        @Override
+        public byte[] serialize(@NonNull final RxHiveMQ.Pair<PUBLISH, ClientData> pair) {
+            final PUBLISH publish = pair.left;
+            final ClientData clientData = pair.right;
+            final byte[] topic = publish.getTopic().getBytes(UTF_8);
+            final byte[] clientId = clientData.getClientId().getBytes(UTF_8);
+            final Optional<String> username = clientData.getUsername();
+            final byte[] user = username.isPresent() ? username.get().getBytes(UTF_8) : new byte[0];
+            final Optional<InetAddress> inetAddress = clientData.getInetAddress();
+            final byte[] address = inetAddress.isPresent() ? inetAddress.get().getAddress() : new byte[0];
+            final byte[] payload = publish.getPayload();
+            final ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + 4 + 2 + topic.length + 2 + clientId.length
+                    + 2 + user.length + 1 + address.length + 4 + payload.length);
+            buffer.put((byte) publish.getQoS().getQosNumber());
+            buffer.put((byte) ((publish.isRetain() ? RETAIN : 0)
+                    | (publish.isDuplicateDelivery() ? DUPLICATE : 0)
+                    | (clientData.isAuthenticated() ? AUTHENTICATED : 0)
+                    | (clientData.isAnonymous() ? ANONYMOUS : 0)
+                    | (clientData.isBridge() ? BRIDGE : 0)
+                    | (username.isPresent() ? USERNAME : 0)));
+            buffer.putInt(publish.getMessageId());
+            buffer.putShort((short) topic.length).put(topic);
+            buffer.putShort((short) clientId.length).put(clientId);
+            buffer.putShort((short) user.length).put(user);
+            buffer.put((byte) address.length).put(address);
+            buffer.putInt(payload.length).put(payload);
+            return buffer.array();
+        }
+
+        @Override
+        public RxHiveMQ.Pair<PUBLISH, ClientData> deserialize(@NonNull final ByteBuffer bytes) throws Exception {
+            final QoS qos = QoS.valueOf(bytes.get());
+            final int flags = bytes.get();
+            final int messageId = bytes.getInt();
+            final String topic = string(bytes, bytes.getShort() & 0xFFFF);
+            final String clientId = string(bytes, bytes.getShort() & 0xFFFF);
+            final String username = string(bytes, bytes.getShort() & 0xFFFF);
+            final byte[] address = new byte[bytes.get() & 0xFF];
+            bytes.get(address);
+            final byte[] payload = new byte[bytes.getInt()];
+            bytes.get(payload);
+
+            final PUBLISH publish = new PUBLISH(payload, topic, qos);
+            publish.setRetain((flags & RETAIN) != 0);
+            publish.setDuplicateDelivery((flags & DUPLICATE) != 0);
+            publish.setMessageId(messageId);
+            final ClientData clientData = new RestoredClientData(clientId,
+                    (flags & USERNAME) != 0 ? Optional.of(username) : Optional.<String>absent(),
+                    (flags & AUTHENTICATED) != 0,
+                    (flags & ANONYMOUS) != 0,
+                    (flags & BRIDGE) != 0,
+                    address.length > 0 ? Optional.of(InetAddress.getByAddress(address)) : Optional.<InetAddress>absent());
+            return new RxHiveMQ.Pair<PUBLISH, ClientData>(publish, clientData);
+        }
+
+        private static String string(final ByteBuffer bytes, final int length) {
+            final byte[] b = new byte[length];
+            bytes.get(b);
+            return new String(b, UTF_8);
+        }
+    }
+
+    static final class RestoredClientData implements ClientData {
+        private final String clientId;
+        private final Optional<String> username;
+        private final boolean authenticated;
+        private final boolean anonymous;
+        private final boolean bridge;
+        private final Optional<InetAddress> inetAddress;
+
+        RestoredClientData(@NonNull final String clientId,
+                           @NonNull final Optional<String> username,
+                           final boolean authenticated,
+                           final boolean anonymous,
+                           final boolean bridge,
+                           @NonNull final Optional<InetAddress> inetAddress) {
+            this.clientId = clientId;
+            this.username = username;
+            this.authenticated = authenticated;
+            this.anonymous = anonymous;
+            this.bridge = bridge;
+            this.inetAddress = inetAddress;
+        }
+
+        @Override
+        public String getClientId() {
+            return clientId;
+        }
+
+        @Override
+        public Optional<String> getUsername() {
+            return username;
+        }
+
+        @Override
+        public boolean isAuthenticated() {
+            return authenticated;
+        }
+
+        @Override
+        public Optional<SslClientCertificate> getCertificate() {
+            return Optional.absent();
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return anonymous;
+        }
+
+        @Override
+        public boolean isBridge() {
+            return bridge;
+        }
+
+        @Override
+        public Optional<InetAddress> getInetAddress() {
+            return inetAddress;
+        }
+    }
+}
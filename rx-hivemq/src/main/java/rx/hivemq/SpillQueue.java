@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+
+/**
+ * FIFO of byte records in memory-mapped segment files, written and read sequentially, a segment is deleted once
+ * it's read. The segment being written is mapped once more for reading. Not thread safe, see {@link FlowableSpill}.
+ *
+ * Records are laid out as {@code [int length + 1][bytes]}, so an empty record isn't taken for the 0 ending a
+ * segment. A 0 or a segment too full for the next length moves the reader on to the next segment, unless it's the
+ * segment being written.
+ */
+final class SpillQueue implements Closeable {
+    private static final int LENGTH = 4;
+
+    private final File directory;
+    private final int segmentSize;
+
+    private long writeSequence;
+    private MappedByteBuffer writeSegment;
+    private long readSequence;
+    private MappedByteBuffer readSegment;
+    private long size;
+    private long bytes;
+
+    private SpillQueue(@NonNull final File directory, final int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @param parent the directory to create the segments directory of the queue in
+     * @param segmentSize
+     * @return
+     * @throws IOException
+     */
+    @NonNull
+    static SpillQueue open(@NonNull final File parent, final int segmentSize) throws IOException {
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        final File directory = File.createTempFile("spill-", "", parent);
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return new SpillQueue(directory, segmentSize);
+    }
+
+    void offer(@NonNull final byte[] record) throws IOException {
+        final int length = LENGTH + record.length;
+        // Keeps room for the 0 length ending a segment
+        if (writeSegment == null || writeSegment.remaining() < length + LENGTH) {
+            if (writeSegment != null) {
+                writeSegment.putInt(0);
+            }
+            writeSegment = map(writeSequence++, Math.max(segmentSize, length + LENGTH));
+        }
+        writeSegment.putInt(record.length + 1);
+        writeSegment.put(record);
+        size++;
+        bytes += length;
+    }
+
+    /**
+     * @return null if empty
+     */
+    @Nullable
+    byte[] poll() throws IOException {
+        if (size == 0L) {
+            return null;
+        }
+        for (;;) {
+            if (readSegment == null) {
+                if (readSequence >= writeSequence) {
+                    return null;
+                }
+                readSegment = map(readSequence, 0);
+            }
+            final int encoded = readSegment.remaining() >= LENGTH ? readSegment.getInt(readSegment.position()) : 0;
+            if (encoded > 0) {
+                readSegment.position(readSegment.position() + LENGTH);
+                final byte[] record = new byte[encoded - 1];
+                readSegment.get(record);
+                size--;
+                bytes -= LENGTH + record.length;
+                return record;
+            }
+            if (readSequence == writeSequence - 1) {
+                // Caught up with the writer
+                return null;
+            }
+            readSegment = null;
+            delete(readSequence++);
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0L;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of the records on disk
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Deletes the segments and the directory of the queue.
+     */
+    @Override
+    public void close() {
+        writeSegment = null;
+        readSegment = null;
+        for (long sequence = readSequence; sequence < writeSequence; sequence++) {
+            delete(sequence);
+        }
+        if (!directory.delete()) {
+            directory.deleteOnExit();
+        }
+        size = 0L;
+        bytes = 0L;
+    }
+
+    private MappedByteBuffer map(final long sequence, final int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file(sequence), "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : raf.length());
+        }
+    }
+
+    private void delete(final long sequence) {
+        final File file = file(sequence);
+        // A segment still mapped can't be deleted on Windows until it's garbage collected
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private File file(final long sequence) {
+        return new File(directory, String.format("%020d.spill", sequence));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Metrics of the stream of one {@link CallbackHub}, registered as
+ * <ul>
+ * <li>{@code <name>.events}: events dispatched by the broker</li>
+ * <li>{@code <name>.unobserved}: events the broker dispatched to the hub after its last subscriber left, before the
+ * callback was removed from the broker</li>
+ * <li>{@code <name>.subscribers}: current subscribers</li>
+ * <li>{@code <name>.latency}: nanoseconds from the broker callback entering to the last {@code onNext} returning,
+ * the snapshot covers the dispatches since the previous one, i.e. per reporting interval</li>
+ * </ul>
+ */
+final class StreamMetrics {
+    private final String name;
+    private final StripedCounter events = new StripedCounter();
+    private final StripedCounter unobserved = new StripedCounter();
+    private final Histogram latency = new Histogram(LatencyReservoir.resetting());
+
+    private StreamMetrics(@NonNull final String name) {
+        this.name = name;
+    }
+
+    @NonNull
+    static StreamMetrics register(@NonNull final MetricRegistry metricRegistry,
+                                  @NonNull final String name,
+                                  @NonNull final CallbackHub<?> hub) {
+        final StreamMetrics metrics = new StreamMetrics(name);
+        metricRegistry.register(MetricRegistry.name(name, "events"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return metrics.events.sum();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(name, "unobserved"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return metrics.unobserved.sum();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(name, "subscribers"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return hub.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(name, "latency"), metrics.latency);
+        return metrics;
+    }
+
+    void unregister(@NonNull final MetricRegistry metricRegistry) {
+        metricRegistry.remove(MetricRegistry.name(name, "events"));
+        metricRegistry.remove(MetricRegistry.name(name, "unobserved"));
+        metricRegistry.remove(MetricRegistry.name(name, "subscribers"));
+        metricRegistry.remove(MetricRegistry.name(name, "latency"));
+    }
+
+    /**
+     * @param subscribers subscriber callbacks the event is dispatched to
+     * @return the start of the dispatch
+     */
+    long start(final int subscribers) {
+        if (subscribers == 0) {
+            unobserved.increment();
+        }
+        return System.nanoTime();
+    }
+
+    void end(final long start) {
+        latency.update(System.nanoTime() - start);
+        events.increment();
+    }
+
+    long getEventCount() {
+        return events.sum();
+    }
+
+    long getUnobservedCount() {
+        return unobserved.sum();
+    }
+}
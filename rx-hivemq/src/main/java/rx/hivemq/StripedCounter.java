@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading the increments of the broker threads over cache line padded cells, for Java 7 where
+ * there is no {@code LongAdder}.
+ *
+ * A thread always hits the same cell, picked by its id, so the cells are only contended by threads
+ * sharing an id hash.
+ */
+final class StripedCounter {
+    /**
+     * Longs per 64 byte cache line, cells are a line apart.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(final long x) {
+        cells.getAndAdd(cell(), x);
+    }
+
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the sum, increments racing with the reset are left for the next sum
+     */
+    long sumThenReset() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.getAndSet(i, 0L);
+        }
+        return sum;
+    }
+
+    private int cell() {
+        final long id = Thread.currentThread().getId();
+        final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) * PADDING;
+    }
+}
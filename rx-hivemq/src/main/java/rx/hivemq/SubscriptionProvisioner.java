@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.hivemq.spi.message.Topic;
+import com.hivemq.spi.services.AsyncSubscriptionStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Adds subscriptions through the {@link AsyncSubscriptionStore} with a bounded number of store round-trips
+ * in flight, the rest wait in a queue.
+ *
+ * A (client id, topic, QoS) that is already queued or in flight is not added again, the caller shares the pending
+ * result. The same topic with another QoS is added on its own. The topics of one
+ * {@link #provision(String, Collection)} call make up a single round-trip, the SPI has no bulk subscription call
+ * so it takes one permit for all its {@code addSubscription} calls.
+ *
+ * The store call isn't cancelled by disposing the returned {@link Completable}, other callers may share it.
+ */
+public final class SubscriptionProvisioner {
+    private final AsyncSubscriptionStore subscriptionStore;
+    private final int maxInFlight;
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<Batch>();
+    private final Map<Key, Batch> pending = new HashMap<Key, Batch>();
+    private int inFlight;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicLong provisioned = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private SubscriptionProvisioner(@NonNull final AsyncSubscriptionStore subscriptionStore, final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight > 0 required but it was " + maxInFlight);
+        }
+        this.subscriptionStore = subscriptionStore;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param subscriptionStore
+     * @param maxInFlight store round-trips in flight
+     * @return
+     */
+    @NonNull
+    public static SubscriptionProvisioner create(@NonNull final AsyncSubscriptionStore subscriptionStore,
+                                                 final int maxInFlight) {
+        return new SubscriptionProvisioner(subscriptionStore, maxInFlight);
+    }
+
+    /**
+     * @param clientId
+     * @param topic
+     * @return completes once the subscription is added
+     */
+    @NonNull
+    @CheckReturnValue
+    public Completable provision(@NonNull final String clientId, @NonNull final Topic topic) {
+        return provision(clientId, Collections.singletonList(topic));
+    }
+
+    /**
+     * @param clientId
+     * @param topics added in one round-trip
+     * @return completes once all the subscriptions are added
+     */
+    @NonNull
+    @CheckReturnValue
+    public Completable provision(@NonNull final String clientId, @NonNull final Collection<Topic> topics) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() throws Exception {
+                final Completable completable = enqueue(clientId, topics);
+                drain();
+                return completable;
+            }
+        });
+    }
+
+    private synchronized Completable enqueue(final String clientId, final Collection<Topic> topics) {
+        final List<CompletableSource> shared = new ArrayList<CompletableSource>(1);
+        Batch batch = null;
+        for (final Topic topic : topics) {
+            final Key key = new Key(clientId, topic);
+            final Batch current = pending.get(key);
+            if (current != null) {
+                coalesced.incrementAndGet();
+                if (!shared.contains(current.result)) {
+                    shared.add(current.result);
+                }
+                continue;
+            }
+            if (batch == null) {
+                batch = new Batch(clientId);
+                shared.add(batch.result);
+            }
+            batch.keys.add(key);
+            pending.put(key, batch);
+        }
+        if (batch != null) {
+            queue.offer(batch);
+        }
+        return shared.size() == 1 ? Completable.wrap(shared.get(0)) : Completable.merge(shared);
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (;;) {
+            for (;;) {
+                final Batch batch;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight || queue.isEmpty()) {
+                        break;
+                    }
+                    batch = queue.poll();
+                    inFlight++;
+                }
+                start(batch);
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void start(final Batch batch) {
+        final List<ListenableFuture<Void>> futures = new ArrayList<ListenableFuture<Void>>(batch.keys.size());
+        try {
+            for (final Key key : batch.keys) {
+                futures.add(subscriptionStore.addSubscription(batch.clientId, key.topic));
+            }
+        } catch (Throwable e) {
+            futures.add(Futures.<Void>immediateFailedFuture(e));
+        }
+        Futures.addCallback(Futures.allAsList(futures), new FutureCallback<List<Void>>() {
+            @Override
+            public void onSuccess(final List<Void> result) {
+                complete(batch);
+                provisioned.addAndGet(batch.keys.size());
+                batch.result.onComplete();
+                drain();
+            }
+
+            @Override
+            public void onFailure(@NonNull final Throwable e) {
+                complete(batch);
+                failed.addAndGet(batch.keys.size());
+                batch.result.onError(e);
+                drain();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void complete(final Batch batch) {
+        final long latency = System.nanoTime() - batch.enqueued;
+        roundTrips.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        for (;;) {
+            final long max = maxLatencyNanos.get();
+            if (latency <= max || maxLatencyNanos.compareAndSet(max, latency)) {
+                break;
+            }
+        }
+        synchronized (this) {
+            inFlight--;
+            for (final Key key : batch.keys) {
+                pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return round-trips waiting for a permit
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return round-trips in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return subscriptions added so far
+     */
+    public long getProvisionedCount() {
+        return provisioned.get();
+    }
+
+    /**
+     * @return requests that shared a pending subscription instead of adding it again
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return subscriptions the store failed to add
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @param unit
+     * @return mean time from the request to the completed round-trip, queueing included
+     */
+    public long getMeanLatency(@NonNull final TimeUnit unit) {
+        final long count = roundTrips.get();
+        return count == 0 ? 0L : unit.convert(totalLatencyNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit
+     * @return maximum time from the request to the completed round-trip, queueing included
+     */
+    public long getMaxLatency(@NonNull final TimeUnit unit) {
+        return unit.convert(maxLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private static final class Batch {
+        final String clientId;
+        final List<Key> keys = new ArrayList<Key>(1);
+        final CompletableSubject result = CompletableSubject.create();
+        final long enqueued = System.nanoTime();
+
+        Batch(final String clientId) {
+            this.clientId = clientId;
+        }
+    }
+
+    private static final class Key {
+        final String clientId;
+        final Topic topic;
+
+        Key(final String clientId, final Topic topic) {
+            this.clientId = clientId;
+            this.topic = topic;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            // Topic.equals ignores the QoS
+            return clientId.equals(key.clientId) && topic.equals(key.topic) && topic.getQoS() == key.topic.getQoS();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * clientId.hashCode() + topic.hashCode()) + topic.getQoS().hashCode();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Hashed timer wheel for intervals below the one second granularity of the broker's cron schedules.
+ *
+ * A single thread advances the wheel every tick and fires the timers of the bucket it reaches, timers a full
+ * rotation or more ahead wait their rounds. Scheduling only enqueues the timer for the wheel thread and
+ * cancelling only flags it, so neither takes a lock. Timers fire on the wheel thread, move heavy work off it with
+ * {@code observeOn}. Intervals are rounded up to whole ticks, their lateness is reported by each
+ * {@link ScheduledTick}.
+ */
+public final class TimerWheel implements Disposable {
+    static final long DEFAULT_TICK_MILLIS = 10L;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int IDLE = 0;
+    private static final int STARTED = 1;
+    private static final int DISPOSED = 2;
+
+    private final long tickNanos;
+    private final Timer[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<Timer> pending = new ConcurrentLinkedQueue<Timer>();
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile Thread thread;
+
+    /**
+     * Wheel thread only.
+     */
+    private long startNanos;
+    private long tick;
+    private Timer rescheduled;
+
+    private TimerWheel(final long tickNanos, final int wheelSize, @NonNull final Executor executor) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickDuration > 0 required but it was " + tickNanos);
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize > 0 required but it was " + wheelSize);
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = tickNanos;
+        this.wheel = new Timer[size];
+        this.mask = size - 1;
+        this.executor = executor;
+    }
+
+    /**
+     * @return a wheel of 512 ticks of 10 ms on a daemon thread of its own
+     */
+    @NonNull
+    public static TimerWheel create() {
+        return create(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                final Thread thread = new Thread(command, "rx-hivemq-timer-wheel");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        });
+    }
+
+    /**
+     * @param tickDuration
+     * @param unit
+     * @param wheelSize buckets, rounded up to a power of two
+     * @param executor runs the wheel on one of its threads from the first timer until disposed, e.g. the
+     *                 {@link com.hivemq.spi.services.PluginExecutorService}
+     * @return
+     */
+    @NonNull
+    public static TimerWheel create(final long tickDuration,
+                                    @NonNull final TimeUnit unit,
+                                    final int wheelSize,
+                                    @NonNull final Executor executor) {
+        return new TimerWheel(unit.toNanos(tickDuration), wheelSize, executor);
+    }
+
+    /**
+     * Fires at a fixed rate from subscribing on, a tick missed entirely is skipped rather than fired late.
+     *
+     * @param period
+     * @param unit
+     * @return completes once the wheel is disposed
+     */
+    @NonNull
+    @CheckReturnValue
+    public Observable<ScheduledTick> intervals(final long period, @NonNull final TimeUnit unit) {
+        final long periodNanos = unit.toNanos(period);
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("period > 0 required but it was " + period);
+        }
+        return Observable.create(new ObservableOnSubscribe<ScheduledTick>() {
+            @Override
+            public void subscribe(@NonNull final ObservableEmitter<ScheduledTick> emitter) throws Exception {
+                final Timer timer = new Timer(emitter, System.nanoTime() + periodNanos, periodNanos);
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        timer.cancelled = true;
+                    }
+                });
+                schedule(timer);
+            }
+        });
+    }
+
+    private void schedule(final Timer timer) {
+        if (state.get() == DISPOSED) {
+            timer.emitter.onComplete();
+            return;
+        }
+        pending.offer(timer);
+        if (state.compareAndSet(IDLE, STARTED)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            });
+        }
+        if (state.get() == DISPOSED && pending.remove(timer)) {
+            timer.emitter.onComplete();
+        }
+    }
+
+    private void loop() {
+        thread = Thread.currentThread();
+        startNanos = System.nanoTime();
+        while (state.get() == STARTED) {
+            final long deadline = startNanos + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (now < deadline) {
+                LockSupport.parkNanos(this, deadline - now);
+                if (state.get() != STARTED) {
+                    break;
+                }
+                now = System.nanoTime();
+            }
+            if (state.get() != STARTED) {
+                break;
+            }
+            transfer();
+            expire((int) tick & mask, now);
+            tick++;
+        }
+        complete();
+    }
+
+    private void transfer() {
+        for (Timer timer = pending.poll(); timer != null; timer = pending.poll()) {
+            if (!timer.cancelled) {
+                place(timer);
+            }
+        }
+    }
+
+    /**
+     * Puts the timer in the bucket of the first tick at or past its deadline, the current one if already due.
+     */
+    private void place(final Timer timer) {
+        final long due = Math.max(tick, (timer.deadline - startNanos + tickNanos - 1) / tickNanos - 1);
+        timer.rounds = (due - tick) / wheel.length;
+        final int slot = (int) due & mask;
+        timer.next = wheel[slot];
+        wheel[slot] = timer;
+    }
+
+    private void expire(final int slot, final long now) {
+        Timer previous = null;
+        Timer timer = wheel[slot];
+        while (timer != null) {
+            final Timer next = timer.next;
+            if (timer.cancelled || timer.rounds <= 0) {
+                if (previous == null) {
+                    wheel[slot] = next;
+                } else {
+                    previous.next = next;
+                }
+                if (!timer.cancelled) {
+                    fire(timer, now);
+                }
+            } else {
+                timer.rounds--;
+                previous = timer;
+            }
+            timer = next;
+        }
+        Timer fired = rescheduled;
+        rescheduled = null;
+        while (fired != null) {
+            final Timer next = fired.next;
+            place(fired);
+            fired = next;
+        }
+    }
+
+    private void fire(final Timer timer, final long now) {
+        try {
+            timer.emitter.onNext(new ScheduledTick(timer.sequence++, System.currentTimeMillis(),
+                    now - timer.deadline));
+        } catch (Throwable e) {
+            RxJavaPlugins.onError(e);
+        }
+        if (timer.cancelled) {
+            return;
+        }
+        timer.deadline += timer.period;
+        if (timer.deadline <= now) {
+            timer.deadline += ((now - timer.deadline) / timer.period + 1) * timer.period;
+        }
+        timer.next = rescheduled;
+        rescheduled = timer;
+    }
+
+    private void complete() {
+        for (int slot = 0; slot < wheel.length; slot++) {
+            for (Timer timer = wheel[slot]; timer != null; timer = timer.next) {
+                timer.emitter.onComplete();
+            }
+            wheel[slot] = null;
+        }
+        for (Timer timer = pending.poll(); timer != null; timer = pending.poll()) {
+            timer.emitter.onComplete();
+        }
+    }
+
+    /**
+     * Stops the wheel, the interval streams complete.
+     */
+    @Override
+    public void dispose() {
+        if (state.getAndSet(DISPOSED) == IDLE) {
+            complete();
+        }
+        final Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return state.get() == DISPOSED;
+    }
+
+    static final class Timer {
+        final ObservableEmitter<ScheduledTick> emitter;
+        final long period;
+        long deadline;
+        long rounds;
+        long sequence;
+        Timer next;
+        volatile boolean cancelled;
+
+        Timer(@NonNull final ObservableEmitter<ScheduledTick> emitter, final long deadline, final long period) {
+            this.emitter = emitter;
+            this.deadline = deadline;
+            this.period = period;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.callback.security.OnAuthorizationCallback;
+import com.hivemq.spi.callback.security.authorization.AuthorizationBehaviour;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.topic.MqttTopicPermission;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Answers the {@link OnAuthorizationCallback} with permissions computed once per client, and decides topics
+ * against them for checks of the plugin itself, e.g. before publishing on behalf of a client.
+ *
+ * The permissions and the decisions are cached by client id until the client connects again or disconnects,
+ * see {@link RxHiveMQ#connectEvents} and {@link RxHiveMQ#clientDisconnects}. The decisions of a client are
+ * kept per topic, the topic strings are interned across clients, a repeated decision is a map lookup without
+ * allocation. Like the broker, the first permission implying the topic decides, the default behaviour applies
+ * if none does.
+ *
+ * The permissions are awaited up to the timeout on the calling thread, which is a broker thread for the
+ * {@link OnAuthorizationCallback}, so they should be computed asynchronously. If they fail or time out, the error
+ * is reported to {@link RxJavaPlugins#onError(Throwable)} and the default behaviour applies, without caching, until
+ * a later check gets them.
+ */
+public final class TopicAuthorizer implements Disposable {
+    public static final int DEFAULT_MAX_TOPICS_PER_CLIENT = 1024;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000L;
+
+    private static final AuthorizationBehaviour[] BEHAVIOURS = {
+            null, AuthorizationBehaviour.ACCEPT, AuthorizationBehaviour.DENY, AuthorizationBehaviour.NEXT
+    };
+    /**
+     * Decision slots of a topic, 2 bits each: publish per QoS and retain flag, then subscribe per QoS.
+     */
+    private static final int SUBSCRIBE_SLOT = 6;
+    private static final int GENERATIONS = 64;
+
+    private final Function<? super ClientData, ? extends SingleSource<List<MqttTopicPermission>>> permissions;
+    private final AuthorizationBehaviour defaultBehaviour;
+    private final int maxTopicsPerClient;
+    private final long timeoutNanos;
+    private final ConcurrentMap<String, ClientPermissions> clients = new ConcurrentHashMap<String, ClientPermissions>();
+    /**
+     * Invalidations per stripe of client ids, a load overlapping one of its client doesn't stay cached.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+    private final Interner<String> topics = Interners.newWeakInterner();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private TopicAuthorizer(@NonNull final Function<? super ClientData,
+                                    ? extends SingleSource<List<MqttTopicPermission>>> permissions,
+                            @NonNull final AuthorizationBehaviour defaultBehaviour,
+                            final int maxTopicsPerClient,
+                            final long timeoutNanos) {
+        if (timeoutNanos <= 0) {
+            throw new IllegalArgumentException("timeout > 0 required but it was " + timeoutNanos);
+        }
+        this.permissions = permissions;
+        this.defaultBehaviour = defaultBehaviour;
+        this.maxTopicsPerClient = maxTopicsPerClient;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param permissions of a client, e.g. from a local rules file
+     * @param defaultBehaviour if no permission implies the topic
+     * @return
+     */
+    @NonNull
+    public static TopicAuthorizer create(@NonNull final CallbackRegistry callbackRegistry,
+                                         final int priority,
+                                         @NonNull final Function<? super ClientData,
+                                                 ? extends SingleSource<List<MqttTopicPermission>>> permissions,
+                                         @NonNull final AuthorizationBehaviour defaultBehaviour) {
+        return create(callbackRegistry, priority, permissions, defaultBehaviour, DEFAULT_MAX_TOPICS_PER_CLIENT);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param permissions of a client, e.g. from a local rules file
+     * @param defaultBehaviour if no permission implies the topic
+     * @param maxTopicsPerClient decided topics cached per client, further topics are decided uncached
+     * @return an authorizer registered until disposed
+     */
+    @NonNull
+    public static TopicAuthorizer create(@NonNull final CallbackRegistry callbackRegistry,
+                                         final int priority,
+                                         @NonNull final Function<? super ClientData,
+                                                 ? extends SingleSource<List<MqttTopicPermission>>> permissions,
+                                         @NonNull final AuthorizationBehaviour defaultBehaviour,
+                                         final int maxTopicsPerClient) {
+        return create(callbackRegistry, priority, permissions, defaultBehaviour, maxTopicsPerClient,
+                DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param permissions of a client, e.g. from a local rules file
+     * @param defaultBehaviour if no permission implies the topic
+     * @param maxTopicsPerClient decided topics cached per client, further topics are decided uncached
+     * @param timeout to await the permissions of a client
+     * @param unit
+     * @return an authorizer registered until disposed
+     */
+    @NonNull
+    public static TopicAuthorizer create(@NonNull final CallbackRegistry callbackRegistry,
+                                         final int priority,
+                                         @NonNull final Function<? super ClientData,
+                                                 ? extends SingleSource<List<MqttTopicPermission>>> permissions,
+                                         @NonNull final AuthorizationBehaviour defaultBehaviour,
+                                         final int maxTopicsPerClient,
+                                         final long timeout,
+                                         @NonNull final TimeUnit unit) {
+        final TopicAuthorizer authorizer = new TopicAuthorizer(permissions, defaultBehaviour, maxTopicsPerClient,
+                unit.toNanos(timeout));
+        final OnAuthorizationCallback callback = new OnAuthorizationCallback() {
+            @Override
+            public List<MqttTopicPermission> getPermissionsForClient(@NonNull final ClientData clientData) {
+                return authorizer.permissions(clientData).permissions;
+            }
+
+            @Override
+            public AuthorizationBehaviour getDefaultBehaviour() {
+                return defaultBehaviour;
+            }
+
+            @Override
+            public int priority() {
+                return priority;
+            }
+        };
+        authorizer.disposables.add(RxHiveMQ.connectEvents(callbackRegistry, priority, true)
+                .subscribe(new Consumer<ConnectEvent>() {
+                    @Override
+                    public void accept(@NonNull final ConnectEvent event) throws Exception {
+                        authorizer.invalidate(event.getClientId());
+                    }
+                }));
+        authorizer.disposables.add(RxHiveMQ.clientDisconnects(callbackRegistry)
+                .subscribe(new Consumer<RxHiveMQ.Pair<ClientData, Boolean>>() {
+                    @Override
+                    public void accept(@NonNull final RxHiveMQ.Pair<ClientData, Boolean> pair) throws Exception {
+                        authorizer.invalidate(pair.left.getClientId());
+                    }
+                }));
+        authorizer.disposables.add(Disposables.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                callbackRegistry.removeCallback(callback);
+            }
+        }));
+        callbackRegistry.addCallback(callback);
+        return authorizer;
+    }
+
+    private ClientPermissions permissions(final ClientData clientData) {
+        final String clientId = clientData.getClientId();
+        final ClientPermissions current = clients.get(clientId);
+        if (current != null) {
+            return current;
+        }
+        final int stripe = (clientId.hashCode() & Integer.MAX_VALUE) % GENERATIONS;
+        final long generation = generations.get(stripe);
+        final List<MqttTopicPermission> list;
+        try {
+            list = Single.wrap(permissions.apply(clientData))
+                    .timeout(timeoutNanos, TimeUnit.NANOSECONDS)
+                    .blockingGet();
+        } catch (Throwable e) {
+            RxJavaPlugins.onError(new IllegalStateException("Unable to get the permissions of " + clientId, e));
+            return new ClientPermissions(Collections.<MqttTopicPermission>emptyList());
+        }
+        final ClientPermissions created = new ClientPermissions(list);
+        final ClientPermissions previous = clients.putIfAbsent(clientId, created);
+        if (previous != null) {
+            return previous;
+        }
+        if (generations.get(stripe) != generation) {
+            clients.remove(clientId, created);
+        }
+        return created;
+    }
+
+    /**
+     * @param clientData
+     * @return the cached permissions of the client
+     */
+    @NonNull
+    public List<MqttTopicPermission> getPermissions(@NonNull final ClientData clientData) {
+        return permissions(clientData).permissions;
+    }
+
+    /**
+     * @param clientData
+     * @param topic
+     * @param qos
+     * @param retain
+     * @return
+     */
+    @NonNull
+    public AuthorizationBehaviour authorizePublish(@NonNull final ClientData clientData,
+                                                   @NonNull final String topic,
+                                                   @NonNull final QoS qos,
+                                                   final boolean retain) {
+        return authorize(clientData, topic, qos, MqttTopicPermission.ACTIVITY.PUBLISH, retain,
+                qos.getQosNumber() * 2 + (retain ? 1 : 0));
+    }
+
+    /**
+     * @param clientData
+     * @param topic
+     * @param qos
+     * @return
+     */
+    @NonNull
+    public AuthorizationBehaviour authorizeSubscription(@NonNull final ClientData clientData,
+                                                        @NonNull final String topic,
+                                                        @NonNull final QoS qos) {
+        return authorize(clientData, topic, qos, MqttTopicPermission.ACTIVITY.SUBSCRIBE, false,
+                SUBSCRIBE_SLOT + qos.getQosNumber());
+    }
+
+    private AuthorizationBehaviour authorize(final ClientData clientData,
+                                             final String topic,
+                                             final QoS qos,
+                                             final MqttTopicPermission.ACTIVITY activity,
+                                             final boolean retain,
+                                             final int slot) {
+        final ClientPermissions client = permissions(clientData);
+        final int shift = slot * 2;
+        AtomicInteger decisions = client.decisions.get(topic);
+        if (decisions != null) {
+            final int code = (decisions.get() >>> shift) & 3;
+            if (code != 0) {
+                hits.increment();
+                return BEHAVIOURS[code];
+            }
+        }
+        misses.increment();
+        final AuthorizationBehaviour behaviour = evaluate(client.permissions, topic, qos, activity, retain);
+        if (decisions == null && client.decisions.size() < maxTopicsPerClient) {
+            final AtomicInteger created = new AtomicInteger();
+            final AtomicInteger previous = client.decisions.putIfAbsent(topics.intern(topic), created);
+            decisions = previous != null ? previous : created;
+        }
+        if (decisions != null) {
+            final int bits = (behaviour.ordinal() + 1) << shift;
+            for (;;) {
+                final int current = decisions.get();
+                if (decisions.compareAndSet(current, current | bits)) {
+                    break;
+                }
+            }
+        }
+        return behaviour;
+    }
+
+    private AuthorizationBehaviour evaluate(final List<MqttTopicPermission> permissions,
+                                            final String topic,
+                                            final QoS qos,
+                                            final MqttTopicPermission.ACTIVITY activity,
+                                            final boolean retain) {
+        for (final MqttTopicPermission permission : permissions) {
+            final boolean implied = activity == MqttTopicPermission.ACTIVITY.PUBLISH
+                    ? permission.implies(topic, qos, activity, retain)
+                    : permission.implies(topic, qos, activity);
+            if (implied) {
+                return permission.getType() == MqttTopicPermission.TYPE.ALLOW
+                        ? AuthorizationBehaviour.ACCEPT : AuthorizationBehaviour.DENY;
+            }
+        }
+        return defaultBehaviour;
+    }
+
+    /**
+     * Forgets the permissions and decisions of the client, e.g. after changing its rules.
+     *
+     * @param clientId
+     */
+    public void invalidate(@NonNull final String clientId) {
+        generations.incrementAndGet((clientId.hashCode() & Integer.MAX_VALUE) % GENERATIONS);
+        clients.remove(clientId);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations.incrementAndGet(i);
+        }
+        clients.clear();
+    }
+
+    /**
+     * @return decisions answered from the cache so far
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return decisions evaluated against the permissions so far
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public void dispose() {
+        disposables.dispose();
+        clients.clear();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposables.isDisposed();
+    }
+
+    private static final class ClientPermissions {
+        final List<MqttTopicPermission> permissions;
+        final ConcurrentMap<String, AtomicInteger> decisions = new ConcurrentHashMap<String, AtomicInteger>();
+
+        ClientPermissions(final List<MqttTopicPermission> permissions) {
+            this.permissions = permissions;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.callback.exception.OnPublishReceivedException;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.annotations.NonNull;
+
+/**
+ * Routes the PUBLISHes of a {@link CallbackHub.PublishReceivedHub} to the subscriber callbacks whose MQTT
+ * topic filter matches, through a trie of the filters of all subscribers.
+ *
+ * An incoming topic is matched once, walking one trie level per topic level, instead of once per subscriber.
+ * Subscribing and unsubscribing is serialized, matching runs lock-free on the broker threads.
+ * {@link #matches(String[], String)} applies the same rules to a single topic filter.
+ */
+final class TopicFilterIndex implements OnPublishReceivedCallback {
+    private static final OnPublishReceivedCallback[] EMPTY = new OnPublishReceivedCallback[0];
+
+    private final CallbackHub.PublishReceivedHub hub;
+    private final Node root = new Node(null, "");
+    private final ThreadLocal<Segment> segments = new ThreadLocal<Segment>() {
+        @Override
+        protected Segment initialValue() {
+            return new Segment();
+        }
+    };
+    private int size;
+
+    TopicFilterIndex(@NonNull final CallbackHub.PublishReceivedHub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the topic filter is invalid
+     */
+    static void validate(@NonNull final String topicFilter) {
+        if (topicFilter.isEmpty()) {
+            throw new IllegalArgumentException("Empty topic filter");
+        }
+        final String[] levels = topicFilter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            final String level = levels[i];
+            if (level.equals("#") && i != levels.length - 1) {
+                throw new IllegalArgumentException("'#' must be the last level of " + topicFilter);
+            }
+            if (level.length() > 1 && (level.indexOf('#') >= 0 || level.indexOf('+') >= 0)) {
+                throw new IllegalArgumentException("Wildcards must occupy a whole level of " + topicFilter);
+            }
+        }
+    }
+
+    /**
+     * @param topicFilter levels of a valid topic filter
+     * @param topic
+     * @return true if the topic filter matches the topic
+     */
+    static boolean matches(@NonNull final String[] topicFilter, @NonNull final String topic) {
+        if (topic.startsWith("$") && (topicFilter[0].equals("#") || topicFilter[0].equals("+"))) {
+            return false;
+        }
+        int start = 0;
+        for (final String level : topicFilter) {
+            if (level.equals("#")) {
+                return true;
+            }
+            if (start > topic.length()) {
+                return false;
+            }
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                end = topic.length();
+            }
+            if (!level.equals("+")
+                    && (level.length() != end - start || !topic.regionMatches(start, level, 0, end - start))) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return start > topic.length();
+    }
+
+    synchronized void add(@NonNull final String topicFilter, @NonNull final OnPublishReceivedCallback callback) {
+        Node node = root;
+        for (final String level : topicFilter.split("/", -1)) {
+            node = node.childOrCreate(level);
+        }
+        node.add(callback);
+        if (size++ == 0) {
+            hub.add(this);
+        }
+    }
+
+    synchronized void remove(@NonNull final String topicFilter, @NonNull final OnPublishReceivedCallback callback) {
+        Node node = root;
+        for (final String level : topicFilter.split("/", -1)) {
+            node = node.child(level);
+            if (node == null) {
+                return;
+            }
+        }
+        if (!node.remove(callback)) {
+            return;
+        }
+        while (node.parent != null && node.isEmpty()) {
+            node.parent.removeChild(node.level);
+            node = node.parent;
+        }
+        if (--size == 0) {
+            hub.remove(this);
+        }
+    }
+
+    @Override
+    public void onPublishReceived(@NonNull final PUBLISH publish, @NonNull final ClientData clientData)
+            throws OnPublishReceivedException {
+        final String topic = publish.getTopic();
+        match(root, topic, 0, !topic.startsWith("$"), segments.get(), publish, clientData);
+    }
+
+    /**
+     * @param start index of the next topic level, past the end of the topic once all levels are consumed
+     * @param wildcards false for the first level of $ topics, which wildcards don't match
+     */
+    private static void match(final Node node, final String topic, final int start, final boolean wildcards,
+                              final Segment segment, final PUBLISH publish, final ClientData clientData)
+            throws OnPublishReceivedException {
+        if (wildcards) {
+            final Node multi = node.child("#");
+            if (multi != null) {
+                multi.dispatch(publish, clientData);
+            }
+        }
+        if (start > topic.length()) {
+            node.dispatch(publish, clientData);
+            return;
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        final Node exact = node.child(segment.set(topic, start, end));
+        if (exact != null) {
+            match(exact, topic, end + 1, true, segment, publish, clientData);
+        }
+        if (wildcards) {
+            final Node single = node.child("+");
+            if (single != null) {
+                match(single, topic, end + 1, true, segment, publish, clientData);
+            }
+        }
+    }
+
+    @Override
+    public int priority() {
+        return hub.priority();
+    }
+
+    static final class Node {
+        final Node parent;
+        final String level;
+        volatile ConcurrentHashMap<String, Node> children;
+        volatile OnPublishReceivedCallback[] callbacks = EMPTY;
+
+        Node(final Node parent, final String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+
+        Node child(final Object level) {
+            final ConcurrentHashMap<String, Node> map = children;
+            return map != null ? map.get(level) : null;
+        }
+
+        Node childOrCreate(final String level) {
+            ConcurrentHashMap<String, Node> map = children;
+            if (map == null) {
+                map = new ConcurrentHashMap<String, Node>(4);
+                children = map;
+            }
+            Node node = map.get(level);
+            if (node == null) {
+                node = new Node(this, level);
+                map.put(level, node);
+            }
+            return node;
+        }
+
+        void removeChild(final String level) {
+            final ConcurrentHashMap<String, Node> map = children;
+            if (map != null) {
+                map.remove(level);
+                if (map.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            final ConcurrentHashMap<String, Node> map = children;
+            return callbacks.length == 0 && (map == null || map.isEmpty());
+        }
+
+        void add(final OnPublishReceivedCallback callback) {
+            final OnPublishReceivedCallback[] a = callbacks;
+            final OnPublishReceivedCallback[] b = Arrays.copyOf(a, a.length + 1);
+            b[a.length] = callback;
+            callbacks = b;
+        }
+
+        boolean remove(final OnPublishReceivedCallback callback) {
+            final List<OnPublishReceivedCallback> list =
+                    new ArrayList<OnPublishReceivedCallback>(Arrays.asList(callbacks));
+            if (!list.remove(callback)) {
+                return false;
+            }
+            callbacks = list.toArray(EMPTY);
+            return true;
+        }
+
+        void dispatch(final PUBLISH publish, final ClientData clientData) throws OnPublishReceivedException {
+            for (final OnPublishReceivedCallback callback : callbacks) {
+                callback.onPublishReceived(publish, clientData);
+            }
+        }
+    }
+
+    /**
+     * A topic level looked up in the children of a {@link Node} without a substring,
+     * equal to and hashed like the {@link String} of the level.
+     */
+    static final class Segment {
+        private String topic;
+        private int start;
+        private int end;
+        private int hash;
+
+        Segment set(final String topic, final int start, final int end) {
+            this.topic = topic;
+            this.start = start;
+            this.end = end;
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + topic.charAt(i);
+            }
+            this.hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            final String level = (String) o;
+            return level.length() == end - start && topic.regionMatches(start, level, 0, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return topic.substring(start, end);
+        }
+    }
+}
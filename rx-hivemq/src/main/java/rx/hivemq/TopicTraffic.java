@@ -0,0 +1,443 @@
+/*
+ * Copyright 2017 Andrew Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rx.hivemq;
+
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.callback.schedule.ScheduledCallback;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import com.hivemq.spi.security.ClientData;
+import com.hivemq.spi.services.PublishService;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.annotations.CheckReturnValue;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Messages and bytes per second received per topic prefix, over sliding windows of a second, a minute and
+ * five minutes.
+ *
+ * A PUBLISH costs a lookup of its prefix in a copy-on-write open addressing table, compared in place against
+ * the topic, and two increments of {@link StripedCounter}s, without locks nor allocations. Every tick, nominally
+ * a second, folds the counters into rings of {@value #RING_TICKS} buckets with running window sums and
+ * snapshots the {@link Stats}. Up to {@code maxPrefixes} prefixes are counted on their own, the others share
+ * {@value #OTHER_TOPICS}.
+ */
+public final class TopicTraffic implements Disposable {
+    /**
+     * Prefix of the topics beyond {@code maxPrefixes}.
+     */
+    public static final String OTHER_TOPICS = "#";
+    /**
+     * Cron expression of the tick, every second.
+     */
+    public static final String TICK = "* * * * * ?";
+
+    static final int MINUTE_TICKS = 60;
+    static final int RING_TICKS = 300;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Window {
+        SECOND(1),
+        MINUTE(MINUTE_TICKS),
+        FIVE_MINUTES(RING_TICKS);
+
+        private final int ticks;
+
+        Window(final int ticks) {
+            this.ticks = ticks;
+        }
+
+        public int getTicks() {
+            return ticks;
+        }
+    }
+
+    /**
+     * Rates of a prefix as of the latest tick.
+     */
+    public static final class Stats {
+        private final double[] messageRates;
+        private final double[] byteRates;
+
+        Stats(@NonNull final double[] messageRates, @NonNull final double[] byteRates) {
+            this.messageRates = messageRates;
+            this.byteRates = byteRates;
+        }
+
+        public double getMessagesPerSecond(@NonNull final Window window) {
+            return messageRates[window.ordinal()];
+        }
+
+        public double getBytesPerSecond(@NonNull final Window window) {
+            return byteRates[window.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{messages/s=" + Arrays.toString(messageRates) + ", bytes/s=" + Arrays.toString(byteRates) + "}";
+        }
+    }
+
+    private static final Stats EMPTY = new Stats(new double[3], new double[3]);
+
+    /**
+     * Counters of a prefix, the rings are only touched by the tick.
+     */
+    static final class Counter {
+        final String prefix;
+        final int hash;
+        final StripedCounter messages = new StripedCounter();
+        final StripedCounter bytes = new StripedCounter();
+        final long[] messageRing = new long[RING_TICKS];
+        final long[] byteRing = new long[RING_TICKS];
+        long messagesMinute;
+        long messagesTotal;
+        long bytesMinute;
+        long bytesTotal;
+        volatile Stats stats = EMPTY;
+
+        Counter(@NonNull final String prefix) {
+            this.prefix = prefix;
+            this.hash = prefix.hashCode();
+        }
+
+        void fold(final int tick, final long[] durations, final long durationMinute, final long durationTotal) {
+            final long m = messages.sumThenReset();
+            final long b = bytes.sumThenReset();
+            final int leaving = (tick + RING_TICKS - MINUTE_TICKS) % RING_TICKS;
+            messagesMinute += m - messageRing[leaving];
+            messagesTotal += m - messageRing[tick];
+            bytesMinute += b - byteRing[leaving];
+            bytesTotal += b - byteRing[tick];
+            messageRing[tick] = m;
+            byteRing[tick] = b;
+            stats = new Stats(new double[] {
+                    rate(m, durations[tick]), rate(messagesMinute, durationMinute), rate(messagesTotal, durationTotal)
+            }, new double[] {
+                    rate(b, durations[tick]), rate(bytesMinute, durationMinute), rate(bytesTotal, durationTotal)
+            });
+        }
+    }
+
+    private final int depth;
+    private final int maxPrefixes;
+    private final Counter other = new Counter(OTHER_TOPICS);
+    /**
+     * Open addressing by prefix hash, at most half full, replaced on every new prefix.
+     */
+    private volatile Counter[] table = new Counter[16];
+    private volatile Counter[] counters = new Counter[] {other};
+    private volatile boolean full;
+
+    private final long[] durations = new long[RING_TICKS];
+    private long durationMinute;
+    private long durationTotal;
+    private int tick;
+    private long lastTick;
+
+    private volatile Disposable disposable = Disposables.empty();
+
+    private TopicTraffic(final int depth, final int maxPrefixes, final long now) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth > 0 required but it was " + depth);
+        }
+        if (maxPrefixes <= 0) {
+            throw new IllegalArgumentException("maxPrefixes > 0 required but it was " + maxPrefixes);
+        }
+        this.depth = depth;
+        this.maxPrefixes = maxPrefixes;
+        this.lastTick = now;
+    }
+
+    /**
+     * @param depth topic levels of a prefix, e.g. {@code devices/device-1} of {@code devices/device-1/sensor} at 2
+     * @param maxPrefixes prefixes counted on their own
+     * @return statistics fed by {@link #record(String, int)} and {@link #tick()}
+     */
+    @NonNull
+    public static TopicTraffic create(final int depth, final int maxPrefixes) {
+        return new TopicTraffic(depth, maxPrefixes, System.nanoTime());
+    }
+
+    @NonNull
+    static TopicTraffic create(final int depth, final int maxPrefixes, final long now) {
+        return new TopicTraffic(depth, maxPrefixes, now);
+    }
+
+    /**
+     * @param callbackRegistry
+     * @param priority
+     * @param depth topic levels of a prefix, e.g. {@code devices/device-1} of {@code devices/device-1/sensor} at 2
+     * @param maxPrefixes prefixes counted on their own
+     * @return statistics of the PUBLISHes received from now on, ticked every second by a {@link ScheduledCallback},
+     * dispose it to stop counting
+     */
+    @NonNull
+    public static TopicTraffic create(@NonNull final CallbackRegistry callbackRegistry,
+                                      final int priority,
+                                      final int depth,
+                                      final int maxPrefixes) {
+        final TopicTraffic traffic = new TopicTraffic(depth, maxPrefixes, System.nanoTime());
+        // Straight on the hubs, an Rx bridge would allocate a Pair per PUBLISH
+        final CallbackHub.PublishReceivedHub publishes = CallbackHub.publishReceived(callbackRegistry, priority);
+        final OnPublishReceivedCallback record = new OnPublishReceivedCallback() {
+            @Override
+            public void onPublishReceived(@NonNull final PUBLISH publish, @NonNull final ClientData clientData) {
+                traffic.record(publish.getTopic(), publish.getPayload().length);
+            }
+
+            @Override
+            public int priority() {
+                return priority;
+            }
+        };
+        final CallbackHub.ScheduledHub ticks = CallbackHub.scheduled(callbackRegistry, TICK);
+        final ScheduledCallback tick = new ScheduledCallback() {
+            @Override
+            public void execute() {
+                traffic.tick();
+            }
+
+            @Override
+            public String cronExpression() {
+                return TICK;
+            }
+        };
+        traffic.disposable = Disposables.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                publishes.remove(record);
+                ticks.remove(tick);
+            }
+        });
+        publishes.add(record);
+        ticks.add(tick);
+        return traffic;
+    }
+
+    /**
+     * @param topic
+     * @param bytes payload size
+     */
+    public void record(@NonNull final String topic, final int bytes) {
+        final Counter counter = counter(topic);
+        counter.messages.increment();
+        counter.bytes.add(bytes);
+    }
+
+    public void tick() {
+        tick(System.nanoTime());
+    }
+
+    synchronized void tick(final long now) {
+        tick = (tick + 1) % RING_TICKS;
+        final long duration = now - lastTick;
+        lastTick = now;
+        durationMinute += duration - durations[(tick + RING_TICKS - MINUTE_TICKS) % RING_TICKS];
+        durationTotal += duration - durations[tick];
+        durations[tick] = duration;
+        for (final Counter counter : counters) {
+            counter.fold(tick, durations, durationMinute, durationTotal);
+        }
+    }
+
+    /**
+     * @param prefix
+     * @return the rates of the prefix as of the latest tick, null if it was never seen
+     */
+    @Nullable
+    public Stats getStats(@NonNull final String prefix) {
+        for (final Counter counter : counters) {
+            if (counter.prefix.equals(prefix)) {
+                return counter.stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the rates per prefix as of the latest tick, prefixes idle for five minutes are left out
+     */
+    @NonNull
+    public Map<String, Stats> getStats() {
+        final Counter[] counters = this.counters;
+        final Map<String, Stats> stats = new LinkedHashMap<String, Stats>(counters.length * 2);
+        for (final Counter counter : counters) {
+            final Stats current = counter.stats;
+            if (current.getMessagesPerSecond(Window.FIVE_MINUTES) > 0.0) {
+                stats.put(counter.prefix, current);
+            }
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Publishes the rates as a single retained QoS 0 message on each execution of the cron expression, as
+     * {@code {"prefix":[messages/s 1s,1m,5m,bytes/s 1s,1m,5m],...}}.
+     *
+     * @param callbackRegistry
+     * @param publishService
+     * @param topic e.g. {@code $SYS/rx-hivemq/traffic}, kept out of {@code #} subscriptions
+     * @param cronExpression
+     * @return never completes, dispose it to stop publishing
+     */
+    @NonNull
+    @CheckReturnValue
+    public Completable publishSummaries(@NonNull final CallbackRegistry callbackRegistry,
+                                       @NonNull final PublishService publishService,
+                                       @NonNull final String topic,
+                                       @NonNull final String cronExpression) {
+        return RxHiveMQ.scheduleds(callbackRegistry, cronExpression)
+                .doOnNext(new Consumer<String>() {
+                    @Override
+                    public void accept(@NonNull final String cron) throws Exception {
+                        final PUBLISH publish = new PUBLISH(summary().getBytes(UTF_8), topic, QoS.AT_MOST_ONCE);
+                        publish.setRetain(true);
+                        publishService.publish(publish);
+                    }
+                })
+                .ignoreElements();
+    }
+
+    @NonNull
+    String summary() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (final Map.Entry<String, Stats> entry : getStats().entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            quote(sb, entry.getKey()).append(":[");
+            final Stats stats = entry.getValue();
+            for (final Window window : Window.values()) {
+                sb.append(round(stats.getMessagesPerSecond(window))).append(',');
+            }
+            for (final Window window : Window.values()) {
+                sb.append(round(stats.getBytesPerSecond(window))).append(window == Window.FIVE_MINUTES ? ']' : ',');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public void dispose() {
+        disposable.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposable.isDisposed();
+    }
+
+    private Counter counter(final String topic) {
+        int end = 0;
+        int levels = 0;
+        int hash = 0;
+        final int length = topic.length();
+        for (; end < length; end++) {
+            final char c = topic.charAt(end);
+            if (c == '/' && ++levels == depth) {
+                break;
+            }
+            hash = 31 * hash + c;
+        }
+        final Counter[] table = this.table;
+        final int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            final Counter counter = table[slot];
+            if (counter == null) {
+                return full ? other : add(topic.substring(0, end));
+            }
+            if (counter.hash == hash && counter.prefix.length() == end
+                    && topic.regionMatches(0, counter.prefix, 0, end)) {
+                return counter;
+            }
+        }
+    }
+
+    private synchronized Counter add(final String prefix) {
+        for (final Counter counter : counters) {
+            if (counter.prefix.equals(prefix)) {
+                return counter;
+            }
+        }
+        if (full) {
+            return other;
+        }
+        final Counter counter = new Counter(prefix);
+        final Counter[] grown = Arrays.copyOf(counters, counters.length + 1);
+        grown[counters.length] = counter;
+        int capacity = table.length;
+        while (grown.length * 2 > capacity) {
+            capacity <<= 1;
+        }
+        final Counter[] rehashed = new Counter[capacity];
+        for (final Counter c : grown) {
+            if (c != other) {
+                int slot = mix(c.hash) & (capacity - 1);
+                while (rehashed[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                rehashed[slot] = c;
+            }
+        }
+        counters = grown;
+        table = rehashed;
+        full = grown.length > maxPrefixes;
+        return counter;
+    }
+
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static double rate(final long count, final long nanos) {
+        return nanos > 0L ? count * 1e9 / nanos : 0.0;
+    }
+
+    private static double round(final double rate) {
+        return Math.round(rate * 10.0) / 10.0;
+    }
+
+    private static StringBuilder quote(final StringBuilder sb, final String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+}
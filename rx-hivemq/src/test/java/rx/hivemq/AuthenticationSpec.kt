@@ -0,0 +1,81 @@
+package rx.hivemq
+
+import com.google.common.base.Optional
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.exception.AuthenticationException
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.callback.security.OnAuthenticationCallback
+import com.hivemq.spi.message.ReturnCode
+import com.hivemq.spi.security.ClientCredentialsData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.whenever
+import io.reactivex.Single
+import io.reactivex.functions.Function
+import io.reactivex.schedulers.Schedulers
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(JUnitPlatform::class)
+class AuthenticationSpec : Spek({
+    fun credentials(clientId: String, password: String): ClientCredentialsData {
+        val clientData = mock(ClientCredentialsData::class.java)
+        whenever(clientData.clientId).thenReturn(clientId)
+        whenever(clientData.username).thenReturn(Optional.of("user"))
+        whenever(clientData.passwordBytes).thenReturn(Optional.of(password.toByteArray()))
+        return clientData
+    }
+
+    describe("authentications") {
+        val verifications = AtomicInteger()
+        val authenticator = Function<ClientCredentialsData, Single<Boolean>> { clientData ->
+            Single.fromCallable {
+                verifications.incrementAndGet()
+                clientData.passwordBytes.get().contentEquals("secret".toByteArray())
+            }
+        }
+
+        it ("should verify the credentials once per cache entry") {
+            verifications.set(0)
+            val registry = mock(CallbackRegistry::class.java)
+            val cache = AuthenticationCache.create(100, 1, TimeUnit.MINUTES)
+            val ts = RxHiveMQ.authentications(registry, CallbackPriority.MEDIUM, authenticator,
+                    Schedulers.io(), 1, TimeUnit.SECONDS, cache).test()
+            val captor = argumentCaptor<OnAuthenticationCallback>()
+            verify(registry).addCallback(captor.capture())
+
+            assertThat(captor.firstValue.checkCredentials(credentials("a", "secret"))).isTrue()
+            assertThat(captor.firstValue.checkCredentials(credentials("a", "secret"))).isTrue()
+            assertThat(captor.firstValue.checkCredentials(credentials("a", "wrong"))).isFalse()
+            assertThat(captor.firstValue.checkCredentials(credentials("a", "wrong"))).isFalse()
+
+            assertThat(verifications.get()).isEqualTo(3)
+            assertThat(cache.hitCount).isEqualTo(1)
+            ts.assertValueCount(4)
+
+            cache.invalidate("a")
+            assertThat(cache.size()).isEqualTo(0)
+        }
+
+        it ("should refuse the client when the verification times out") {
+            val registry = mock(CallbackRegistry::class.java)
+            RxHiveMQ.authentications(registry, CallbackPriority.MEDIUM,
+                    Function<ClientCredentialsData, Single<Boolean>> { Single.never() },
+                    Schedulers.io(), 10, TimeUnit.MILLISECONDS,
+                    AuthenticationCache.create(100, 1, TimeUnit.MINUTES)).test()
+            val captor = argumentCaptor<OnAuthenticationCallback>()
+            verify(registry).addCallback(captor.capture())
+
+            val e = catchThrowable { captor.firstValue.checkCredentials(credentials("a", "secret")) }
+            assertThat(e).isInstanceOf(AuthenticationException::class.java)
+            assertThat((e as AuthenticationException).returnCode).isEqualTo(ReturnCode.REFUSED_SERVER_UNAVAILABLE)
+        }
+    }
+})
@@ -0,0 +1,104 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.exception.OnPublishReceivedException
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import io.reactivex.plugins.RxJavaPlugins
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class CallbackHubSpec : Spek({
+    describe("publishReceiveds") {
+        it ("should register a single broker callback for all subscribers") {
+            val registry = mock(CallbackRegistry::class.java)
+            val first = RxHiveMQ.publishReceiveds(registry, CallbackPriority.MEDIUM).test()
+            val second = RxHiveMQ.publishReceiveds(registry, CallbackPriority.MEDIUM).test()
+
+            val captor = argumentCaptor<OnPublishReceivedCallback>()
+            verify(registry, times(1)).addCallback(captor.capture())
+
+            val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_MOST_ONCE)
+            captor.firstValue.onPublishReceived(publish, mock(ClientData::class.java))
+
+            assertThat(first.values()).hasSize(1)
+            assertThat(second.values()).hasSize(1)
+            assertThat(first.values()[0].left).isSameAs(publish)
+        }
+
+        it ("should register one broker callback per priority") {
+            val registry = mock(CallbackRegistry::class.java)
+            RxHiveMQ.publishReceiveds(registry, CallbackPriority.MEDIUM).test()
+            RxHiveMQ.publishReceiveds(registry, CallbackPriority.HIGH).test()
+
+            verify(registry, times(2)).addCallback(any())
+        }
+
+        it ("should unregister the broker callback when the last subscriber leaves") {
+            val registry = mock(CallbackRegistry::class.java)
+            val first = RxHiveMQ.publishReceiveds(registry, CallbackPriority.LOW).test()
+            val second = RxHiveMQ.publishReceiveds(registry, CallbackPriority.LOW).test()
+
+            first.dispose()
+            verify(registry, never()).removeCallback(any())
+
+            second.dispose()
+            verify(registry, times(1)).removeCallback(any())
+
+            RxHiveMQ.publishReceiveds(registry, CallbackPriority.LOW).test()
+            verify(registry, times(2)).addCallback(any())
+        }
+
+        it ("should forget the hub along with its last subscriber") {
+            val registry = mock(CallbackRegistry::class.java)
+            val hub = CallbackHub.publishReceived(registry, CallbackPriority.LOW)
+            RxHiveMQ.publishReceiveds(registry, CallbackPriority.LOW).test().dispose()
+
+            assertThat(CallbackHub.publishReceived(registry, CallbackPriority.LOW)).isNotSameAs(hub)
+        }
+
+        it ("should call every subscriber callback and rethrow the rejection last") {
+            val registry = mock(CallbackRegistry::class.java)
+            val hub = CallbackHub.publishReceived(registry, CallbackPriority.HIGH)
+            val errors = mutableListOf<Throwable>()
+            RxJavaPlugins.setErrorHandler { errors.add(it) }
+            try {
+                val called = mutableListOf<String>()
+                fun callback(name: String, error: Exception?) = object : OnPublishReceivedCallback {
+                    override fun onPublishReceived(publish: PUBLISH, clientData: ClientData) {
+                        called.add(name)
+                        if (error != null) throw error
+                    }
+
+                    override fun priority() = CallbackPriority.HIGH
+                }
+                hub.add(callback("failing", IllegalStateException()))
+                hub.add(callback("rejecting", OnPublishReceivedException(false)))
+                hub.add(callback("last", null))
+
+                val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_MOST_ONCE)
+                assertThatThrownBy { hub.onPublishReceived(publish, mock(ClientData::class.java)) }
+                        .isInstanceOf(OnPublishReceivedException::class.java)
+                assertThat(called).containsExactly("failing", "rejecting", "last")
+                assertThat(errors).hasSize(1)
+                assertThat(errors[0]).isInstanceOf(IllegalStateException::class.java)
+            } finally {
+                RxJavaPlugins.reset()
+            }
+        }
+    }
+})
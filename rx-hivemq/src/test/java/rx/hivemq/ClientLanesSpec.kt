@@ -0,0 +1,48 @@
+package rx.hivemq
+
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.whenever
+import io.reactivex.Observable
+import io.reactivex.schedulers.Schedulers
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class ClientLanesSpec : Spek({
+    describe("observeOnClientLanes") {
+        it ("should keep the events of a client in order") {
+            val executor = Executors.newFixedThreadPool(4)
+            val clients = (0 until 10).map { id ->
+                val clientData = mock(ClientData::class.java)
+                whenever(clientData.clientId).thenReturn("client-$id")
+                clientData
+            }
+
+            val events = Observable.range(0, 1000)
+                    .map { RxHiveMQ.Pair(it, clients[it % clients.size]) }
+                    .compose(RxHiveMQ.observeOnClientLanes<Int>(Schedulers.from(executor), 4))
+                    .flatMap { lane -> lane.map { it } }
+                    .toList()
+                    .blockingGet()
+            executor.shutdown()
+            executor.awaitTermination(1, TimeUnit.SECONDS)
+
+            assertThat(events).hasSize(1000)
+            events.groupBy { it.right.clientId }.values.forEach { pairs ->
+                assertThat(pairs.map { it.left }).isSorted()
+            }
+        }
+
+        it ("should spread the client ids over the lanes") {
+            val lanes = (0 until 1000).map { ClientLanes.lane("client-$it", 8) }.toSet()
+
+            assertThat(lanes).containsOnly(0, 1, 2, 3, 4, 5, 6, 7)
+        }
+    }
+})
@@ -0,0 +1,72 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnConnectCallback
+import com.hivemq.spi.callback.events.OnDisconnectCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.CONNECT
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import com.nhaarman.mockito_kotlin.whenever
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class ConnectedClientIndexSpec : Spek({
+    fun client(clientId: String): ClientData {
+        val clientData = mock(ClientData::class.java)
+        whenever(clientData.clientId).thenReturn(clientId)
+        return clientData
+    }
+
+    describe("a connected client index") {
+        val registry = mock(CallbackRegistry::class.java)
+        val index = ConnectedClientIndex.create(registry, CallbackPriority.MEDIUM)
+        val captor = argumentCaptor<com.hivemq.spi.callback.Callback>()
+        verify(registry, times(2)).addCallback(captor.capture())
+        val connect = captor.allValues.filterIsInstance<OnConnectCallback>().first()
+        val disconnect = captor.allValues.filterIsInstance<OnDisconnectCallback>().first()
+
+        it ("should track connects and disconnects") {
+            connect.onConnect(CONNECT(), client("a"))
+            connect.onConnect(CONNECT(), client("b"))
+            disconnect.onDisconnect(client("a"), false)
+
+            assertThat(index.clientIds).containsExactly("b")
+            assertThat(String(index.toPayload())).isEqualTo("b,")
+        }
+
+        it ("should only rebuild the payload after membership changed") {
+            val payload = index.toPayload()
+            connect.onConnect(CONNECT(), client("b"))
+            assertThat(index.toPayload()).isSameAs(payload)
+
+            connect.onConnect(CONNECT(), client("c"))
+            assertThat(index.toPayload()).isNotSameAs(payload)
+            assertThat(String(index.toPayload()).split(",")).containsOnly("b", "c", "")
+        }
+
+        it ("should keep a client whose connection was taken over until its last disconnect") {
+            connect.onConnect(CONNECT(), client("d"))
+            connect.onConnect(CONNECT(), client("d"))
+            disconnect.onDisconnect(client("d"), false)
+
+            assertThat(index.contains("d")).isTrue()
+
+            disconnect.onDisconnect(client("d"), false)
+
+            assertThat(index.contains("d")).isFalse()
+        }
+
+        it ("should stop tracking once disposed") {
+            index.dispose()
+            verify(registry, times(2)).removeCallback(com.nhaarman.mockito_kotlin.any())
+        }
+    }
+})
@@ -0,0 +1,128 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.Callback
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.events.OnPublishSend
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import io.reactivex.schedulers.TestScheduler
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class DeliveryLatencySpec : Spek({
+    val publish = { topic: String, payload: String -> PUBLISH(payload.toByteArray(), topic, QoS.AT_LEAST_ONCE) }
+
+    describe("publishSends") {
+        it ("should emit every PUBLISH sent to a client") {
+            val registry = mock(CallbackRegistry::class.java)
+            val ts = RxHiveMQ.publishSends(registry).test()
+
+            val captor = argumentCaptor<OnPublishSend>()
+            verify(registry).addCallback(captor.capture())
+            val sent = publish("a/b", "hello")
+            captor.firstValue.onPublishSend(sent, mock(ClientData::class.java))
+
+            assertThat(ts.values()).hasSize(1)
+            assertThat(ts.values()[0].left).isSameAs(sent)
+        }
+    }
+
+    describe("a delivery latency tracker") {
+        it ("should time each delivery from the receipt of the same message") {
+            val latency = DeliveryLatency.create(1024, 10, TimeUnit.SECONDS, 16)
+            latency.received(publish("a/b", "1"), 1000L)
+            latency.received(publish("a/b", "2"), 2000L)
+
+            val copy = publish("a/b", "1")
+            copy.messageId = 42
+            latency.sent(copy, 1500L)
+            latency.sent(publish("a/b", "1"), 2500L)
+            latency.sent(publish("a/b", "2"), 2100L)
+
+            val snapshot = latency.getSnapshot("a/b")!!
+            assertThat(snapshot.size()).isEqualTo(3)
+            assertThat(snapshot.min).isLessThanOrEqualTo(100L)
+            assertThat(snapshot.max).isGreaterThanOrEqualTo(1500L)
+            assertThat(latency.matchedCount).isEqualTo(3)
+            assertThat(latency.unmatchedCount).isEqualTo(0)
+        }
+
+        it ("should not match expired or unknown messages") {
+            val latency = DeliveryLatency.create(1024, 1, TimeUnit.MILLISECONDS, 16)
+            latency.received(publish("a/b", "1"), 0L)
+
+            latency.sent(publish("a/b", "1"), TimeUnit.MILLISECONDS.toNanos(2))
+            latency.sent(publish("a/c", "1"), 10L)
+
+            assertThat(latency.matchedCount).isEqualTo(0)
+            assertThat(latency.unmatchedCount).isEqualTo(2)
+            assertThat(latency.getSnapshot("a/b")).isNull()
+        }
+
+        it ("should evict the oldest receipts once full") {
+            val latency = DeliveryLatency.create(1, 10, TimeUnit.SECONDS, 16)
+            for (i in 0 until 10000) {
+                latency.received(publish("a/b", i.toString()), i.toLong())
+            }
+
+            assertThat(latency.receivedCount).isEqualTo(10000)
+            assertThat(latency.evictedCount).isGreaterThan(0)
+            latency.sent(publish("a/b", "9999"), 10000L)
+            assertThat(latency.matchedCount).isEqualTo(1)
+        }
+
+        it ("should share a histogram beyond the topic limit") {
+            val latency = DeliveryLatency.create(1024, 10, TimeUnit.SECONDS, 2)
+            listOf("a", "b", "c", "d").forEach {
+                latency.received(publish(it, "1"), 0L)
+                latency.sent(publish(it, "1"), 10L)
+            }
+
+            assertThat(latency.snapshots.keys).containsOnly("a", "b", DeliveryLatency.OTHER_TOPICS)
+            assertThat(latency.getSnapshot(DeliveryLatency.OTHER_TOPICS)!!.size()).isEqualTo(2)
+        }
+
+        it ("should emit and reset the histograms every period") {
+            val latency = DeliveryLatency.create(1024, 10, TimeUnit.SECONDS, 16)
+            val scheduler = TestScheduler()
+            val ts = latency.snapshots(1, TimeUnit.SECONDS, scheduler).test()
+
+            latency.received(publish("a/b", "1"), 0L)
+            latency.sent(publish("a/b", "1"), 10L)
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+
+            assertThat(ts.values()).hasSize(2)
+            assertThat(ts.values()[0]["a/b"]!!.size()).isEqualTo(1)
+            assertThat(ts.values()[1]).isEmpty()
+        }
+
+        it ("should follow the broker callbacks until disposed") {
+            val registry = mock(CallbackRegistry::class.java)
+            val latency = DeliveryLatency.create(registry, CallbackPriority.HIGH, 1024, 10, TimeUnit.SECONDS, 16)
+
+            val captor = argumentCaptor<Callback>()
+            verify(registry, times(2)).addCallback(captor.capture())
+            val clientData = mock(ClientData::class.java)
+            (captor.allValues[0] as OnPublishReceivedCallback).onPublishReceived(publish("a/b", "1"), clientData)
+            (captor.allValues[1] as OnPublishSend).onPublishSend(publish("a/b", "1"), clientData)
+
+            assertThat(latency.matchedCount).isEqualTo(1)
+            latency.dispose()
+            verify(registry, times(2)).removeCallback(any())
+        }
+    }
+})
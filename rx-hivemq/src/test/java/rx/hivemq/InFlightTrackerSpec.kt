@@ -0,0 +1,140 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.Callback
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishSend
+import com.hivemq.spi.callback.lowlevel.OnPubackReceived
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBACK
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class InFlightTrackerSpec : Spek({
+    val publish = { qos: QoS, packetId: Int ->
+        val publish = PUBLISH("1".toByteArray(), "a/b", qos)
+        publish.messageId = packetId
+        publish
+    }
+    val inbound = InFlightTracker.Direction.INBOUND
+    val outbound = InFlightTracker.Direction.OUTBOUND
+
+    describe("pubackReceiveds") {
+        it ("should emit every PUBACK received from a client") {
+            val registry = mock(CallbackRegistry::class.java)
+            val ts = RxHiveMQ.pubackReceiveds(registry).test()
+
+            val captor = argumentCaptor<OnPubackReceived>()
+            verify(registry).addCallback(captor.capture())
+            captor.firstValue.onPubackReceived(PUBACK(7), mock(ClientData::class.java))
+
+            assertThat(ts.values()).hasSize(1)
+            assertThat(ts.values()[0].left.messageId).isEqualTo(7)
+            ts.dispose()
+            verify(registry).removeCallback(any())
+        }
+    }
+
+    describe("an in-flight tracker") {
+        it ("should complete QoS 1 flows on PUBACK") {
+            val tracker = InFlightTracker.create(16, 10, TimeUnit.SECONDS)
+            tracker.published(outbound, "c1", publish(QoS.AT_LEAST_ONCE, 1), 1000L)
+            tracker.published(outbound, "c2", publish(QoS.AT_LEAST_ONCE, 1), 1000L)
+            tracker.published(inbound, "c1", publish(QoS.AT_LEAST_ONCE, 1), 1000L)
+            tracker.published(outbound, "c1", publish(QoS.AT_MOST_ONCE, 0), 1000L)
+            assertThat(tracker.size()).isEqualTo(3)
+
+            tracker.acknowledged(outbound, "c1", 1, InFlightTracker.Awaiting.PUBACK, 1500L)
+
+            assertThat(tracker.size()).isEqualTo(2)
+            assertThat(tracker.completedCount).isEqualTo(1)
+            assertThat(tracker.getRoundTripSnapshot(outbound).max).isGreaterThanOrEqualTo(500L)
+            assertThat(tracker.getRoundTripSnapshot(inbound).size()).isEqualTo(0)
+        }
+
+        it ("should step QoS 2 flows through PUBREC, PUBREL and PUBCOMP") {
+            val tracker = InFlightTracker.create(16, 10, TimeUnit.SECONDS)
+            tracker.published(inbound, "c1", publish(QoS.EXACTLY_ONCE, 9), 0L)
+
+            tracker.acknowledged(inbound, "c1", 9, InFlightTracker.Awaiting.PUBCOMP, 10L)
+            assertThat(tracker.unmatchedCount).isEqualTo(1)
+
+            tracker.acknowledged(inbound, "c1", 9, InFlightTracker.Awaiting.PUBREC, 10L)
+            tracker.acknowledged(inbound, "c1", 9, InFlightTracker.Awaiting.PUBREL, 20L)
+            assertThat(tracker.size()).isEqualTo(1)
+            tracker.acknowledged(inbound, "c1", 9, InFlightTracker.Awaiting.PUBCOMP, 30L)
+
+            assertThat(tracker.size()).isEqualTo(0)
+            assertThat(tracker.completedCount).isEqualTo(1)
+            assertThat(tracker.getRoundTripSnapshot(inbound).size()).isEqualTo(1)
+        }
+
+        it ("should expire flows without progress") {
+            val tracker = InFlightTracker.create(16, 1, TimeUnit.MILLISECONDS)
+            val stale = TimeUnit.MILLISECONDS.toNanos(2)
+            tracker.published(outbound, "c1", publish(QoS.EXACTLY_ONCE, 1), 0L)
+            tracker.published(outbound, "c1", publish(QoS.AT_LEAST_ONCE, 2), stale)
+            tracker.acknowledged(outbound, "c1", 1, InFlightTracker.Awaiting.PUBREC, 0L)
+
+            val expired = tracker.expire(stale)
+
+            assertThat(expired).hasSize(1)
+            assertThat(expired[0].clientId).isEqualTo("c1")
+            assertThat(expired[0].packetId).isEqualTo(1)
+            assertThat(expired[0].direction).isEqualTo(outbound)
+            assertThat(expired[0].awaiting).isEqualTo(InFlightTracker.Awaiting.PUBREL)
+            assertThat(tracker.size()).isEqualTo(1)
+            assertThat(tracker.timedOutCount).isEqualTo(1)
+        }
+
+        it ("should grow past the expected flows and keep them all") {
+            val tracker = InFlightTracker.create(1, 10, TimeUnit.SECONDS)
+            for (i in 1..50000) {
+                tracker.published(outbound, "c" + i % 100, publish(QoS.AT_LEAST_ONCE, i % 65536), 0L)
+            }
+            assertThat(tracker.size()).isEqualTo(50000)
+
+            for (i in 1..50000 step 2) {
+                tracker.acknowledged(outbound, "c" + i % 100, i % 65536, InFlightTracker.Awaiting.PUBACK, 1L)
+            }
+            assertThat(tracker.size()).isEqualTo(25000)
+            assertThat(tracker.unmatchedCount).isEqualTo(0)
+
+            for (i in 2..50000 step 2) {
+                tracker.acknowledged(outbound, "c" + i % 100, i % 65536, InFlightTracker.Awaiting.PUBACK, 1L)
+            }
+            assertThat(tracker.size()).isEqualTo(0)
+            assertThat(tracker.completedCount).isEqualTo(50000)
+        }
+
+        it ("should follow the broker callbacks until disposed") {
+            val registry = mock(CallbackRegistry::class.java)
+            val tracker = InFlightTracker.create(registry, CallbackPriority.HIGH, 16, 10, TimeUnit.SECONDS)
+
+            val captor = argumentCaptor<Callback>()
+            verify(registry, times(10)).addCallback(captor.capture())
+            val clientData = mock(ClientData::class.java)
+            `when`(clientData.clientId).thenReturn("c1")
+            captor.allValues.filterIsInstance<OnPublishSend>().first()
+                    .onPublishSend(publish(QoS.AT_LEAST_ONCE, 3), clientData)
+            captor.allValues.filterIsInstance<OnPubackReceived>().first().onPubackReceived(PUBACK(3), clientData)
+
+            assertThat(tracker.completedCount).isEqualTo(1)
+            tracker.dispose()
+            verify(registry, times(10)).removeCallback(any())
+        }
+    }
+})
@@ -0,0 +1,99 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import io.reactivex.functions.BiConsumer
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.nio.ByteBuffer
+
+@RunWith(JUnitPlatform::class)
+class LastValueCacheSpec : Spek({
+    describe("a last value cache") {
+        it ("should keep the latest payload per topic") {
+            val cache = LastValueCache.create(16, 32)
+            cache.update("devices/1/sensor", "1".toByteArray())
+            cache.update("devices/1/sensor", "22".toByteArray())
+
+            assertThat(String(cache.get("devices/1/sensor"))).isEqualTo("22")
+            assertThat(cache.get("devices/2/sensor")).isNull()
+            assertThat(cache.size()).isEqualTo(1)
+
+            val dst = ByteBuffer.allocateDirect(32)
+            assertThat(cache.get("devices/1/sensor", dst)).isEqualTo(2)
+            assertThat(dst.position()).isEqualTo(2)
+            assertThat(cache.get("devices/2/sensor", dst)).isEqualTo(-1)
+        }
+
+        it ("should look up topics by wildcard filters") {
+            val cache = LastValueCache.create(16, 32)
+            listOf("devices/1/sensor", "devices/2/sensor", "devices/2/status", "devices", "\$SYS/uptime")
+                    .forEach { cache.update(it, it.toByteArray()) }
+
+            assertThat(cache.getAll("devices/+/sensor").keys).containsOnly("devices/1/sensor", "devices/2/sensor")
+            assertThat(cache.getAll("devices/#").keys)
+                    .containsOnly("devices", "devices/1/sensor", "devices/2/sensor", "devices/2/status")
+            assertThat(cache.getAll("#").keys).doesNotContain("\$SYS/uptime").hasSize(4)
+            assertThat(cache.getAll("+/uptime")).isEmpty()
+            assertThat(cache.getAll("\$SYS/#").keys).containsOnly("\$SYS/uptime")
+
+            val read = mutableMapOf<String, String>()
+            cache.forEach("devices/2/+", BiConsumer { topic, payload ->
+                val bytes = ByteArray(payload.remaining())
+                payload.get(bytes)
+                read[topic] = String(bytes)
+            })
+            assertThat(read).containsEntry("devices/2/status", "devices/2/status").hasSize(2)
+        }
+
+        it ("should evict the least recently updated topic") {
+            val cache = LastValueCache.create(2, 8)
+            cache.update("a", "1".toByteArray())
+            cache.update("b", "1".toByteArray())
+            cache.update("a", "2".toByteArray())
+            cache.update("c", "1".toByteArray())
+
+            assertThat(cache.contains("b")).isFalse()
+            assertThat(String(cache.get("a"))).isEqualTo("2")
+            assertThat(String(cache.get("c"))).isEqualTo("1")
+            assertThat(cache.getAll("#").keys).containsOnly("a", "c")
+            assertThat(cache.evictedCount).isEqualTo(1)
+            assertThat(cache.allocatedBytes).isEqualTo(16)
+        }
+
+        it ("should drop the value of a topic on an oversized payload") {
+            val cache = LastValueCache.create(2, 4)
+            cache.update("a", "1".toByteArray())
+
+            assertThat(cache.update("a", "12345".toByteArray())).isFalse()
+            assertThat(cache.contains("a")).isFalse()
+            assertThat(cache.oversizedCount).isEqualTo(1)
+            assertThat(cache.update("b", "1234".toByteArray())).isTrue()
+        }
+
+        it ("should cache the received PUBLISHes of the topic filter") {
+            val registry = mock(CallbackRegistry::class.java)
+            val cache = LastValueCache.create(registry, CallbackPriority.LOW, "devices/+/sensor", 16, 32)
+            val captor = argumentCaptor<OnPublishReceivedCallback>()
+            verify(registry).addCallback(captor.capture())
+
+            val clientData = mock(ClientData::class.java)
+            captor.firstValue.onPublishReceived(PUBLISH("21.5".toByteArray(), "devices/1/sensor", QoS.AT_MOST_ONCE), clientData)
+            captor.firstValue.onPublishReceived(PUBLISH("on".toByteArray(), "devices/1/status", QoS.AT_MOST_ONCE), clientData)
+
+            assertThat(String(cache.get("devices/1/sensor"))).isEqualTo("21.5")
+            assertThat(cache.contains("devices/1/status")).isFalse()
+            cache.dispose()
+        }
+    }
+})
@@ -0,0 +1,105 @@
+package rx.hivemq
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Histogram
+import com.codahale.metrics.MetricRegistry
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class MetricsSpec : Spek({
+    describe("enableMetrics") {
+        it ("should record the dispatches of the streams") {
+            val registry = mock(CallbackRegistry::class.java)
+            val metricRegistry = MetricRegistry()
+
+            val ts = RxHiveMQ.publishReceiveds(registry, CallbackPriority.MEDIUM).test()
+            RxHiveMQ.enableMetrics(registry, metricRegistry)
+
+            val captor = argumentCaptor<OnPublishReceivedCallback>()
+            verify(registry).addCallback(captor.capture())
+            val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_MOST_ONCE)
+            captor.firstValue.onPublishReceived(publish, mock(ClientData::class.java))
+            captor.firstValue.onPublishReceived(publish, mock(ClientData::class.java))
+            ts.assertValueCount(2)
+
+            val name = "rx-hivemq.publishReceiveds.${CallbackPriority.MEDIUM}"
+            assertThat((metricRegistry.metrics["$name.events"] as Gauge<*>).value).isEqualTo(2L)
+            assertThat((metricRegistry.metrics["$name.unobserved"] as Gauge<*>).value).isEqualTo(0L)
+            assertThat((metricRegistry.metrics["$name.subscribers"] as Gauge<*>).value).isEqualTo(1)
+            assertThat((metricRegistry.metrics["$name.latency"] as Histogram).count).isEqualTo(2L)
+
+            RxHiveMQ.disableMetrics(registry)
+            assertThat(metricRegistry.metrics).isEmpty()
+        }
+    }
+
+    describe("a latency reservoir") {
+        it ("should keep the quantiles within the bucket precision") {
+            val reservoir = LatencyReservoir()
+            (1L..10000L).forEach { reservoir.update(it * 1000) }
+            val snapshot = reservoir.snapshot
+
+            assertThat(snapshot.size()).isEqualTo(10000)
+            assertThat(snapshot.median).isBetween(5000000 * 0.93, 5000000 * 1.07)
+            assertThat(snapshot.get99thPercentile()).isBetween(9900000 * 0.93, 9900000 * 1.07)
+            assertThat(snapshot.max).isGreaterThanOrEqualTo(10000000L)
+            assertThat(snapshot.min).isLessThanOrEqualTo(1000L)
+        }
+
+        it ("should return one value per counted bucket") {
+            val reservoir = LatencyReservoir()
+            repeat(100000) { reservoir.update(1000L) }
+            reservoir.update(5L)
+            val snapshot = reservoir.snapshot as LatencyReservoir.BucketSnapshot
+
+            assertThat(snapshot.size()).isEqualTo(100001)
+            assertThat(snapshot.values).hasSize(2)
+            assertThat(snapshot.values[0]).isEqualTo(5L)
+            assertThat(snapshot.counts).containsExactly(1L, 100000L)
+        }
+
+        it ("should cover the values since the previous snapshot if resetting") {
+            val reservoir = LatencyReservoir.resetting()
+            reservoir.update(1000L)
+            reservoir.update(2000L)
+
+            assertThat(reservoir.snapshot.size()).isEqualTo(2)
+            assertThat(reservoir.snapshot.size()).isEqualTo(0)
+            reservoir.update(3000L)
+            assertThat(reservoir.snapshot.size()).isEqualTo(1)
+        }
+
+        it ("should map every value into the bounds of its bucket") {
+            listOf(0L, 15L, 16L, 17L, 31L, 32L, 1000L, 123456789L, Long.MAX_VALUE).forEach {
+                val bucket = LatencyReservoir.bucket(it)
+                if (it < (1L shl 40)) {
+                    assertThat(it).isBetween(LatencyReservoir.lowest(bucket), LatencyReservoir.highest(bucket))
+                }
+            }
+        }
+    }
+
+    describe("a striped counter") {
+        it ("should sum the increments of all threads") {
+            val counter = StripedCounter()
+            val threads = (0 until 4).map { Thread { repeat(10000) { counter.increment() } } }
+            threads.forEach { it.start() }
+            threads.forEach { it.join() }
+
+            assertThat(counter.sum()).isEqualTo(40000L)
+        }
+    }
+})
@@ -0,0 +1,86 @@
+package rx.hivemq
+
+import io.reactivex.functions.Function
+import io.reactivex.subjects.PublishSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class OverflowPolicySpec : Spek({
+    val firstChar = Function<String, Any> { it.substring(0, 1) }
+
+    describe("a bounded flowable bridge") {
+        it ("should evict the oldest events with dropOldest") {
+            val subject = PublishSubject.create<String>()
+            val policy = OverflowPolicy.dropOldest(2)
+            val ts = FlowableOverflow(subject, policy, firstChar).test(0)
+
+            listOf("a1", "b1", "c1", "d1").forEach { subject.onNext(it) }
+            ts.request(10)
+
+            ts.assertValues("c1", "d1")
+            assertThat(policy.droppedCount).isEqualTo(2)
+        }
+
+        it ("should discard the newest events with dropLatest") {
+            val subject = PublishSubject.create<String>()
+            val policy = OverflowPolicy.dropLatest(2)
+            val ts = FlowableOverflow(subject, policy, firstChar).test(0)
+
+            listOf("a1", "b1", "c1", "d1").forEach { subject.onNext(it) }
+            ts.request(10)
+
+            ts.assertValues("a1", "b1")
+            assertThat(policy.droppedCount).isEqualTo(2)
+        }
+
+        it ("should keep the latest event per key with latestPerKey") {
+            val subject = PublishSubject.create<String>()
+            val policy = OverflowPolicy.latestPerKey(2)
+            val ts = FlowableOverflow(subject, policy, firstChar).test(0)
+
+            listOf("a1", "b1", "a2", "b2", "a3").forEach { subject.onNext(it) }
+            ts.request(10)
+
+            ts.assertValues("a3", "b2")
+            assertThat(policy.droppedCount).isEqualTo(3)
+        }
+
+        it ("should give up blocking after the timeout with block") {
+            val subject = PublishSubject.create<String>()
+            val policy = OverflowPolicy.block(1, 10, TimeUnit.MILLISECONDS)
+            val ts = FlowableOverflow(subject, policy, firstChar).test(0)
+
+            subject.onNext("a1")
+            subject.onNext("b1")
+            ts.request(10)
+
+            ts.assertValues("a1")
+            assertThat(policy.droppedCount).isEqualTo(1)
+        }
+
+        it ("should deliver directly while there is demand") {
+            val subject = PublishSubject.create<String>()
+            val policy = OverflowPolicy.dropOldest(1)
+            val ts = FlowableOverflow(subject, policy, firstChar).test()
+
+            listOf("a1", "b1", "c1").forEach { subject.onNext(it) }
+
+            ts.assertValues("a1", "b1", "c1")
+            assertThat(policy.droppedCount).isEqualTo(0)
+        }
+
+        it ("should dispose the callback on cancel") {
+            val subject = PublishSubject.create<String>()
+            val ts = FlowableOverflow(subject, OverflowPolicy.dropOldest(1), firstChar).test()
+
+            ts.cancel()
+
+            assertThat(subject.hasObservers()).isFalse()
+        }
+    }
+})
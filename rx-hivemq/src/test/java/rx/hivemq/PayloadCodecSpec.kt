@@ -0,0 +1,87 @@
+package rx.hivemq
+
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import io.reactivex.subjects.PublishSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(JUnitPlatform::class)
+class PayloadCodecSpec : Spek({
+    fun decode(codec: PayloadCodec<*>, payload: String) = codec.decode(ByteBuffer.wrap(payload.toByteArray()))
+
+    describe("decoded") {
+        it ("should decode lazily and once for all subscribers") {
+            val decodes = AtomicInteger()
+            val codec = PayloadCodec<String> { decodes.incrementAndGet(); PayloadCodecs.utf8().decode(it) }
+            val subject = PublishSubject.create<RxHiveMQ.Pair<PUBLISH, ClientData>>()
+            val first = subject.compose(RxHiveMQ.decoded(codec)).map { it.payload }.test()
+            val second = subject.compose(RxHiveMQ.decoded(codec)).map { it.payload }.test()
+            val unread = subject.compose(RxHiveMQ.decoded(codec)).test()
+
+            subject.onNext(RxHiveMQ.Pair(PUBLISH("héllo".toByteArray(), "a", QoS.AT_MOST_ONCE), mock(ClientData::class.java)))
+            subject.onNext(RxHiveMQ.Pair(PUBLISH("world".toByteArray(), "a", QoS.AT_MOST_ONCE), mock(ClientData::class.java)))
+
+            first.assertValues("héllo", "world")
+            second.assertValues("héllo", "world")
+            unread.assertValueCount(2)
+            assertThat(decodes.get()).isEqualTo(2)
+        }
+    }
+
+    describe("the json codec") {
+        it ("should parse objects, arrays and scalars") {
+            val value = decode(PayloadCodecs.json(),
+                    """{"a": [1, -2.5e1, true, false, null], "b": "x\"é\n", "c": {}, "d": 12345678901234}""")
+
+            assertThat(value).isEqualTo(linkedMapOf("a" to listOf(1L, -25.0, true, false, null),
+                    "b" to "x\"é\n", "c" to emptyMap<String, Any>(), "d" to 12345678901234L))
+        }
+
+        it ("should refuse malformed json") {
+            listOf("{", "[1,]", "{\"a\" 1}", "01", "\"a", "tru", "1 2").forEach {
+                assertThat(catchThrowable { decode(PayloadCodecs.json(), it) })
+                        .`as`(it).isInstanceOf(IllegalArgumentException::class.java)
+            }
+        }
+
+        it ("should refuse nesting deeper than the limit") {
+            val nested = "[".repeat(Json.MAX_DEPTH) + "]".repeat(Json.MAX_DEPTH)
+            assertThat(decode(PayloadCodecs.json(), nested)).isNotNull()
+
+            listOf(Json.MAX_DEPTH + 1, 100000).forEach {
+                assertThat(catchThrowable { decode(PayloadCodecs.json(), "[".repeat(it) + "]".repeat(it)) })
+                        .`as`(it.toString()).isInstanceOf(IllegalArgumentException::class.java)
+                        .hasMessageContaining("Nesting")
+            }
+        }
+    }
+
+    describe("the length-prefixed codec") {
+        it ("should split the frames") {
+            val payload = ByteBuffer.allocate(4 + 2 + 4 + 0 + 4 + 3)
+            payload.putInt(2).put(byteArrayOf(1, 2)).putInt(0).putInt(3).put(byteArrayOf(3, 4, 5)).flip()
+
+            val frames = PayloadCodecs.lengthPrefixed().decode(payload)
+
+            assertThat(frames.map { it.remaining() }).containsExactly(2, 0, 3)
+            assertThat(frames[2].get(0)).isEqualTo(3.toByte())
+        }
+
+        it ("should refuse truncated frames") {
+            val payload = ByteBuffer.allocate(6)
+            payload.putInt(5).put(byteArrayOf(1, 2)).flip()
+
+            assertThat(catchThrowable { PayloadCodecs.lengthPrefixed().decode(payload) })
+                    .isInstanceOf(IllegalArgumentException::class.java)
+        }
+    }
+})
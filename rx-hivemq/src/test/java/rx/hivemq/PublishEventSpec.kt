@@ -0,0 +1,83 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.whenever
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class PublishEventSpec : Spek({
+    fun brokerCallback(registry: CallbackRegistry): OnPublishReceivedCallback {
+        val captor = argumentCaptor<OnPublishReceivedCallback>()
+        verify(registry).addCallback(captor.capture())
+        return captor.firstValue
+    }
+
+    describe("publishEvents") {
+        val clientData = mock(ClientData::class.java)
+        whenever(clientData.clientId).thenReturn("device-1")
+        val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_LEAST_ONCE)
+
+        it ("should expose the publish without copying the payload") {
+            val registry = mock(CallbackRegistry::class.java)
+            val ts = RxHiveMQ.publishEvents(registry, CallbackPriority.MEDIUM).test()
+
+            brokerCallback(registry).onPublishReceived(publish, clientData)
+
+            val event = ts.values()[0]
+            assertThat(event.clientId).isEqualTo("device-1")
+            assertThat(event.topic).isEqualTo("a/b")
+            assertThat(event.qoS).isEqualTo(QoS.AT_LEAST_ONCE)
+            assertThat(event.payload.isReadOnly).isTrue()
+            assertThat(event.payload.remaining()).isEqualTo(5)
+            assertThat(event.payload.get(0)).isEqualTo('h'.toByte())
+        }
+
+        it ("should recycle the event for synchronous consumers when reuseEvents") {
+            val registry = mock(CallbackRegistry::class.java)
+            val topics = mutableListOf<String>()
+            val events = mutableListOf<PublishEvent>()
+            RxHiveMQ.publishEvents(registry, CallbackPriority.MEDIUM, true).subscribe {
+                topics.add(it.topic)
+                events.add(it)
+            }
+
+            val callback = brokerCallback(registry)
+            callback.onPublishReceived(publish, clientData)
+            callback.onPublishReceived(PUBLISH("bye".toByteArray(), "c/d", QoS.AT_MOST_ONCE), clientData)
+
+            assertThat(topics).containsExactly("a/b", "c/d")
+            assertThat(events[0]).isSameAs(events[1])
+        }
+
+        it ("should keep the payload view while the recycled event holds the same payload") {
+            val registry = mock(CallbackRegistry::class.java)
+            val views = mutableListOf<java.nio.ByteBuffer>()
+            RxHiveMQ.publishEvents(registry, CallbackPriority.MEDIUM, true).subscribe {
+                views.add(it.payload)
+            }
+
+            val callback = brokerCallback(registry)
+            callback.onPublishReceived(publish, clientData)
+            views[0].get()
+            callback.onPublishReceived(publish, clientData)
+            callback.onPublishReceived(PUBLISH("bye".toByteArray(), "c/d", QoS.AT_MOST_ONCE), clientData)
+
+            assertThat(views[1]).isSameAs(views[0])
+            assertThat(views[1].position()).isEqualTo(0)
+            assertThat(views[2]).isNotSameAs(views[0])
+            assertThat(views[2].remaining()).isEqualTo(3)
+        }
+    }
+})
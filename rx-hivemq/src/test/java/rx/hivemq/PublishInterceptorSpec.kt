@@ -0,0 +1,75 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.exception.OnPublishReceivedException
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.hivemq.spi.services.PublishService
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import io.reactivex.functions.BiFunction
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class PublishInterceptorSpec : Spek({
+    describe("publishInterceptor") {
+        it ("should accept, reject and redirect without ending the stream") {
+            val registry = mock(CallbackRegistry::class.java)
+            val publishService = mock(PublishService::class.java)
+            val ts = RxHiveMQ.publishInterceptor(registry, CallbackPriority.HIGH, publishService,
+                    BiFunction<PUBLISH, ClientData, PublishDecision> { publish, _ ->
+                        when (publish.topic) {
+                            "spam" -> PublishDecision.reject()
+                            "old" -> PublishDecision.redirect("new")
+                            else -> PublishDecision.accept()
+                        }
+                    }).test()
+            val captor = argumentCaptor<OnPublishReceivedCallback>()
+            verify(registry).addCallback(captor.capture())
+            val clientData = mock(ClientData::class.java)
+
+            captor.firstValue.onPublishReceived(PUBLISH("a".toByteArray(), "ok", QoS.AT_MOST_ONCE), clientData)
+            assertThat(catchThrowable {
+                captor.firstValue.onPublishReceived(PUBLISH("b".toByteArray(), "spam", QoS.AT_MOST_ONCE), clientData)
+            }).isInstanceOf(OnPublishReceivedException::class.java)
+            val old = PUBLISH("c".toByteArray(), "old", QoS.AT_LEAST_ONCE)
+            assertThat(catchThrowable { captor.firstValue.onPublishReceived(old, clientData) })
+                    .isInstanceOf(OnPublishReceivedException::class.java)
+            captor.firstValue.onPublishReceived(PUBLISH("d".toByteArray(), "ok", QoS.AT_MOST_ONCE), clientData)
+
+            ts.assertValueCount(4)
+            ts.assertNotTerminated()
+            assertThat(ts.values().map { it.right.type }).containsExactly(PublishDecision.Type.ACCEPT,
+                    PublishDecision.Type.REJECT, PublishDecision.Type.REDIRECT, PublishDecision.Type.ACCEPT)
+
+            val redirect = ArgumentCaptor.forClass(PUBLISH::class.java)
+            verify(publishService).publish(redirect.capture())
+            assertThat(redirect.value.topic).isEqualTo("new")
+            assertThat(redirect.value.payload).isSameAs(old.payload)
+        }
+
+        it ("should accept when the decision throws") {
+            val registry = mock(CallbackRegistry::class.java)
+            val ts = RxHiveMQ.publishInterceptor(registry, CallbackPriority.HIGH, mock(PublishService::class.java),
+                    BiFunction<PUBLISH, ClientData, PublishDecision> { _, _ -> throw IllegalStateException() }).test()
+            val captor = argumentCaptor<OnPublishReceivedCallback>()
+            verify(registry).addCallback(captor.capture())
+
+            captor.firstValue.onPublishReceived(PUBLISH("a".toByteArray(), "ok", QoS.AT_MOST_ONCE),
+                    mock(ClientData::class.java))
+
+            ts.assertValueCount(1)
+            ts.assertNotTerminated()
+        }
+    }
+})
@@ -0,0 +1,150 @@
+package rx.hivemq
+
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import io.reactivex.BackpressureStrategy
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.subjects.PublishSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class PublishLogSpec : Spek({
+    fun tempDir(): File = Files.createTempDirectory("rx-hivemq").toFile()
+
+    fun client(clientId: String): ClientData {
+        val clientData = mock(ClientData::class.java)
+        `when`(clientData.clientId).thenReturn(clientId)
+        return clientData
+    }
+
+    describe("a publish log") {
+        it ("should replay the appended records") {
+            val dir = tempDir()
+            val log = PublishLog.open(dir)
+            val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_LEAST_ONCE)
+            publish.isRetain = true
+            log.append(publish, "client-1")
+            log.append(PUBLISH(ByteArray(0), "c", QoS.AT_MOST_ONCE), "client-2")
+            log.sync()
+
+            val records = log.replay().test().assertComplete().values()
+            assertThat(records).hasSize(2)
+            assertThat(records[0].topic).isEqualTo("a/b")
+            assertThat(records[0].clientId).isEqualTo("client-1")
+            assertThat(records[0].qoS).isEqualTo(QoS.AT_LEAST_ONCE)
+            assertThat(records[0].isRetain).isTrue()
+            assertThat(String(records[0].payload)).isEqualTo("hello")
+            assertThat(records[1].payload).isEmpty()
+            assertThat(records[1].toPublish().topic).isEqualTo("c")
+            log.close()
+        }
+
+        it ("should roll over full segments") {
+            val dir = tempDir()
+            val log = PublishLog.open(dir, 128, 1024, 1, TimeUnit.SECONDS)
+            for (i in 0 until 20) {
+                log.append(PUBLISH(ByteArray(32), "t/$i", QoS.AT_MOST_ONCE), "c")
+            }
+            log.append(PUBLISH(ByteArray(1024), "big", QoS.AT_MOST_ONCE), "c")
+            log.close()
+
+            assertThat(log.segmentCount).isGreaterThan(2)
+            val topics = PublishLog.replay(dir).map { it.topic }.test().values()
+            assertThat(topics).hasSize(21)
+            assertThat(topics.first()).isEqualTo("t/0")
+            assertThat(topics.last()).isEqualTo("big")
+        }
+
+        it ("should delete the oldest segments beyond the retained ones") {
+            val dir = tempDir()
+            val log = PublishLog.open(dir, 128, 1024, 1, TimeUnit.SECONDS, 3)
+            for (i in 0 until 20) {
+                log.append(PUBLISH(ByteArray(32), "t/$i", QoS.AT_MOST_ONCE), "c")
+            }
+            log.close()
+
+            assertThat(PublishLog.segments(dir)).hasSize(3)
+            assertThat(log.deletedSegmentCount).isEqualTo(log.segmentCount - 3)
+            val topics = PublishLog.replay(dir).map { it.topic }.test().values()
+            assertThat(topics.last()).isEqualTo("t/19")
+            assertThat(topics).doesNotContain("t/0")
+        }
+
+        it ("should append after the existing segments when reopened") {
+            val dir = tempDir()
+            val first = PublishLog.open(dir)
+            first.append(PUBLISH(ByteArray(1), "first", QoS.AT_MOST_ONCE), "c")
+            first.close()
+            val second = PublishLog.open(dir)
+            second.append(PUBLISH(ByteArray(1), "second", QoS.AT_MOST_ONCE), "c")
+            second.close()
+
+            PublishLog.replay(dir).map { it.topic }.test().assertValues("first", "second")
+        }
+
+        it ("should end the replay of a segment at a record failing its checksum") {
+            val dir = tempDir()
+            val first = PublishLog.open(dir, 4096, 1024, 1, TimeUnit.SECONDS)
+            first.append(PUBLISH("intact".toByteArray(), "a", QoS.AT_MOST_ONCE), "c")
+            first.append(PUBLISH("torn".toByteArray(), "b", QoS.AT_MOST_ONCE), "c")
+            first.append(PUBLISH("after".toByteArray(), "c", QoS.AT_MOST_ONCE), "c")
+            first.close()
+            val second = PublishLog.open(dir, 4096, 1024, 1, TimeUnit.SECONDS)
+            second.append(PUBLISH("next".toByteArray(), "d", QoS.AT_MOST_ONCE), "c")
+            second.close()
+
+            val segment = PublishLog.segments(dir)[0]
+            val bytes = segment.readBytes()
+            val torn = String(bytes, Charsets.ISO_8859_1).indexOf("torn")
+            bytes[torn] = 'T'.toByte()
+            segment.writeBytes(bytes)
+
+            PublishLog.replay(dir).map { it.topic }.test().assertValues("a", "d")
+        }
+
+        it ("should write behind in batches and sync by size") {
+            val dir = tempDir()
+            val log = PublishLog.open(dir, 1024 * 1024, 512, 1, TimeUnit.SECONDS)
+            val subject = PublishSubject.create<RxHiveMQ.Pair<PUBLISH, ClientData>>()
+            val observer = log.writeBehind(subject.toFlowable(BackpressureStrategy.BUFFER), Schedulers.single(), 16).test()
+
+            val clientData = client("client-1")
+            for (i in 0 until 100) {
+                subject.onNext(RxHiveMQ.Pair(PUBLISH(ByteArray(16), "t/$i", QoS.AT_MOST_ONCE), clientData))
+            }
+            subject.onComplete()
+
+            assertThat(observer.await(5, TimeUnit.SECONDS)).isTrue()
+            observer.assertComplete()
+            assertThat(log.appendedCount).isEqualTo(100)
+            assertThat(log.syncCount).isGreaterThan(1)
+            assertThat(log.replay().test().values().map { it.clientId }.distinct()).containsExactly("client-1")
+        }
+
+        it ("should request the publishes as it appends them") {
+            val log = PublishLog.open(tempDir(), 1024 * 1024, 512, 1, TimeUnit.SECONDS)
+            val scheduler = io.reactivex.schedulers.TestScheduler()
+            val requests = mutableListOf<Long>()
+            val clientData = client("client-1")
+            val observer = log.writeBehind(io.reactivex.Flowable.range(0, 100)
+                    .map { RxHiveMQ.Pair(PUBLISH(ByteArray(16), "t/$it", QoS.AT_MOST_ONCE), clientData) }
+                    .doOnRequest { requests.add(it) }, scheduler, 16).test()
+            assertThat(requests).containsExactly(16L)
+
+            scheduler.triggerActions()
+            observer.assertComplete()
+            assertThat(log.appendedCount).isEqualTo(100)
+            assertThat(requests).doesNotContain(Long.MAX_VALUE)
+        }
+    }
+})
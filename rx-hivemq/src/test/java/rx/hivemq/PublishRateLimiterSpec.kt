@@ -0,0 +1,65 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.exception.OnPublishReceivedException
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.whenever
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.Mockito.atLeastOnce
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class PublishRateLimiterSpec : Spek({
+    describe("a publish rate limiter") {
+        it ("should allow a burst and then reject") {
+            val limiter = PublishRateLimiter.create(1.0, 3, 1, TimeUnit.MINUTES)
+
+            assertThat((0 until 5).map { limiter.tryAcquire("a") }).containsExactly(true, true, true, false, false)
+            assertThat(limiter.tryAcquire("b")).isTrue()
+            assertThat(limiter.rejectedCount).isEqualTo(2)
+        }
+
+        it ("should evict the idle buckets") {
+            val limiter = PublishRateLimiter.create(1000000.0, 1, 0, TimeUnit.NANOSECONDS)
+            limiter.tryAcquire("a")
+            Thread.sleep(1)
+
+            assertThat(limiter.evictIdle()).isEqualTo(1)
+            assertThat(limiter.size()).isEqualTo(0)
+        }
+    }
+
+    describe("rateLimits") {
+        it ("should reject the messages exceeding the rate once every subscriber of the priority ran") {
+            val registry = mock(CallbackRegistry::class.java)
+            val rejected = RxHiveMQ.rateLimits(registry, CallbackPriority.MEDIUM,
+                    PublishRateLimiter.create(1.0, 1, 1, TimeUnit.MINUTES)).test()
+            val received = RxHiveMQ.publishReceiveds(registry, CallbackPriority.MEDIUM).test()
+            val captor = ArgumentCaptor.forClass(com.hivemq.spi.callback.Callback::class.java)
+            verify(registry, atLeastOnce()).addCallback(captor.capture())
+            val hub = captor.allValues.filterIsInstance<OnPublishReceivedCallback>().single()
+
+            val clientData = mock(ClientData::class.java)
+            whenever(clientData.clientId).thenReturn("a")
+            val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.AT_MOST_ONCE)
+            hub.onPublishReceived(publish, clientData)
+            val e = catchThrowable { hub.onPublishReceived(publish, clientData) }
+
+            assertThat(e).isInstanceOf(OnPublishReceivedException::class.java)
+            rejected.assertValueCount(1)
+            received.assertValueCount(2)
+        }
+    }
+})
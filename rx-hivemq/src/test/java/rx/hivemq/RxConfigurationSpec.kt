@@ -0,0 +1,122 @@
+package rx.hivemq
+
+import io.reactivex.plugins.RxJavaPlugins
+import io.reactivex.schedulers.Schedulers
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.Properties
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class RxConfigurationSpec : Spek({
+    describe("a config snapshot") {
+        val properties = Properties()
+        properties.setProperty("lanes", " 8 ")
+        properties.setProperty("rate", "12.5")
+        properties.setProperty("enabled", "TRUE")
+        properties.setProperty("typo", "12x")
+        val snapshot = ConfigSnapshot.of(properties)
+
+        it ("should parse typed values") {
+            assertThat(snapshot.getInt("lanes", 1)).isEqualTo(8)
+            assertThat(snapshot.getLong("lanes", 1L)).isEqualTo(8L)
+            assertThat(snapshot.getDouble("rate", 0.0)).isEqualTo(12.5)
+            assertThat(snapshot.getBoolean("enabled", false)).isTrue()
+        }
+
+        it ("should fall back to the default for missing or malformed values") {
+            assertThat(snapshot.getInt("typo", 4)).isEqualTo(4)
+            assertThat(snapshot.getInt("missing", 4)).isEqualTo(4)
+            assertThat(snapshot.getBoolean("typo", true)).isTrue()
+            assertThat(snapshot.getString("missing")).isNull()
+        }
+
+        it ("should not see later changes of the properties") {
+            properties.setProperty("lanes", "16")
+            assertThat(snapshot.getInt("lanes", 1)).isEqualTo(8)
+            assertThat(snapshot).isNotEqualTo(ConfigSnapshot.of(properties))
+        }
+    }
+
+    describe("a watched configuration") {
+        it ("should emit the current snapshot then reload on changes") {
+            val folder = Files.createTempDirectory("rx-hivemq").toFile()
+            val file = File(folder, "test.properties")
+            file.writeText("lanes=4\n")
+
+            val ts = RxConfiguration.watch(folder, "test.properties", 50, TimeUnit.MILLISECONDS, Schedulers.io()).test()
+            ts.awaitCount(1)
+            assertThat(ts.values()[0].getInt("lanes", 0)).isEqualTo(4)
+
+            file.writeText("lanes=6\n")
+            ts.awaitCount(2)
+            assertThat(ts.values()[1].getInt("lanes", 0)).isEqualTo(6)
+
+            file.delete()
+            ts.awaitCount(3)
+            assertThat(ts.values()[2]).isEqualTo(ConfigSnapshot.empty())
+
+            ts.dispose()
+            folder.delete()
+        }
+
+        it ("should debounce a burst of edits into one snapshot") {
+            val folder = Files.createTempDirectory("rx-hivemq").toFile()
+            val file = File(folder, "test.properties")
+            File(folder, "other.properties").writeText("ignored=true\n")
+
+            val ts = RxConfiguration.watch(folder, "test.properties", 300, TimeUnit.MILLISECONDS, Schedulers.io()).test()
+            ts.awaitCount(1)
+            assertThat(ts.values()[0]).isEqualTo(ConfigSnapshot.empty())
+
+            for (i in 1..5) {
+                file.writeText("lanes=$i\n")
+            }
+            File(folder, "other.properties").writeText("ignored=false\n")
+            ts.awaitCount(2)
+            Thread.sleep(500)
+
+            ts.assertValueCount(2)
+            assertThat(ts.values()[1].getInt("lanes", 0)).isEqualTo(5)
+
+            ts.dispose()
+            folder.listFiles().forEach { it.delete() }
+            folder.delete()
+        }
+
+        it ("should skip a malformed file and keep watching") {
+            val folder = Files.createTempDirectory("rx-hivemq").toFile()
+            val file = File(folder, "test.properties")
+            file.writeText("lanes=4\n")
+            val errors = mutableListOf<Throwable>()
+            RxJavaPlugins.setErrorHandler { errors.add(it) }
+            try {
+                val ts = RxConfiguration.watch(folder, "test.properties", 50, TimeUnit.MILLISECONDS, Schedulers.io()).test()
+                ts.awaitCount(1)
+
+                file.writeText("lanes=\\u12\n")
+                Thread.sleep(500)
+                file.writeText("lanes=6\n")
+                ts.awaitCount(2)
+
+                ts.assertNoErrors()
+                ts.assertNotComplete()
+                assertThat(ts.values()[1].getInt("lanes", 0)).isEqualTo(6)
+                assertThat(errors).hasSize(1)
+                assertThat(errors[0]).hasCauseInstanceOf(IOException::class.java)
+
+                ts.dispose()
+            } finally {
+                RxJavaPlugins.reset()
+                folder.listFiles().forEach { it.delete() }
+                folder.delete()
+            }
+        }
+    }
+})
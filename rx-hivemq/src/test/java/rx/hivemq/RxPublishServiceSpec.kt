@@ -0,0 +1,98 @@
+package rx.hivemq
+
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.services.PublishService
+import io.reactivex.Flowable
+import io.reactivex.schedulers.TestScheduler
+import io.reactivex.subjects.PublishSubject
+import io.reactivex.BackpressureStrategy
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class RxPublishServiceSpec : Spek({
+    fun publish(topic: String, payload: String) = PUBLISH(payload.toByteArray(), topic, QoS.AT_MOST_ONCE)
+
+    describe("publishAll") {
+        it ("should flush a window once it is full") {
+            val publishService = mock(PublishService::class.java)
+            val scheduler = TestScheduler()
+            val window = PublishWindow.of(2, 1, TimeUnit.SECONDS)
+            val subject = PublishSubject.create<PUBLISH>()
+            val ts = RxPublishService.publishAll(publishService, subject.toFlowable(BackpressureStrategy.BUFFER),
+                    window, scheduler, 1).test()
+
+            subject.onNext(publish("a", "1"))
+            subject.onNext(publish("b", "1"))
+            subject.onNext(publish("c", "1"))
+            scheduler.triggerActions()
+            verify(publishService, times(2)).publish(org.mockito.ArgumentMatchers.any())
+            assertThat(window.flushCount).isEqualTo(1)
+
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+            verify(publishService, times(3)).publish(org.mockito.ArgumentMatchers.any())
+
+            subject.onComplete()
+            scheduler.triggerActions()
+            ts.assertComplete()
+        }
+
+        it ("should publish the latest message per topic of a coalescing window") {
+            val publishService = mock(PublishService::class.java)
+            val scheduler = TestScheduler()
+            val window = PublishWindow.coalescing(10, 1, TimeUnit.SECONDS)
+            val ts = RxPublishService.publishAll(publishService,
+                    Flowable.just(publish("a", "1"), publish("b", "1"), publish("a", "2")),
+                    window, scheduler, 4).test()
+            scheduler.triggerActions()
+
+            val captor = ArgumentCaptor.forClass(PUBLISH::class.java)
+            verify(publishService, times(2)).publish(captor.capture())
+            assertThat(captor.allValues.map { it.topic to String(it.payload) }).containsExactly("a" to "2", "b" to "1")
+            assertThat(window.coalescedCount).isEqualTo(1)
+            ts.assertComplete()
+        }
+
+        it ("should request at most two windows ahead of the published ones") {
+            val publishService = mock(PublishService::class.java)
+            val scheduler = TestScheduler()
+            var requested = 0L
+            val ts = RxPublishService.publishAll(publishService,
+                    Flowable.range(0, 100).map { publish("t$it", "1") }.doOnRequest { requested += it },
+                    PublishWindow.of(10, 1, TimeUnit.SECONDS), scheduler, 1).test()
+            assertThat(requested).isEqualTo(20L)
+
+            scheduler.triggerActions()
+            verify(publishService, times(100)).publish(org.mockito.ArgumentMatchers.any())
+            ts.assertComplete()
+        }
+
+        it ("should keep the order of the messages of a topic across lanes") {
+            val published = java.util.Collections.synchronizedList(mutableListOf<PUBLISH>())
+            val publishService = mock(PublishService::class.java)
+            org.mockito.Mockito.doAnswer { published.add(it.arguments[0] as PUBLISH) }
+                    .`when`(publishService).publish(org.mockito.ArgumentMatchers.any())
+
+            RxPublishService.publishAll(publishService,
+                    Flowable.range(0, 2000).map { publish("t${it % 8}", "$it") },
+                    PublishWindow.coalescing(5, 1, TimeUnit.MILLISECONDS),
+                    io.reactivex.schedulers.Schedulers.computation(), 4)
+                    .blockingAwait(10, TimeUnit.SECONDS)
+
+            published.groupBy { it.topic }.values.forEach { messages ->
+                val sequence = messages.map { String(it.payload).toInt() }
+                assertThat(sequence).isSorted()
+            }
+            assertThat(published.filter { it.topic == "t0" }.last().let { String(it.payload) }).isEqualTo("1992")
+        }
+    }
+})
@@ -0,0 +1,64 @@
+package rx.hivemq
+
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.SettableFuture
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.message.RetainedMessage
+import com.hivemq.spi.services.AsyncRetainedMessageStore
+import com.nhaarman.mockito_kotlin.whenever
+import io.reactivex.Flowable
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class RxRetainedMessageStoreSpec : Spek({
+    describe("retainedMessages") {
+        it ("should fetch the retained messages on subscription") {
+            val store = mock(AsyncRetainedMessageStore::class.java)
+            val message = RetainedMessage("a/b", "hello".toByteArray(), QoS.AT_MOST_ONCE)
+            whenever(store.retainedMessages).thenReturn(Futures.immediateFuture(setOf(message)))
+
+            val messages = RxRetainedMessageStore.retainedMessages(store)
+            verify(store, never()).retainedMessages
+
+            messages.test().assertValues(message)
+        }
+    }
+
+    describe("removeAll") {
+        it ("should remove every topic and count them") {
+            val store = mock(AsyncRetainedMessageStore::class.java)
+            whenever(store.remove(anyString())).thenReturn(Futures.immediateFuture<Void>(null))
+
+            RxRetainedMessageStore.removeAll(store, Flowable.range(0, 10).map { "t/$it" }, 3, 2)
+                    .test()
+                    .assertValue(10L)
+            verify(store).remove("t/9")
+        }
+
+        it ("should bound the batches in flight") {
+            val store = mock(AsyncRetainedMessageStore::class.java)
+            val pending = mutableListOf<SettableFuture<Void>>()
+            whenever(store.remove(anyString())).thenAnswer {
+                val future = SettableFuture.create<Void>()
+                pending.add(future)
+                future
+            }
+
+            val ts = RxRetainedMessageStore.removeAll(store, Flowable.range(0, 10).map { "t/$it" }, 2, 2).test()
+            assertThat(pending).hasSize(4)
+
+            pending.toList().forEach { it.set(null) }
+            assertThat(pending).hasSize(8)
+
+            ts.assertNoValues()
+        }
+    }
+})
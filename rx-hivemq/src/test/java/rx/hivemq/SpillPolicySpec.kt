@@ -0,0 +1,158 @@
+package rx.hivemq
+
+import com.google.common.base.Optional
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import io.reactivex.subjects.PublishSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import java.io.File
+import java.net.InetAddress
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+@RunWith(JUnitPlatform::class)
+class SpillPolicySpec : Spek({
+    fun tempDir(): File = Files.createTempDirectory("rx-hivemq").toFile()
+
+    val strings = object : SpillPolicy.Serializer<String> {
+        override fun serialize(value: String): ByteArray = value.toByteArray()
+
+        override fun deserialize(bytes: ByteBuffer): String {
+            val b = ByteArray(bytes.remaining())
+            bytes.get(b)
+            return String(b)
+        }
+    }
+
+    describe("a spilling flowable bridge") {
+        it ("should spill beyond the capacity and drain in order") {
+            val dir = tempDir()
+            val subject = PublishSubject.create<String>()
+            val policy = SpillPolicy.create(dir, 2)
+            val ts = RxHiveMQ.spill(subject, policy, strings).test(0)
+
+            (1..5).forEach { subject.onNext("e$it") }
+            assertThat(policy.spilledCount).isEqualTo(3)
+            assertThat(dir.listFiles()).hasSize(1)
+
+            ts.request(3)
+            subject.onNext("e6")
+            ts.request(10)
+
+            ts.assertValues("e1", "e2", "e3", "e4", "e5", "e6")
+            assertThat(policy.spilledCount).isEqualTo(4)
+            assertThat(policy.restoredCount).isEqualTo(4)
+
+            subject.onNext("e7")
+            ts.assertValueCount(7)
+            assertThat(policy.spilledCount).isEqualTo(4)
+        }
+
+        it ("should roll over segments and delete them once drained") {
+            val dir = tempDir()
+            val subject = PublishSubject.create<String>()
+            val policy = SpillPolicy.create(dir, 10, 1024)
+            val ts = RxHiveMQ.spill(subject, policy, strings).test(0)
+
+            (0 until 10000).forEach { subject.onNext("event-$it") }
+            val spillDir = dir.listFiles()[0]
+            val segments = spillDir.listFiles().size
+            assertThat(segments).isGreaterThan(100)
+
+            ts.request(5000)
+            assertThat(spillDir.listFiles().size).isLessThan(segments * 6 / 10)
+            subject.onComplete()
+            ts.request(Long.MAX_VALUE)
+
+            ts.assertValueCount(10000)
+            ts.assertComplete()
+            assertThat(ts.values()).isEqualTo((0 until 10000).map { "event-$it" })
+            assertThat(dir.listFiles()).isEmpty()
+        }
+
+        it ("should delete the spilled events on cancel") {
+            val dir = tempDir()
+            val subject = PublishSubject.create<String>()
+            val ts = RxHiveMQ.spill(subject, SpillPolicy.create(dir, 1), strings).test(0)
+
+            (1..100).forEach { subject.onNext("e$it") }
+            ts.cancel()
+
+            assertThat(subject.hasObservers()).isFalse()
+            assertThat(dir.listFiles()).isEmpty()
+        }
+    }
+
+    describe("a spill queue") {
+        it ("should keep the records behind an empty one") {
+            val queue = SpillQueue.open(tempDir(), 1024)
+            queue.offer(ByteArray(0))
+            queue.offer(byteArrayOf(1, 2, 3))
+
+            assertThat(queue.poll()).isEmpty()
+            assertThat(queue.poll()).containsExactly(1, 2, 3)
+            assertThat(queue.size()).isEqualTo(0)
+            queue.close()
+        }
+
+        it ("should not map segments beyond the one being written") {
+            val dir = tempDir()
+            val queue = SpillQueue.open(dir, 64)
+            (0 until 10).forEach { queue.offer(ByteArray(20)) }
+            (0 until 10).forEach { assertThat(queue.poll()).hasSize(20) }
+            assertThat(queue.poll()).isNull()
+
+            val segments = dir.listFiles()[0].listFiles()
+            assertThat(segments).hasSize(1)
+            queue.offer(byteArrayOf(7))
+            assertThat(queue.poll()).containsExactly(7)
+            assertThat(dir.listFiles()[0].listFiles()).hasSize(1)
+            queue.close()
+        }
+
+        it ("should spill empty events") {
+            val subject = PublishSubject.create<String>()
+            val ts = RxHiveMQ.spill(subject, SpillPolicy.create(tempDir(), 1), strings).test(0)
+
+            listOf("a", "", "b", "").forEach { subject.onNext(it) }
+            ts.request(10)
+
+            ts.assertValues("a", "", "b", "")
+        }
+    }
+
+    describe("the publish serializer") {
+        it ("should restore the PUBLISH and the client") {
+            val publish = PUBLISH("hello".toByteArray(), "a/b", QoS.EXACTLY_ONCE)
+            publish.isRetain = true
+            publish.messageId = 42
+            val clientData = mock(ClientData::class.java)
+            `when`(clientData.clientId).thenReturn("client-1")
+            `when`(clientData.username).thenReturn(Optional.of("user"))
+            `when`(clientData.isAuthenticated).thenReturn(true)
+            `when`(clientData.inetAddress).thenReturn(Optional.of(InetAddress.getByName("10.0.0.1")))
+
+            val serializer = SpillPolicy.publishes()
+            val restored = serializer.deserialize(ByteBuffer.wrap(serializer.serialize(RxHiveMQ.Pair(publish, clientData))))
+
+            assertThat(restored.left.topic).isEqualTo("a/b")
+            assertThat(String(restored.left.payload)).isEqualTo("hello")
+            assertThat(restored.left.qoS).isEqualTo(QoS.EXACTLY_ONCE)
+            assertThat(restored.left.isRetain).isTrue()
+            assertThat(restored.left.messageId).isEqualTo(42)
+            assertThat(restored.right.clientId).isEqualTo("client-1")
+            assertThat(restored.right.username.get()).isEqualTo("user")
+            assertThat(restored.right.isAuthenticated).isTrue()
+            assertThat(restored.right.isAnonymous).isFalse()
+            assertThat(restored.right.inetAddress.get().hostAddress).isEqualTo("10.0.0.1")
+            assertThat(restored.right.certificate.isPresent).isFalse()
+        }
+    }
+})
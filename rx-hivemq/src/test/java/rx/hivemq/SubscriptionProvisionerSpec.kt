@@ -0,0 +1,92 @@
+package rx.hivemq
+
+import com.google.common.util.concurrent.SettableFuture
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.message.Topic
+import com.hivemq.spi.services.AsyncSubscriptionStore
+import com.nhaarman.mockito_kotlin.whenever
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class SubscriptionProvisionerSpec : Spek({
+    fun pendingStore(pending: MutableList<SettableFuture<Void>>): AsyncSubscriptionStore {
+        val store = mock(AsyncSubscriptionStore::class.java)
+        whenever(store.addSubscription(anyString(), any())).thenAnswer {
+            val future = SettableFuture.create<Void>()
+            pending.add(future)
+            future
+        }
+        return store
+    }
+
+    describe("a subscription provisioner") {
+        it ("should bound the round-trips in flight") {
+            val pending = mutableListOf<SettableFuture<Void>>()
+            val provisioner = SubscriptionProvisioner.create(pendingStore(pending), 2)
+
+            val observers = (0 until 5).map { provisioner.provision("c$it", Topic("t", QoS.AT_MOST_ONCE)).test() }
+            assertThat(pending).hasSize(2)
+            assertThat(provisioner.queueDepth).isEqualTo(3)
+
+            pending[0].set(null)
+            observers[0].assertComplete()
+            assertThat(pending).hasSize(3)
+            assertThat(provisioner.inFlight).isEqualTo(2)
+            assertThat(provisioner.queueDepth).isEqualTo(2)
+        }
+
+        it ("should share a pending subscription of the same client and topic") {
+            val pending = mutableListOf<SettableFuture<Void>>()
+            val store = pendingStore(pending)
+            val provisioner = SubscriptionProvisioner.create(store, 1)
+            val topic = Topic("devices/c/sensor", QoS.AT_MOST_ONCE)
+
+            val first = provisioner.provision("c", topic).test()
+            val second = provisioner.provision("c", topic).test()
+            verify(store, times(1)).addSubscription("c", topic)
+            assertThat(provisioner.coalescedCount).isEqualTo(1)
+
+            pending[0].set(null)
+            first.assertComplete()
+            second.assertComplete()
+            assertThat(provisioner.provisionedCount).isEqualTo(1)
+        }
+
+        it ("should not share a pending subscription of the same topic with another QoS") {
+            val pending = mutableListOf<SettableFuture<Void>>()
+            val provisioner = SubscriptionProvisioner.create(pendingStore(pending), 2)
+
+            provisioner.provision("c", Topic("devices/c/sensor", QoS.AT_MOST_ONCE)).test()
+            val second = provisioner.provision("c", Topic("devices/c/sensor", QoS.EXACTLY_ONCE)).test()
+            assertThat(pending).hasSize(2)
+            assertThat(provisioner.coalescedCount).isEqualTo(0)
+
+            pending[1].set(null)
+            second.assertComplete()
+        }
+
+        it ("should take a single permit for the topics of one client") {
+            val pending = mutableListOf<SettableFuture<Void>>()
+            val provisioner = SubscriptionProvisioner.create(pendingStore(pending), 1)
+
+            val ts = provisioner.provision("c", listOf(Topic("a", QoS.AT_MOST_ONCE), Topic("b", QoS.AT_MOST_ONCE))).test()
+            assertThat(pending).hasSize(2)
+            assertThat(provisioner.inFlight).isEqualTo(1)
+
+            pending[0].set(null)
+            ts.assertNotComplete()
+            pending[1].setException(IllegalStateException())
+            ts.assertError(IllegalStateException::class.java)
+            assertThat(provisioner.failedCount).isEqualTo(2)
+        }
+    }
+})
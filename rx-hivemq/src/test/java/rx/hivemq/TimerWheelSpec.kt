@@ -0,0 +1,81 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.callback.schedule.ScheduledCallback
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class TimerWheelSpec : Spek({
+    describe("scheduledTicks") {
+        it ("should share a broker callback per cron expression and report the lateness") {
+            val registry = mock(CallbackRegistry::class.java)
+            val first = RxHiveMQ.scheduledTicks(registry, "0/5 * * * * ?").test()
+            val second = RxHiveMQ.scheduledTicks(registry, "0/5 * * * * ?").test()
+
+            val captor = argumentCaptor<ScheduledCallback>()
+            verify(registry).addCallback(captor.capture())
+            captor.firstValue.execute()
+            captor.firstValue.execute()
+
+            assertThat(first.values().map { it.sequence }).containsExactly(0L, 1L)
+            assertThat(second.values()).hasSize(2)
+            assertThat(first.values()[0].getLateness(TimeUnit.MILLISECONDS)).isBetween(0L, 999L)
+
+            first.dispose()
+            verify(registry, never()).removeCallback(any())
+            second.dispose()
+            verify(registry).removeCallback(any())
+        }
+    }
+
+    describe("a timer wheel") {
+        it ("should fire sub-second intervals in order") {
+            val wheel = TimerWheel.create(1, TimeUnit.MILLISECONDS, 8, Executor { Thread(it).start() })
+            val fast = wheel.intervals(5, TimeUnit.MILLISECONDS).test()
+            val slow = wheel.intervals(30, TimeUnit.MILLISECONDS).test()
+
+            slow.awaitCount(3)
+            slow.cancel()
+
+            assertThat(slow.values().map { it.sequence }).startsWith(0L, 1L, 2L)
+            assertThat(fast.valueCount()).isGreaterThanOrEqualTo(10)
+            val timestamps = fast.values().map { it.timestamp }
+            assertThat(timestamps).isSorted()
+            assertThat(fast.values().all { it.getLateness(TimeUnit.NANOSECONDS) >= 0L }).isTrue()
+
+            wheel.dispose()
+            fast.awaitTerminalEvent(1, TimeUnit.SECONDS)
+            fast.assertComplete()
+        }
+
+        it ("should wait out the rounds of timers beyond a rotation") {
+            val wheel = TimerWheel.create(1, TimeUnit.MILLISECONDS, 4, Executor { Thread(it).start() })
+            val start = System.nanoTime()
+            val ts = wheel.intervals(50, TimeUnit.MILLISECONDS).test()
+
+            ts.awaitCount(1)
+
+            assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50))
+            wheel.dispose()
+        }
+
+        it ("should complete intervals subscribed after disposal") {
+            val wheel = TimerWheel.create()
+            wheel.dispose()
+
+            wheel.intervals(10, TimeUnit.MILLISECONDS).test().assertComplete()
+            assertThat(wheel.isDisposed).isTrue()
+        }
+    }
+})
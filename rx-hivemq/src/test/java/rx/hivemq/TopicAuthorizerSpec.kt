@@ -0,0 +1,127 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnDisconnectCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.callback.security.OnAuthorizationCallback
+import com.hivemq.spi.callback.security.authorization.AuthorizationBehaviour
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.hivemq.spi.topic.MqttTopicPermission
+import com.nhaarman.mockito_kotlin.whenever
+import io.reactivex.Single
+import io.reactivex.functions.Function
+import io.reactivex.plugins.RxJavaPlugins
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.Mockito.atLeastOnce
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+@RunWith(JUnitPlatform::class)
+class TopicAuthorizerSpec : Spek({
+    describe("a topic authorizer") {
+        val evaluations = AtomicInteger()
+        val rules = Function<ClientData, Single<List<MqttTopicPermission>>> { clientData ->
+            evaluations.incrementAndGet()
+            Single.just(listOf(
+                    MqttTopicPermission("devices/${clientData.clientId}/#", MqttTopicPermission.TYPE.ALLOW),
+                    MqttTopicPermission("devices/#", MqttTopicPermission.TYPE.DENY)))
+        }
+        val clientData = mock(ClientData::class.java)
+        whenever(clientData.clientId).thenReturn("a")
+
+        it ("should decide by the first implying permission and cache the decision") {
+            evaluations.set(0)
+            val registry = mock(CallbackRegistry::class.java)
+            val authorizer = TopicAuthorizer.create(registry, CallbackPriority.MEDIUM, rules, AuthorizationBehaviour.NEXT)
+
+            assertThat(authorizer.authorizePublish(clientData, "devices/a/sensor", QoS.AT_MOST_ONCE, false))
+                    .isEqualTo(AuthorizationBehaviour.ACCEPT)
+            assertThat(authorizer.authorizePublish(clientData, String("devices/a/sensor".toCharArray()), QoS.AT_MOST_ONCE, false))
+                    .isEqualTo(AuthorizationBehaviour.ACCEPT)
+            assertThat(authorizer.authorizePublish(clientData, "devices/b/sensor", QoS.AT_MOST_ONCE, false))
+                    .isEqualTo(AuthorizationBehaviour.DENY)
+            assertThat(authorizer.authorizeSubscription(clientData, "other", QoS.AT_MOST_ONCE))
+                    .isEqualTo(AuthorizationBehaviour.NEXT)
+
+            assertThat(authorizer.hitCount).isEqualTo(1)
+            assertThat(authorizer.missCount).isEqualTo(3)
+            assertThat(evaluations.get()).isEqualTo(1)
+            authorizer.dispose()
+        }
+
+        it ("should answer the broker and forget the client on disconnect") {
+            evaluations.set(0)
+            val registry = mock(CallbackRegistry::class.java)
+            val authorizer = TopicAuthorizer.create(registry, CallbackPriority.MEDIUM, rules, AuthorizationBehaviour.DENY)
+            val captor = ArgumentCaptor.forClass(com.hivemq.spi.callback.Callback::class.java)
+            verify(registry, atLeastOnce()).addCallback(captor.capture())
+            val callback = captor.allValues.filterIsInstance<OnAuthorizationCallback>().single()
+            val disconnect = captor.allValues.filterIsInstance<OnDisconnectCallback>().single()
+
+            assertThat(callback.getPermissionsForClient(clientData)).hasSize(2)
+            callback.getPermissionsForClient(clientData)
+            assertThat(evaluations.get()).isEqualTo(1)
+
+            disconnect.onDisconnect(clientData, false)
+            callback.getPermissionsForClient(clientData)
+            assertThat(evaluations.get()).isEqualTo(2)
+            authorizer.dispose()
+        }
+
+        it ("should apply the default behaviour without caching if the permissions fail or time out") {
+            val attempts = AtomicInteger()
+            val errors = mutableListOf<Throwable>()
+            RxJavaPlugins.setErrorHandler { errors.add(it) }
+            try {
+                val failing = Function<ClientData, Single<List<MqttTopicPermission>>> {
+                    when (attempts.incrementAndGet()) {
+                        1 -> Single.error(IllegalStateException("rules unavailable"))
+                        2 -> Single.never()
+                        else -> rules.apply(it)
+                    }
+                }
+                val authorizer = TopicAuthorizer.create(mock(CallbackRegistry::class.java), CallbackPriority.MEDIUM,
+                        failing, AuthorizationBehaviour.NEXT, 16, 100, TimeUnit.MILLISECONDS)
+
+                assertThat(authorizer.authorizePublish(clientData, "devices/a/sensor", QoS.AT_MOST_ONCE, false))
+                        .isEqualTo(AuthorizationBehaviour.NEXT)
+                assertThat(authorizer.getPermissions(clientData)).isEmpty()
+                assertThat(authorizer.authorizePublish(clientData, "devices/a/sensor", QoS.AT_MOST_ONCE, false))
+                        .isEqualTo(AuthorizationBehaviour.ACCEPT)
+                assertThat(errors).hasSize(2)
+                authorizer.dispose()
+            } finally {
+                RxJavaPlugins.reset()
+            }
+        }
+
+        it ("should not cache permissions loaded while the client was invalidated") {
+            evaluations.set(0)
+            val authorizer = AtomicReference<TopicAuthorizer>()
+            val racing = Function<ClientData, Single<List<MqttTopicPermission>>> {
+                val permissions = rules.apply(it)
+                if (evaluations.get() == 1) {
+                    authorizer.get().invalidate(it.clientId)
+                }
+                permissions
+            }
+            authorizer.set(TopicAuthorizer.create(mock(CallbackRegistry::class.java), CallbackPriority.MEDIUM, racing,
+                    AuthorizationBehaviour.DENY))
+
+            assertThat(authorizer.get().getPermissions(clientData)).hasSize(2)
+            authorizer.get().getPermissions(clientData)
+            authorizer.get().getPermissions(clientData)
+            assertThat(evaluations.get()).isEqualTo(2)
+            authorizer.get().dispose()
+        }
+    }
+})
@@ -0,0 +1,84 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+@RunWith(JUnitPlatform::class)
+class TopicFilterSpec : Spek({
+    fun topics(ts: io.reactivex.observers.TestObserver<RxHiveMQ.Pair<PUBLISH, ClientData>>) =
+            ts.values().map { it.left.topic }
+
+    describe("publishReceiveds with a topic filter") {
+        val registry = mock(CallbackRegistry::class.java)
+        val priority = CallbackPriority.VERY_HIGH
+        val exact = RxHiveMQ.publishReceiveds(registry, priority, "devices/1/sensor").test()
+        val single = RxHiveMQ.publishReceiveds(registry, priority, "devices/+/sensor").test()
+        val multi = RxHiveMQ.publishReceiveds(registry, priority, "devices/#").test()
+        val all = RxHiveMQ.publishReceiveds(registry, priority, "#").test()
+        val sys = RxHiveMQ.publishReceiveds(registry, priority, "\$SYS/#").test()
+
+        val captor = argumentCaptor<OnPublishReceivedCallback>()
+        verify(registry, times(1)).addCallback(captor.capture())
+        val clientData = mock(ClientData::class.java)
+        listOf("devices/1/sensor", "devices/2/sensor", "devices", "devices/1/sensor/raw", "other", "\$SYS/uptime")
+                .forEach { captor.firstValue.onPublishReceived(PUBLISH(ByteArray(0), it, QoS.AT_MOST_ONCE), clientData) }
+
+        it ("should match exact topics") {
+            assertThat(topics(exact)).containsExactly("devices/1/sensor")
+        }
+
+        it ("should match a single level with +") {
+            assertThat(topics(single)).containsExactly("devices/1/sensor", "devices/2/sensor")
+        }
+
+        it ("should match the parent and all sub levels with #") {
+            assertThat(topics(multi)).containsExactly("devices/1/sensor", "devices/2/sensor", "devices",
+                    "devices/1/sensor/raw")
+        }
+
+        it ("should not match \$ topics with wildcards at the first level") {
+            assertThat(topics(all)).doesNotContain("\$SYS/uptime").hasSize(5)
+            assertThat(topics(sys)).containsExactly("\$SYS/uptime")
+        }
+
+        it ("should match a single topic filter like the index") {
+            val topics = listOf("devices/1/sensor", "devices/2/sensor", "devices", "devices/1/sensor/raw", "other",
+                    "\$SYS/uptime")
+            mapOf("devices/1/sensor" to exact, "devices/+/sensor" to single, "devices/#" to multi, "#" to all,
+                    "\$SYS/#" to sys).forEach { filter, ts ->
+                val levels = filter.split("/").toTypedArray()
+                assertThat(topics.filter { TopicFilterIndex.matches(levels, it) }).`as`(filter).isEqualTo(topics(ts))
+            }
+            assertThat(TopicFilterIndex.matches(arrayOf("a", "+"), "a/")).isTrue()
+            assertThat(TopicFilterIndex.matches(arrayOf("a", "+"), "a")).isFalse()
+            assertThat(TopicFilterIndex.matches(arrayOf("+"), "a/b")).isFalse()
+        }
+
+        it ("should unregister when the last filter is disposed") {
+            listOf(exact, single, multi, all, sys).forEach { it.dispose() }
+            verify(registry, times(1)).removeCallback(any())
+        }
+
+        it ("should reject invalid filters") {
+            assertThatThrownBy { RxHiveMQ.publishReceiveds(registry, priority, "a/#/b") }
+                    .isInstanceOf(IllegalArgumentException::class.java)
+            assertThatThrownBy { RxHiveMQ.publishReceiveds(registry, priority, "a/b+") }
+                    .isInstanceOf(IllegalArgumentException::class.java)
+        }
+    }
+})
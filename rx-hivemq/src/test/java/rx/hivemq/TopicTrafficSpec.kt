@@ -0,0 +1,112 @@
+package rx.hivemq
+
+import com.hivemq.spi.callback.Callback
+import com.hivemq.spi.callback.CallbackPriority
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback
+import com.hivemq.spi.callback.registry.CallbackRegistry
+import com.hivemq.spi.callback.schedule.ScheduledCallback
+import com.hivemq.spi.message.PUBLISH
+import com.hivemq.spi.message.QoS
+import com.hivemq.spi.security.ClientData
+import com.hivemq.spi.services.PublishService
+import com.nhaarman.mockito_kotlin.argumentCaptor
+import com.nhaarman.mockito_kotlin.times
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.*
+import org.junit.platform.runner.JUnitPlatform
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnitPlatform::class)
+class TopicTrafficSpec : Spek({
+    val second = TimeUnit.SECONDS.toNanos(1)
+
+    describe("topic traffic") {
+        it ("should count messages and bytes per prefix") {
+            val traffic = TopicTraffic.create(2, 16, 0L)
+            traffic.record("devices/1/sensor", 10)
+            traffic.record("devices/1/status", 30)
+            traffic.record("devices/2/sensor", 5)
+            traffic.record("devices", 1)
+            traffic.tick(second)
+
+            val stats = traffic.getStats("devices/1")!!
+            assertThat(stats.getMessagesPerSecond(TopicTraffic.Window.SECOND)).isEqualTo(2.0)
+            assertThat(stats.getBytesPerSecond(TopicTraffic.Window.SECOND)).isEqualTo(40.0)
+            assertThat(traffic.getStats("devices/2")!!.getMessagesPerSecond(TopicTraffic.Window.SECOND)).isEqualTo(1.0)
+            assertThat(traffic.stats.keys).containsOnly("devices/1", "devices/2", "devices")
+        }
+
+        it ("should slide the windows") {
+            val traffic = TopicTraffic.create(1, 16, 0L)
+            for (t in 1..120) {
+                if (t <= 60) {
+                    repeat(6) { traffic.record("a/b", 100) }
+                }
+                traffic.tick(t * second)
+            }
+
+            val stats = traffic.getStats("a")!!
+            assertThat(stats.getMessagesPerSecond(TopicTraffic.Window.SECOND)).isEqualTo(0.0)
+            assertThat(stats.getMessagesPerSecond(TopicTraffic.Window.MINUTE)).isEqualTo(0.0)
+            assertThat(stats.getMessagesPerSecond(TopicTraffic.Window.FIVE_MINUTES)).isCloseTo(3.0, within(0.001))
+            assertThat(stats.getBytesPerSecond(TopicTraffic.Window.FIVE_MINUTES)).isCloseTo(300.0, within(0.001))
+
+            for (t in 121..420) {
+                traffic.tick(t * second)
+            }
+            assertThat(traffic.getStats("a")!!.getMessagesPerSecond(TopicTraffic.Window.FIVE_MINUTES)).isEqualTo(0.0)
+            assertThat(traffic.stats).isEmpty()
+        }
+
+        it ("should share the counters beyond the prefix limit") {
+            val traffic = TopicTraffic.create(1, 2, 0L)
+            listOf("a/1", "b/1", "c/1", "d/1", "a/2").forEach { traffic.record(it, 1) }
+            traffic.tick(second)
+
+            assertThat(traffic.stats.keys).containsOnly("a", "b", TopicTraffic.OTHER_TOPICS)
+            assertThat(traffic.getStats("a")!!.getMessagesPerSecond(TopicTraffic.Window.SECOND)).isEqualTo(2.0)
+            assertThat(traffic.getStats(TopicTraffic.OTHER_TOPICS)!!.getMessagesPerSecond(TopicTraffic.Window.SECOND))
+                    .isEqualTo(2.0)
+        }
+
+        it ("should summarize as compact json") {
+            val traffic = TopicTraffic.create(1, 16, 0L)
+            traffic.record("a\"/b", 10)
+            traffic.tick(second)
+
+            assertThat(traffic.summary()).isEqualTo("{\"a\\\"\":[1.0,1.0,1.0,10.0,10.0,10.0]}")
+            assertThat(Json.parse(traffic.summary())).isInstanceOf(Map::class.java)
+        }
+
+        it ("should count and publish on the broker callbacks until disposed") {
+            val registry = mock(CallbackRegistry::class.java)
+            val publishService = mock(PublishService::class.java)
+            val traffic = TopicTraffic.create(registry, CallbackPriority.LOW, 1, 16)
+            val summaries = traffic.publishSummaries(registry, publishService, "\$SYS/traffic", "0 * * * * ?").test()
+
+            val captor = argumentCaptor<Callback>()
+            verify(registry, times(3)).addCallback(captor.capture())
+            captor.allValues.filterIsInstance<OnPublishReceivedCallback>().first()
+                    .onPublishReceived(PUBLISH("1".toByteArray(), "a/b", QoS.AT_MOST_ONCE), mock(ClientData::class.java))
+            val scheduled = captor.allValues.filterIsInstance<ScheduledCallback>()
+            scheduled.first { it.cronExpression() == TopicTraffic.TICK }.execute()
+            scheduled.first { it.cronExpression() == "0 * * * * ?" }.execute()
+
+            val published = argumentCaptor<PUBLISH>()
+            verify(publishService).publish(published.capture())
+            assertThat(published.firstValue.topic).isEqualTo("\$SYS/traffic")
+            assertThat(published.firstValue.isRetain).isTrue()
+            assertThat(String(published.firstValue.payload)).startsWith("{\"a\":[")
+
+            traffic.dispose()
+            summaries.dispose()
+            verify(registry, times(3)).removeCallback(any())
+        }
+    }
+})